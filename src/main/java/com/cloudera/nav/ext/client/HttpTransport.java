@@ -0,0 +1,65 @@
+package com.cloudera.nav.ext.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Sends HTTP requests to the Navigator REST API. Implementations are thread-safe and may keep
+ * connections open between requests, until closed.
+ */
+public interface HttpTransport extends Closeable {
+
+	/**
+	 * Sends a request with a JSON body, or none.
+	 *
+	 * @param method	HTTP method, like GET or POST
+	 * @param url		Full URL of the API endpoint
+	 * @param body		JSON request body, null for none
+	 * @return Returns the response, which must be closed to release the connection.
+	 */
+	default Response execute(String method, String url, String body) throws IOException {
+		return execute(method, url, body, Collections.<String, String>emptyMap());
+	}
+
+	/**
+	 * Sends a request with additional headers, like the validators of a conditional request.
+	 *
+	 * @param method	HTTP method, like GET or POST
+	 * @param url		Full URL of the API endpoint
+	 * @param body		JSON request body, null for none
+	 * @param headers	Request headers by name
+	 * @return Returns the response, which must be closed to release the connection.
+	 */
+	Response execute(String method, String url, String body, Map<String, String> headers) throws IOException;
+
+	/**
+	 * The response of a request.
+	 */
+	interface Response extends Closeable {
+
+		int getStatusCode();
+
+		String getStatusText();
+
+		/**
+		 * @param name	Header name, like ETag
+		 * @return Returns the value of the response header, or null if there is none.
+		 */
+		String getHeader(String name);
+
+		/**
+		 * @return the response body, decoded if it was compressed; empty if there is none
+		 */
+		InputStream getBody() throws IOException;
+
+		/**
+		 * Releases the connection, for reuse when the body was read to the end.
+		 */
+		@Override
+		void close();
+	}
+
+}
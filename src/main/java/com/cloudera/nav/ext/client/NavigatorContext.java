@@ -0,0 +1,147 @@
+package com.cloudera.nav.ext.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.nav.sdk.client.ClientConfig;
+import com.cloudera.nav.sdk.client.MetadataExtractor;
+import com.cloudera.nav.sdk.client.NavApiCient;
+import com.cloudera.nav.sdk.client.NavigatorPlugin;
+import com.google.common.base.Preconditions;
+
+/**
+ * Holds the Navigator plugin, REST client, metadata extractor and HTTP transport shared by the
+ * extension classes. The configuration file is parsed and the client is built
+ * (including loading the SSL truststore) only once, on first use.
+ * Instances are thread-safe.
+ */
+public class NavigatorContext {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NavigatorContext.class);
+
+	public static final String DEFAULT_CONFIG_FILE = "navigator.conf";
+
+	private static volatile NavigatorContext defaultContext;
+
+	private final String configFilePath; //Navigator configuration file, null if the plugin was given
+	private volatile NavigatorPlugin plugin; //Plugin used to write metadata to Navigator
+	private volatile MetadataExtractor extractor; //Metadata extractor
+	private volatile HttpTransport transport; //Pooled HTTP connections for the REST calls the SDK does not cover
+
+	/**
+	 * Constructs a context reading the given configuration file on first use.
+	 *
+	 * @param configFilePath	Navigator configuration file, like: navigator.conf
+	 */
+	public NavigatorContext(String configFilePath) {
+		Preconditions.checkArgument(configFilePath != null, "Argument configFilePath cannot be null");
+		this.configFilePath = configFilePath;
+	}
+
+	/**
+	 * Constructs a context around an already configured plugin.
+	 *
+	 * @param plugin	Navigator plugin
+	 */
+	public NavigatorContext(NavigatorPlugin plugin) {
+		Preconditions.checkArgument(plugin != null, "Argument plugin cannot be null");
+		this.configFilePath = null;
+		this.plugin = plugin;
+	}
+
+	/**
+	 * @return the context shared by default-constructed extension classes,
+	 * configured from {@value #DEFAULT_CONFIG_FILE}
+	 */
+	public static NavigatorContext getDefault() {
+		NavigatorContext context = defaultContext;
+		if (context == null) {
+			synchronized (NavigatorContext.class) {
+				context = defaultContext;
+				if (context == null) {
+					context = new NavigatorContext(DEFAULT_CONFIG_FILE);
+					defaultContext = context;
+				}
+			}
+		}
+		return context;
+	}
+
+	/**
+	 * @return the Navigator plugin, created from the configuration file on first call
+	 */
+	public NavigatorPlugin getPlugin() {
+		NavigatorPlugin result = plugin;
+		if (result == null) {
+			synchronized (this) {
+				result = plugin;
+				if (result == null) {
+					LOG.info(String.format("Creates the Navigator plugin from the configuration file: %s", configFilePath));
+					result = NavigatorPlugin.fromConfigFile(configFilePath);
+					plugin = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the client to communicate with the Navigator REST API
+	 */
+	public NavApiCient getClient() {
+		return getPlugin().getClient();
+	}
+
+	/**
+	 * @return the client configuration
+	 */
+	public ClientConfig getConfig() {
+		return getPlugin().getConfig();
+	}
+
+	/**
+	 * @return the metadata extractor, created on first call
+	 */
+	public MetadataExtractor getExtractor() {
+		MetadataExtractor result = extractor;
+		if (result == null) {
+			synchronized (this) {
+				result = extractor;
+				if (result == null) {
+					result = new MetadataExtractor(getClient(), null);
+					extractor = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the HTTP transport of the REST calls made by the extension classes, 
+	 * a {@link PooledHttpTransport} created on first call unless set
+	 */
+	public HttpTransport getHttpTransport() {
+		HttpTransport result = transport;
+		if (result == null) {
+			synchronized (this) {
+				result = transport;
+				if (result == null) {
+					result = new PooledHttpTransport(getConfig());
+					transport = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sets the HTTP transport of the REST calls, e.g. with other timeouts or pool size.
+	 *
+	 * @param transport	HTTP transport
+	 */
+	public void setHttpTransport(HttpTransport transport) {
+		Preconditions.checkArgument(transport != null, "Argument transport cannot be null");
+		this.transport = transport;
+	}
+
+}
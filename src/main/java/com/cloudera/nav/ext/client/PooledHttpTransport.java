@@ -0,0 +1,252 @@
+package com.cloudera.nav.ext.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.DeleteMethod;
+import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.net.util.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.nav.sdk.client.ClientConfig;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A HTTP transport over a bounded pool of keep-alive connections, so consecutive requests to
+ * Navigator reuse open connections instead of paying a TCP and TLS handshake each; new TLS
+ * connections resume the cached session of the default SSL context.
+ * Responses compressed with gzip are decoded. Every request is bounded by a connect timeout,
+ * a read timeout between packets and a timeout of the whole request, after which it is aborted.
+ * Idle connections are closed after {@link #DEFAULT_IDLE_TIMEOUT_MS}.
+ */
+public class PooledHttpTransport implements HttpTransport {
+
+	private static final Logger LOG = LoggerFactory.getLogger(PooledHttpTransport.class);
+
+	public static final int DEFAULT_MAX_CONNECTIONS = 8;
+	public static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+	public static final int DEFAULT_READ_TIMEOUT_MS = 60000;
+	public static final long DEFAULT_REQUEST_TIMEOUT_MS = 300000L;
+	public static final long DEFAULT_IDLE_TIMEOUT_MS = 60000L;
+
+	private final MultiThreadedHttpConnectionManager connectionManager; //Pool of keep-alive connections
+	private final HttpClient client;
+	private final ScheduledExecutorService scheduler; //Aborts timed out requests, closes idle connections
+	private final String authorization; //Basic authorization header, encoded once
+	private volatile long requestTimeoutMs = DEFAULT_REQUEST_TIMEOUT_MS; //Timeout of a whole request
+
+	/**
+	 * Constructs a transport with the credentials of a client configuration and the default pool size.
+	 *
+	 * @param config	Client configuration
+	 */
+	public PooledHttpTransport(ClientConfig config) {
+		this(config.getUsername(), config.getPassword(), DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * Constructs a transport.
+	 *
+	 * @param username			Navigator user name
+	 * @param password			Navigator password
+	 * @param maxConnections	Maximum number of open connections, to each host and in total
+	 */
+	public PooledHttpTransport(String username, String password, int maxConnections) {
+		Preconditions.checkArgument(maxConnections > 0, "Argument maxConnections must be positive");
+		String userpass = username + ":" + password;
+		this.authorization = "Basic " + new String(Base64.encodeBase64(userpass.getBytes(StandardCharsets.UTF_8)),
+												   StandardCharsets.US_ASCII);
+
+		this.connectionManager = new MultiThreadedHttpConnectionManager();
+		HttpConnectionManagerParams params = connectionManager.getParams();
+		params.setDefaultMaxConnectionsPerHost(maxConnections);
+		params.setMaxTotalConnections(maxConnections);
+		params.setConnectionTimeout(DEFAULT_CONNECT_TIMEOUT_MS);
+		params.setSoTimeout(DEFAULT_READ_TIMEOUT_MS);
+		params.setStaleCheckingEnabled(true);
+		params.setTcpNoDelay(true);
+		this.client = new HttpClient(connectionManager);
+		//Waits for a pooled connection no longer than for a new one
+		client.getParams().setConnectionManagerTimeout(DEFAULT_CONNECT_TIMEOUT_MS);
+
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("http-transport-%d").setDaemon(true).build());
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				connectionManager.closeIdleConnections(DEFAULT_IDLE_TIMEOUT_MS);
+			}
+		}, DEFAULT_IDLE_TIMEOUT_MS, DEFAULT_IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sets the timeout of establishing a connection, and of waiting for a pooled connection.
+	 *
+	 * @param connectTimeoutMs	Timeout in milliseconds, 0 for none
+	 */
+	public void setConnectTimeoutMs(int connectTimeoutMs) {
+		Preconditions.checkArgument(connectTimeoutMs >= 0, "Argument connectTimeoutMs cannot be negative");
+		connectionManager.getParams().setConnectionTimeout(connectTimeoutMs);
+		client.getParams().setConnectionManagerTimeout(connectTimeoutMs);
+	}
+
+	/**
+	 * Sets the timeout of waiting for data from the server.
+	 *
+	 * @param readTimeoutMs	Timeout in milliseconds, 0 for none
+	 */
+	public void setReadTimeoutMs(int readTimeoutMs) {
+		Preconditions.checkArgument(readTimeoutMs >= 0, "Argument readTimeoutMs cannot be negative");
+		connectionManager.getParams().setSoTimeout(readTimeoutMs);
+	}
+
+	/**
+	 * Sets the timeout of a whole request, from sending it to closing its response.
+	 *
+	 * @param requestTimeoutMs	Timeout in milliseconds, 0 for none
+	 */
+	public void setRequestTimeoutMs(long requestTimeoutMs) {
+		Preconditions.checkArgument(requestTimeoutMs >= 0, "Argument requestTimeoutMs cannot be negative");
+		this.requestTimeoutMs = requestTimeoutMs;
+	}
+
+	@Override
+	public Response execute(String method, String url, String body, Map<String, String> headers) throws IOException {
+		final HttpMethodBase request = newMethod(method, url);
+		request.addRequestHeader("Authorization", authorization);
+		request.addRequestHeader("Accept", "application/json");
+		request.addRequestHeader("Accept-Encoding", "gzip");
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			request.setRequestHeader(header.getKey(), header.getValue());
+		}
+		if (body != null) {
+			Preconditions.checkArgument(request instanceof EntityEnclosingMethod, "%s requests have no body", method);
+			((EntityEnclosingMethod) request).setRequestEntity(new StringRequestEntity(body, "application/json", "UTF-8"));
+		}
+
+		ScheduledFuture<?> timeout = null;
+		if (requestTimeoutMs > 0) {
+			timeout = scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					LOG.warn(String.format("Aborts the %s request to %s after %d ms.", request.getName(),
+										   request.getPath(), requestTimeoutMs));
+					request.abort();
+				}
+			}, requestTimeoutMs, TimeUnit.MILLISECONDS);
+		}
+		try {
+			client.executeMethod(request);
+		} catch (IOException | RuntimeException e) {
+			release(request, timeout);
+			throw e;
+		}
+		return new PooledResponse(request, timeout);
+	}
+
+	private static HttpMethodBase newMethod(String method, String url) {
+		switch (method) {
+		case "GET":
+			return new GetMethod(url);
+		case "POST":
+			return new PostMethod(url);
+		case "PUT":
+			return new PutMethod(url);
+		case "DELETE":
+			return new DeleteMethod(url);
+		default:
+			throw new IllegalArgumentException("Unsupported HTTP method: " + method);
+		}
+	}
+
+	private static void release(HttpMethodBase request, ScheduledFuture<?> timeout) {
+		if (timeout != null) {
+			timeout.cancel(false);
+		}
+		request.releaseConnection();
+	}
+
+	/**
+	 * A response whose connection returns to the pool when closed.
+	 */
+	private static class PooledResponse implements Response {
+		private final HttpMethodBase request;
+		private final ScheduledFuture<?> timeout;
+		private InputStream body;
+
+		PooledResponse(HttpMethodBase request, ScheduledFuture<?> timeout) {
+			this.request = request;
+			this.timeout = timeout;
+		}
+
+		@Override
+		public int getStatusCode() {
+			return request.getStatusCode();
+		}
+
+		@Override
+		public String getStatusText() {
+			return request.getStatusText();
+		}
+
+		@Override
+		public String getHeader(String name) {
+			Header header = request.getResponseHeader(name);
+			return header == null ? null : header.getValue();
+		}
+
+		@Override
+		public InputStream getBody() throws IOException {
+			if (body == null) {
+				InputStream stream = request.getResponseBodyAsStream();
+				Header encoding = request.getResponseHeader("Content-Encoding");
+				if (stream == null) {
+					stream = new ByteArrayInputStream(new byte[0]);
+				} else if (encoding != null && "gzip".equalsIgnoreCase(encoding.getValue())) {
+					stream = new GZIPInputStream(stream);
+				}
+				body = stream;
+			}
+			return body;
+		}
+
+		@Override
+		public void close() {
+			release(request, timeout);
+		}
+	}
+
+	/**
+	 * Closes all connections. Requests in progress fail.
+	 */
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+		connectionManager.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("PooledHttpTransport[connections=%d]", connectionManager.getConnectionsInPool());
+	}
+
+}
@@ -0,0 +1,188 @@
+package com.cloudera.nav.ext.client;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.nav.sdk.model.Source;
+import com.cloudera.nav.sdk.model.SourceType;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Resolves and memoises the HDFS and Hive sources used to create entities.
+ * Sources are fetched from Navigator on first use and again when the refresh interval
+ * has elapsed or {@link #refresh()} is called.
+ * When several HDFS sources exist, paths are routed to a source by the authority of a full
+ * HDFS URI (hdfs://nameservice1/user/...), by the longest matching route prefix, or to the
+ * default HDFS source.
+ */
+public class SourceResolver {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SourceResolver.class);
+
+	public static final long DEFAULT_REFRESH_INTERVAL_MINUTES = 60L;
+
+	private final NavigatorContext context; //Shared Navigator client
+	private long refreshIntervalMillis = TimeUnit.MINUTES.toMillis(DEFAULT_REFRESH_INTERVAL_MINUTES);
+	private final TreeMap<String, String> hdfsRoutes = new TreeMap<String, String>(); //Path prefix -> source name or identity
+	private String defaultHdfsSource; //Name or identity of the default HDFS source
+
+	private List<Source> hdfsSources; //Memoised HDFS sources
+	private Source hiveSource; //Memoised Hive metastore source
+	private long hdfsLoadedAt;
+	private long hiveLoadedAt;
+
+	/**
+	 * Constructs a source resolver on the given Navigator context.
+	 *
+	 * @param context	Navigator context
+	 */
+	public SourceResolver(NavigatorContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Sets how long resolved sources are reused before they are fetched again.
+	 *
+	 * @param interval	Refresh interval, 0 or negative to never refresh automatically
+	 * @param unit		Time unit of the interval
+	 */
+	public synchronized void setRefreshInterval(long interval, TimeUnit unit) {
+		this.refreshIntervalMillis = unit.toMillis(interval);
+	}
+
+	/**
+	 * Routes HDFS paths under the given prefix to the given source.
+	 *
+	 * @param pathPrefix	Path prefix, like: /warehouse
+	 * @param source		Source name or identity
+	 */
+	public synchronized void addHdfsRoute(String pathPrefix, String source) {
+		Preconditions.checkArgument(StringUtils.isNotEmpty(pathPrefix), "Argument pathPrefix cannot be null");
+		Preconditions.checkArgument(StringUtils.isNotEmpty(source), "Argument source cannot be null");
+		hdfsRoutes.put(StringUtils.removeEnd(pathPrefix, "/"), source);
+	}
+
+	/**
+	 * Sets the HDFS source of paths which match no route.
+	 * If not set, the first HDFS source returned by Navigator is used.
+	 *
+	 * @param source	Source name or identity
+	 */
+	public synchronized void setDefaultHdfsSource(String source) {
+		this.defaultHdfsSource = source;
+	}
+
+	/**
+	 * Discards the memoised sources, so they are fetched again on next use.
+	 */
+	public synchronized void refresh() {
+		LOG.info("Refreshes the HDFS and Hive sources.");
+		hdfsSources = null;
+		hiveSource = null;
+	}
+
+	/**
+	 * @return the Hive metastore source
+	 */
+	public synchronized Source getHiveSource() {
+		if (hiveSource == null || isExpired(hiveLoadedAt)) {
+			LOG.info("Gets the Hive metastore source.");
+			hiveSource = context.getClient().getHMSSource();
+			hiveLoadedAt = System.currentTimeMillis();
+		}
+		return hiveSource;
+	}
+
+	/**
+	 * @return all HDFS sources
+	 */
+	public synchronized Collection<Source> getHdfsSources() {
+		if (hdfsSources == null || isExpired(hdfsLoadedAt)) {
+			LOG.info("Gets the HDFS sources.");
+			hdfsSources = ImmutableList.copyOf(context.getClient().getSourcesForType(SourceType.HDFS));
+			hdfsLoadedAt = System.currentTimeMillis();
+		}
+		return hdfsSources;
+	}
+
+	/**
+	 * Gets the HDFS source that a path belongs to.
+	 *
+	 * @param path	File system path or full HDFS URI, like: /user/user1 or hdfs://nameservice1/user/user1
+	 * @return Returns the HDFS source.
+	 */
+	public synchronized Source getHdfsSource(String path) {
+		Collection<Source> sources = getHdfsSources();
+		if (sources.isEmpty()) {
+			throw new NoSuchElementException("No HDFS source found in Navigator");
+		}
+
+		//Routes by the authority of a full URI
+		URI uri = isUri(path) ? URI.create(path) : null;
+		if (uri != null && uri.getAuthority() != null) {
+			for (Source source : sources) {
+				if (StringUtils.isNotEmpty(source.getSourceUrl())
+						&& uri.getAuthority().equals(URI.create(source.getSourceUrl()).getAuthority())) {
+					return source;
+				}
+			}
+			LOG.warn(String.format("No HDFS source matches the authority of %s", path));
+		}
+
+		//Routes by the longest matching path prefix
+		String fileSystemPath = toFileSystemPath(path);
+		for (Map.Entry<String, String> route : hdfsRoutes.descendingMap().entrySet()) {
+			String prefix = route.getKey();
+			if (fileSystemPath.equals(prefix) || fileSystemPath.startsWith(prefix + "/") || prefix.isEmpty()) {
+				return findSource(sources, route.getValue());
+			}
+		}
+
+		if (defaultHdfsSource != null) {
+			return findSource(sources, defaultHdfsSource);
+		}
+		if (sources.size() > 1) {
+			LOG.warn(String.format("%d HDFS sources found and no route matches %s, takes the first one.",
+								   sources.size(), path));
+		}
+		return sources.iterator().next();
+	}
+
+	private static Source findSource(Collection<Source> sources, String nameOrIdentity) {
+		for (Source source : sources) {
+			if (nameOrIdentity.equals(source.getIdentity()) || nameOrIdentity.equals(source.getName())) {
+				return source;
+			}
+		}
+		throw new NoSuchElementException("HDFS source not found: " + nameOrIdentity);
+	}
+
+	private boolean isExpired(long loadedAt) {
+		return refreshIntervalMillis > 0 && System.currentTimeMillis() - loadedAt > refreshIntervalMillis;
+	}
+
+	/**
+	 * Strips the scheme and authority from a full HDFS URI.
+	 *
+	 * @param path	File system path or full HDFS URI
+	 * @return Returns the file system path as indexed by Navigator, like: /user/user1
+	 */
+	public static String toFileSystemPath(String path) {
+		return isUri(path) ? URI.create(path).getPath() : path;
+	}
+	
+	private static boolean isUri(String path) {
+		return path.contains("://");
+	}
+
+}
@@ -0,0 +1,185 @@
+package com.cloudera.nav.ext.client.extraction;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Set;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Sets;
+
+/**
+ * Progress of an incremental extraction, persisted in a local file:
+ * the marker the next run starts from and, while a run is in progress, the end marker of
+ * that run. The identities of the entities the run in progress already processed are appended
+ * to a sibling file, so an interrupted run resumes where it stopped instead of starting over,
+ * whatever order Navigator returns the entities in when the run is resumed.
+ */
+public class ExtractionCheckpoint {
+
+	private static final ObjectMapper MAPPER =
+			new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	private String entitiesQuery; //Query the markers belong to
+	private String startMarker; //Marker of the last completed run, null before the first run
+	private String endMarker; //End marker of the run in progress, null when no run is in progress
+	private long updatedAt; //Time of the last save
+
+	/**
+	 * Loads a checkpoint file.
+	 *
+	 * @param file	Checkpoint file
+	 * @return Returns the checkpoint, or an empty checkpoint if the file does not exist.
+	 */
+	public static ExtractionCheckpoint load(File file) throws IOException {
+		if (!file.exists()) {
+			return new ExtractionCheckpoint();
+		}
+		return MAPPER.readValue(file, ExtractionCheckpoint.class);
+	}
+
+	/**
+	 * Saves the checkpoint atomically: the content is written and forced to a temporary file,
+	 * which then replaces the checkpoint file, so a crash leaves either the old or the new checkpoint.
+	 *
+	 * @param file	Checkpoint file
+	 */
+	public void save(File file) throws IOException {
+		updatedAt = System.currentTimeMillis();
+		Path target = file.toPath().toAbsolutePath();
+		Files.createDirectories(target.getParent());
+		Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.wrap(MAPPER.writeValueAsBytes(this));
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @param file	Checkpoint file
+	 * @return the file of the identities processed by the run in progress, next to the checkpoint file
+	 */
+	static File handledFile(File file) {
+		return new File(file.getPath() + ".handled");
+	}
+
+	/**
+	 * Loads the identities processed by the run in progress. A last line without line end,
+	 * torn by a crash while appending, is ignored.
+	 *
+	 * @param file	Checkpoint file
+	 * @return Returns the identities, empty if none were recorded.
+	 */
+	static Set<String> loadHandled(File file) throws IOException {
+		Set<String> identities = Sets.newHashSet();
+		File handled = handledFile(file);
+		if (!handled.exists()) {
+			return identities;
+		}
+		String content = new String(Files.readAllBytes(handled.toPath()), StandardCharsets.UTF_8);
+		int start = 0;
+		int end;
+		while ((end = content.indexOf('\n', start)) >= 0) {
+			if (end > start) {
+				identities.add(content.substring(start, end));
+			}
+			start = end + 1;
+		}
+		return identities;
+	}
+
+	/**
+	 * Appends the identities of processed entities, one per line, and forces them to disk.
+	 *
+	 * @param file			Checkpoint file
+	 * @param identities	Identities of the processed entities
+	 */
+	static void appendHandled(File file, Collection<String> identities) throws IOException {
+		if (identities.isEmpty()) {
+			return;
+		}
+		StringBuilder lines = new StringBuilder();
+		for (String identity : identities) {
+			lines.append(identity).append('\n');
+		}
+		Path target = handledFile(file).toPath().toAbsolutePath();
+		Files.createDirectories(target.getParent());
+		try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Forgets the identities processed by a run, when it starts or once it completed.
+	 *
+	 * @param file	Checkpoint file
+	 */
+	static void deleteHandled(File file) throws IOException {
+		Files.deleteIfExists(handledFile(file).toPath());
+	}
+
+	/**
+	 * @return whether a run was interrupted and can be resumed
+	 */
+	@JsonIgnore
+	public boolean isInProgress() {
+		return endMarker != null;
+	}
+
+	public String getEntitiesQuery() {
+		return entitiesQuery;
+	}
+
+	public void setEntitiesQuery(String entitiesQuery) {
+		this.entitiesQuery = entitiesQuery;
+	}
+
+	public String getStartMarker() {
+		return startMarker;
+	}
+
+	public void setStartMarker(String startMarker) {
+		this.startMarker = startMarker;
+	}
+
+	public String getEndMarker() {
+		return endMarker;
+	}
+
+	public void setEndMarker(String endMarker) {
+		this.endMarker = endMarker;
+	}
+
+	public long getUpdatedAt() {
+		return updatedAt;
+	}
+
+	public void setUpdatedAt(long updatedAt) {
+		this.updatedAt = updatedAt;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ExtractionCheckpoint[start=%s, end=%s]", startMarker, endMarker);
+	}
+
+}
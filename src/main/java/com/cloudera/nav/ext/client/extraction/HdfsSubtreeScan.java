@@ -0,0 +1,281 @@
+package com.cloudera.nav.ext.client.extraction;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.nav.sdk.client.MetadataExtractor;
+import com.cloudera.nav.sdk.model.entities.EntityType;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Walks a HDFS subtree with one parentPath query per directory. The children of a directory are
+ * streamed out as they arrive, and each sub-directory is walked by a task forked on a ForkJoinPool,
+ * so sibling directories are walked concurrently and idle workers steal the pending ones.
+ * Results go through a bounded queue: the walk slows down when the consumer does.
+ * The pool is shut down when the walk ends, fails or is closed.
+ */
+public class HdfsSubtreeScan implements Iterator<Map<String, Object>>, Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(HdfsSubtreeScan.class);
+
+	private static final Map<String, Object> END = Maps.newHashMap(); //End of the walk
+	private static final long POLL_INTERVAL_MS = 100L; //Checks of the walk state while the queue is empty or full
+
+	private final MetadataExtractor extractor;
+	private final String rootPath;
+	private final int depthLimit; //Deepest level walked, the children of the root being level 1
+	private final Predicate<Map<String, Object>> filter; //Entities streamed out
+	private final ForkJoinPool pool;
+	private final BlockingQueue<Object> queue; //Entities, then END if there was room for it
+
+	private final AtomicLong directories = new AtomicLong();
+	private final AtomicLong entities = new AtomicLong();
+	private volatile boolean closed;
+	private volatile boolean done; //The walk ended and all its entities are queued
+	private volatile RuntimeException error; //Error which stopped the walk
+	private boolean exhausted;
+	private Map<String, Object> next;
+
+	HdfsSubtreeScan(MetadataExtractor extractor,
+					String rootPath,
+					int depthLimit,
+					Predicate<Map<String, Object>> filter,
+					int parallelism,
+					int queueCapacity) {
+		this.extractor = extractor;
+		this.rootPath = rootPath;
+		this.depthLimit = depthLimit;
+		this.filter = filter;
+		this.pool = new ForkJoinPool(parallelism);
+		this.queue = new ArrayBlockingQueue<Object>(queueCapacity);
+
+		pool.execute(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				long start = System.currentTimeMillis();
+				try {
+					new DirectoryTask(HdfsSubtreeScan.this.rootPath, 1).invoke();
+					done = true;
+					//Wakes up the consumer; when the queue is full, it sees done once it drained the queue
+					queue.offer(END);
+					LOG.info(String.format("Walked %d directories under %s in %d ms, %d entities.",
+							directories.get(), HdfsSubtreeScan.this.rootPath,
+							System.currentTimeMillis() - start, entities.get()));
+					pool.shutdown();
+				} catch (CancellationException e) {
+					LOG.debug("Cancelled the walk of " + HdfsSubtreeScan.this.rootPath);
+				} catch (RuntimeException | Error e) {
+					LOG.error("Failed to walk " + HdfsSubtreeScan.this.rootPath, e);
+					//The error stops the sibling tasks, and the consumer checks it even if END does not fit
+					error = e instanceof RuntimeException ? (RuntimeException) e
+							: new IllegalStateException("Failed to walk " + HdfsSubtreeScan.this.rootPath, e);
+					pool.shutdownNow();
+					queue.clear();
+					queue.offer(END);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Lists one directory, streams out its children and forks the walk of its sub-directories.
+	 */
+	private class DirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final String path;
+		private final int depth; //Level of the children
+
+		DirectoryTask(String path, int depth) {
+			this.path = path;
+			this.depth = depth;
+		}
+
+		@Override
+		protected void compute() {
+			if (isStopped()) {
+				return;
+			}
+			directories.incrementAndGet();
+			String query = "sourceType:HDFS AND parentPath:\"" + MetaExtractor.escapeQueryValue(path) + "\"";
+			List<DirectoryTask> subtasks = Lists.newArrayList();
+			for (Map<String, Object> entity : extractor.extractMetadata(null, null, query, null).getEntities()) {
+				if (isStopped()) {
+					throw new CancellationException();
+				}
+				if (filter == null || filter.test(entity)) {
+					put(entity);
+					entities.incrementAndGet();
+				}
+				String fileSystemPath = (String) entity.get("fileSystemPath");
+				if (EntityType.DIRECTORY.name().equals(entity.get("type")) && fileSystemPath != null
+						&& (depthLimit <= 0 || depth < depthLimit)) {
+					DirectoryTask subtask = new DirectoryTask(fileSystemPath, depth + 1);
+					subtask.fork();
+					subtasks.add(subtask);
+				}
+			}
+			for (DirectoryTask subtask : subtasks) {
+				subtask.join();
+			}
+		}
+	}
+
+	/**
+	 * @return whether the walk was closed or failed, so the tasks must stop
+	 */
+	private boolean isStopped() {
+		return closed || error != null;
+	}
+
+	/**
+	 * Puts an entity into the queue, letting the pool compensate for the blocked worker.
+	 * Gives up when the walk is stopped, so no task stays blocked on a queue nobody drains.
+	 */
+	private void put(final Object result) {
+		try {
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+				private boolean queued;
+
+				@Override
+				public boolean block() throws InterruptedException {
+					while (!queued && !isStopped()) {
+						queued = queue.offer(result, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+					}
+					return true;
+				}
+
+				@Override
+				public boolean isReleasable() {
+					if (!queued) {
+						queued = queue.offer(result);
+					}
+					return queued || isStopped();
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted while walking " + rootPath);
+		}
+		if (isStopped()) {
+			throw new CancellationException();
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next != null) {
+			return true;
+		}
+		if (closed || exhausted) {
+			return false;
+		}
+		Object result = null;
+		while (result == null) {
+			checkError();
+			if (done && queue.isEmpty()) {
+				exhausted = true;
+				return false;
+			}
+			try {
+				result = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new IllegalStateException("Interrupted while waiting for entities", e);
+			}
+		}
+		checkError();
+		if (result == END) {
+			exhausted = true;
+			return false;
+		}
+		@SuppressWarnings("unchecked")
+		Map<String, Object> entity = (Map<String, Object>) result;
+		next = entity;
+		return true;
+	}
+
+	/**
+	 * Throws the error which stopped the walk, if any.
+	 */
+	private void checkError() {
+		if (error != null) {
+			exhausted = true;
+			close();
+			throw error;
+		}
+	}
+
+	@Override
+	public Map<String, Object> next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Map<String, Object> entity = next;
+		next = null;
+		return entity;
+	}
+
+	/**
+	 * @return the number of directories listed so far
+	 */
+	public long getDirectoryCount() {
+		return directories.get();
+	}
+
+	/**
+	 * @return whether the walk stopped and its pool has no thread left
+	 */
+	boolean isTerminated() {
+		return pool.isTerminated();
+	}
+
+	/**
+	 * @return a stream over the entities of the subtree, which stops the walk when closed
+	 */
+	public Stream<Map<String, Object>> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+				Spliterator.NONNULL), false).onClose(new Runnable() {
+					@Override
+					public void run() {
+						close();
+					}
+				});
+	}
+
+	/**
+	 * Stops the walk. Entities not consumed yet are discarded.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		pool.shutdownNow();
+		queue.clear();
+	}
+
+}
@@ -0,0 +1,207 @@
+package com.cloudera.nav.ext.client.extraction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+import com.cloudera.nav.ext.model.EntityKey;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+/**
+ * A Bloom filter of the natural keys of the entities registered in Navigator, built from a bulk
+ * extraction and persisted in a local file. An entity the filter does not contain is certainly
+ * not registered (as of the last refresh), so it needs no lookup; an entity it contains is
+ * probably registered, with the configured false positive probability.
+ * Keys are source-independent: an entity matches whichever source it belongs to.
+ * The filter remembers the extraction marker of its last refresh, so a refresh only adds
+ * the entities changed since; deleted entities are never removed, they are false positives
+ * until the filter is rebuilt. Instances are thread-safe.
+ */
+public class KnownEntityFilter {
+
+	public static final double DEFAULT_FPP = 0.01;
+	/** The HDFS and Hive entities an {@link EntityKey} can identify, without e.g. Hive partitions and operations */
+	public static final String DEFAULT_ENTITIES_QUERY = "(sourceType:HDFS AND (type:DIRECTORY OR type:FILE))"
+			+ " OR (sourceType:HIVE AND (type:DATABASE OR type:TABLE OR type:VIEW OR type:FIELD))";
+
+	private static final int FORMAT_VERSION = 1;
+
+	private final String entitiesQuery; //Query of the entities the filter contains
+	private final long expectedEntities; //Number of entities the filter is sized for
+	private final double fpp; //False positive probability at the expected number of entities
+	private final BloomFilter<CharSequence> filter;
+	private String marker; //Extraction marker of the last refresh, null before the first refresh
+	private long count; //Entities put, including duplicates
+
+	/**
+	 * Constructs an empty filter, to be filled by {@link MetaExtractor#refreshKnownEntityFilter(KnownEntityFilter)}.
+	 *
+	 * @param entitiesQuery		Solr query of the entities to contain, like {@link #DEFAULT_ENTITIES_QUERY}
+	 * @param expectedEntities	Number of entities the filter is sized for
+	 * @param fpp				False positive probability at the expected number of entities, like {@link #DEFAULT_FPP}
+	 */
+	public KnownEntityFilter(String entitiesQuery, long expectedEntities, double fpp) {
+		Preconditions.checkArgument(entitiesQuery != null, "Argument entitiesQuery cannot be null");
+		Preconditions.checkArgument(expectedEntities > 0, "Argument expectedEntities must be positive");
+		Preconditions.checkArgument(fpp > 0 && fpp < 1, "Argument fpp must be between 0 and 1");
+		this.entitiesQuery = entitiesQuery;
+		this.expectedEntities = expectedEntities;
+		this.fpp = fpp;
+		this.filter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedEntities, fpp);
+	}
+
+	private KnownEntityFilter(String entitiesQuery, long expectedEntities, double fpp,
+							  BloomFilter<CharSequence> filter, String marker, long count) {
+		this.entitiesQuery = entitiesQuery;
+		this.expectedEntities = expectedEntities;
+		this.fpp = fpp;
+		this.filter = filter;
+		this.marker = marker;
+		this.count = count;
+	}
+
+	/**
+	 * @param key	Natural key of an entity, with or without source
+	 * @return Returns false if the entity is certainly not registered in Navigator, true if it probably is.
+	 */
+	public synchronized boolean mightExist(EntityKey key) {
+		return filter.mightContain(toString(key));
+	}
+
+	/**
+	 * Adds an entity known to be registered in Navigator, e.g. after it was found by a lookup.
+	 *
+	 * @param key	Natural key of the entity, with or without source
+	 */
+	public synchronized void put(EntityKey key) {
+		filter.put(toString(key));
+		count++;
+	}
+
+	/**
+	 * Adds an extracted entity.
+	 *
+	 * @return Returns whether the entity has a natural key, which the filter can contain.
+	 */
+	boolean put(Map<String, Object> entity) {
+		EntityKey key = MetaExtractor.toEntityKey(entity);
+		if (key == null) {
+			return false;
+		}
+		put(key);
+		return true;
+	}
+
+	private static String toString(EntityKey key) {
+		return key.getSourceType() + ":" + key.getEntityType() + ":" + Joiner.on('\u0000').join(key.getNames());
+	}
+
+	/**
+	 * Loads a filter file.
+	 *
+	 * @param file	Filter file
+	 * @return Returns the filter, or null if the file does not exist.
+	 */
+	public static KnownEntityFilter load(File file) throws IOException {
+		if (!file.exists()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			int version = in.readInt();
+			if (version != FORMAT_VERSION) {
+				throw new IOException(String.format("Unsupported version %d of the filter file: %s", version, file));
+			}
+			String entitiesQuery = in.readUTF();
+			String marker = in.readBoolean() ? in.readUTF() : null;
+			long expectedEntities = in.readLong();
+			double fpp = in.readDouble();
+			long count = in.readLong();
+			BloomFilter<CharSequence> filter = BloomFilter.readFrom(in, Funnels.stringFunnel(StandardCharsets.UTF_8));
+			return new KnownEntityFilter(entitiesQuery, expectedEntities, fpp, filter, marker, count);
+		}
+	}
+
+	/**
+	 * Saves the filter atomically: the content is written and synced to a temporary file,
+	 * which then replaces the filter file, so a crash leaves either the old or the new filter.
+	 *
+	 * @param file	Filter file
+	 */
+	public synchronized void save(File file) throws IOException {
+		Path target = file.toPath().toAbsolutePath();
+		Files.createDirectories(target.getParent());
+		Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+		try (FileOutputStream stream = new FileOutputStream(temp.toFile())) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(entitiesQuery);
+			out.writeBoolean(marker != null);
+			if (marker != null) {
+				out.writeUTF(marker);
+			}
+			out.writeLong(expectedEntities);
+			out.writeDouble(fpp);
+			out.writeLong(count);
+			filter.writeTo(out);
+			out.flush();
+			stream.getFD().sync();
+		}
+		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return whether the filter holds more entities than it is sized for, so its false positive
+	 * probability is higher than configured and it should be rebuilt larger
+	 */
+	public synchronized boolean isSaturated() {
+		return count > expectedEntities;
+	}
+
+	public String getEntitiesQuery() {
+		return entitiesQuery;
+	}
+
+	public long getExpectedEntities() {
+		return expectedEntities;
+	}
+
+	public double getFpp() {
+		return fpp;
+	}
+
+	public synchronized double getExpectedFpp() {
+		return filter.expectedFpp();
+	}
+
+	public synchronized String getMarker() {
+		return marker;
+	}
+
+	synchronized void setMarker(String marker) {
+		this.marker = marker;
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("KnownEntityFilter[count=%d, expected=%d, fpp=%.4f, marker=%s]",
+							 count, expectedEntities, filter.expectedFpp(), marker);
+	}
+
+}
@@ -1,16 +1,40 @@
 package com.cloudera.nav.ext.client.extraction;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudera.nav.ext.client.NavigatorContext;
+import com.cloudera.nav.ext.client.SourceResolver;
+import com.cloudera.nav.ext.model.EntityKey;
+import com.cloudera.nav.ext.model.HdfsEntityRef;
+import com.cloudera.nav.ext.model.HiveTableRef;
 import com.cloudera.nav.sdk.client.MetadataExtractor;
-import com.cloudera.nav.sdk.client.NavApiCient;
-import com.cloudera.nav.sdk.client.NavigatorPlugin;
+import com.cloudera.nav.sdk.client.MetadataResultSet;
+import com.cloudera.nav.sdk.model.SourceType;
 import com.cloudera.nav.sdk.model.entities.EntityType;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 /**
  * A wrapper class to extract entities and relations via the easy-use methods.
@@ -19,15 +43,398 @@ public class MetaExtractor {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(MetaExtractor.class);
 	
-	private NavApiCient client; //Client to communicate with the Navigator REST API
+	private static final List<String> HIVE_KEY_TYPES = ImmutableList.of(EntityType.DATABASE.name(), 
+			EntityType.TABLE.name(), "VIEW", EntityType.FIELD.name()); //Hive types an EntityKey identifies
+	
+	public static final int DEFAULT_LOOKUP_BATCH_SIZE = 100;
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+	public static final int DEFAULT_PREFETCH_PAGES = 1;
+	public static final int DEFAULT_WALK_PARALLELISM = 8;
+	
+	private NavigatorContext context; //Shared Navigator plugin, client and extractor
 	private MetadataExtractor extractor; //Metadata extractor
+	private int lookupBatchSize = DEFAULT_LOOKUP_BATCH_SIZE; //Number of entities combined into one query
+	private int pageSize = DEFAULT_PAGE_SIZE; //Number of entities per page of a cursor
+	private int prefetchPages = DEFAULT_PREFETCH_PAGES; //Pages fetched ahead by a cursor
+	private MetadataExtractor pagedExtractor; //Metadata extractor with the page size as limit
+	private int walkParallelism = DEFAULT_WALK_PARALLELISM; //Directories listed concurrently by a subtree walk
+	private KnownEntityFilter knownEntityFilter; //Registered entities, null to look up every entity
+	
+	/**
+	 * Processes the pages of an incremental extraction.
+	 */
+	public interface PageHandler {
+		/**
+		 * Processes one page. The page counts as done, and is checkpointed, only when this returns.
+		 * 
+		 * @param entities	Entities of the page
+		 */
+		void handle(List<Map<String, Object>> entities) throws Exception;
+	}
 	
 	/**
-	 * Wraps navigator client and metadata extractor.
+	 * Wraps navigator client and metadata extractor of the default context.
 	 */
 	public MetaExtractor() {
-		this.client = NavigatorPlugin.fromConfigFile("navigator.conf").getClient();
-		this.extractor = new MetadataExtractor(this.client, null);
+		this(NavigatorContext.getDefault());
+	}
+	
+	/**
+	 * Wraps navigator client and metadata extractor of the given context.
+	 * 
+	 * @param context	Navigator context
+	 */
+	public MetaExtractor(NavigatorContext context) {
+		this.context = context;
+		this.extractor = context.getExtractor();
+	}
+	
+	public int getLookupBatchSize() {
+		return lookupBatchSize;
+	}
+	
+	/**
+	 * Sets the maximum number of entities combined into one OR-query by the bulk lookup methods.
+	 * 
+	 * @param lookupBatchSize	Number of entities per query
+	 */
+	public void setLookupBatchSize(int lookupBatchSize) {
+		Preconditions.checkArgument(lookupBatchSize > 0, "Argument lookupBatchSize must be positive");
+		this.lookupBatchSize = lookupBatchSize;
+	}
+	
+	public int getPageSize() {
+		return pageSize;
+	}
+	
+	/**
+	 * Sets the number of entities fetched from Navigator per request by cursors and streams.
+	 * 
+	 * @param pageSize	Number of entities per page
+	 */
+	public synchronized void setPageSize(int pageSize) {
+		Preconditions.checkArgument(pageSize > 0, "Argument pageSize must be positive");
+		if (pageSize != this.pageSize) {
+			this.pageSize = pageSize;
+			this.pagedExtractor = null;
+		}
+	}
+	
+	public int getPrefetchPages() {
+		return prefetchPages;
+	}
+	
+	/**
+	 * Sets the number of pages cursors and streams fetch ahead in the background 
+	 * while the current page is consumed.
+	 * 
+	 * @param prefetchPages	Number of pages, 0 to fetch each page on demand
+	 */
+	public void setPrefetchPages(int prefetchPages) {
+		Preconditions.checkArgument(prefetchPages >= 0, "Argument prefetchPages cannot be negative");
+		this.prefetchPages = prefetchPages;
+	}
+	
+	public int getWalkParallelism() {
+		return walkParallelism;
+	}
+	
+	/**
+	 * Sets the number of directories listed concurrently by {@link #getHDFSSubtree(String, int, Predicate)}.
+	 * 
+	 * @param walkParallelism	Number of concurrent queries
+	 */
+	public void setWalkParallelism(int walkParallelism) {
+		Preconditions.checkArgument(walkParallelism > 0, "Argument walkParallelism must be positive");
+		this.walkParallelism = walkParallelism;
+	}
+	
+	public KnownEntityFilter getKnownEntityFilter() {
+		return knownEntityFilter;
+	}
+	
+	/**
+	 * Sets the filter of registered entities consulted by the bulk lookups: entities the filter 
+	 * does not contain are treated as not found without querying Navigator.
+	 * 
+	 * @param knownEntityFilter	Filter of registered entities, null to look up every entity
+	 */
+	public void setKnownEntityFilter(KnownEntityFilter knownEntityFilter) {
+		this.knownEntityFilter = knownEntityFilter;
+	}
+	
+	/**
+	 * Builds a filter of the HDFS and Hive entities registered in Navigator, with one bulk extraction.
+	 * 
+	 * @param entitiesQuery		Solr query of the entities, like {@link KnownEntityFilter#DEFAULT_ENTITIES_QUERY}
+	 * @param expectedEntities	Number of entities the filter is sized for, with room for growth
+	 * @param fpp				False positive probability, like {@link KnownEntityFilter#DEFAULT_FPP}
+	 * @return Returns the filter, to be saved and later refreshed.
+	 */
+	public KnownEntityFilter buildKnownEntityFilter(String entitiesQuery, long expectedEntities, double fpp) {
+		KnownEntityFilter filter = new KnownEntityFilter(entitiesQuery, expectedEntities, fpp);
+		refreshKnownEntityFilter(filter);
+		return filter;
+	}
+	
+	/**
+	 * Adds the entities registered or changed since the last refresh of a filter, using the
+	 * extraction marker the filter holds. The marker only moves once all entities are added, so 
+	 * a filter saved after an interrupted refresh is refreshed again from the same marker.
+	 * 
+	 * @param filter	Filter to refresh
+	 * @return Returns the number of entities added.
+	 */
+	public long refreshKnownEntityFilter(KnownEntityFilter filter) {
+		Preconditions.checkArgument(filter != null, "Argument filter cannot be null");
+		long start = System.currentTimeMillis();
+		LOG.info(String.format("Refreshes the known entity filter since the marker: %s", filter.getMarker()));
+		MetadataResultSet results = getPagedExtractor().extractMetadata(filter.getMarker(), null, 
+																		filter.getEntitiesQuery(), null);
+		long added = 0;
+		for (Map<String, Object> entity : results.getEntities()) {
+			if (filter.put(entity)) {
+				added++;
+			}
+		}
+		filter.setMarker(results.getMarker());
+		LOG.info(String.format("Added %d entities to %s in %d ms.", added, filter, System.currentTimeMillis() - start));
+		if (filter.isSaturated()) {
+			LOG.warn(String.format("%s holds more entities than it is sized for, rebuild it larger.", filter));
+		}
+		return added;
+	}
+	
+	private synchronized MetadataExtractor getPagedExtractor() {
+		if (pagedExtractor == null) {
+			pagedExtractor = new MetadataExtractor(context.getClient(), pageSize);
+		}
+		return pagedExtractor;
+	}
+	
+	/**
+	 * Opens a cursor over the entities matching a query, fetched page by page with 
+	 * {@link #getPageSize()} entities per page. The cursor must be closed when not read to the end.
+	 * 
+	 * @param entitiesQuery	Solr query of the entities, like: sourceType:HDFS AND type:FILE
+	 */
+	public MetadataCursor<Map<String, Object>> openCursor(String entitiesQuery) {
+		return openCursor(entitiesQuery, Function.<Map<String, Object>>identity());
+	}
+	
+	/**
+	 * Opens a cursor over the entities matching a query, each converted as soon as it is fetched.
+	 * 
+	 * @param entitiesQuery	Solr query of the entities
+	 * @param converter		Converts each entity to a result, e.g. {@link HdfsEntityRef#of(Map)}
+	 */
+	public <T> MetadataCursor<T> openCursor(String entitiesQuery, Function<Map<String, Object>, T> converter) {
+		LOG.info(String.format("Opens a cursor with the entitiesQuery: %s (page size %d, prefetch %d)", 
+							   entitiesQuery, pageSize, prefetchPages));
+		Iterable<Map<String, Object>> entities =
+				getPagedExtractor().extractMetadata(null, null, entitiesQuery, null).getEntities();
+		return new MetadataCursor<T>(entities, converter, pageSize, prefetchPages);
+	}
+	
+	/**
+	 * Streams the entities matching a query with constant memory, see {@link #openCursor(String)}.
+	 * The stream should be closed, e.g. with try-with-resources, to stop fetching when it is not
+	 * consumed to the end.
+	 * 
+	 * @param entitiesQuery	Solr query of the entities, like: sourceType:HDFS AND type:FILE
+	 */
+	public Stream<Map<String, Object>> streamEntities(String entitiesQuery) {
+		return openCursor(entitiesQuery).stream();
+	}
+	
+	/**
+	 * Streams the entities matching a query projected to the given fields. Only the projected
+	 * fields are kept in memory, the rest of each entity is dropped as soon as it is fetched.
+	 * 
+	 * @param entitiesQuery	Solr query of the entities
+	 * @param fields		Fields to keep, like: identity, fileSystemPath
+	 */
+	public Stream<Map<String, Object>> streamEntities(String entitiesQuery, final String... fields) {
+		return openCursor(entitiesQuery, new Function<Map<String, Object>, Map<String, Object>>() {
+			@Override
+			public Map<String, Object> apply(Map<String, Object> entity) {
+				return project(entity, fields);
+			}
+		}).stream();
+	}
+	
+	/**
+	 * Streams lightweight references to HDFS directories or files.
+	 * 
+	 * @param entityType	Entity type (DIRECTORY or FILE)
+	 * @param parentPath	Parent directory of the entities, like: /user/user1, null for all
+	 */
+	public Stream<HdfsEntityRef> streamHDFSEntityRefs(EntityType entityType, String parentPath) {
+		StringBuffer query = new StringBuffer("sourceType:HDFS AND type:").append(entityType.name());
+		if (StringUtils.isNotEmpty(parentPath)) {
+			query.append(" AND parentPath:\"").append(escapeQueryValue(parentPath)).append("\"");
+		}
+		return openCursor(query.toString(), new Function<Map<String, Object>, HdfsEntityRef>() {
+			@Override
+			public HdfsEntityRef apply(Map<String, Object> entity) {
+				return HdfsEntityRef.of(entity);
+			}
+		}).stream();
+	}
+	
+	/**
+	 * Streams lightweight references to Hive tables and views.
+	 * 
+	 * @param databaseName	Database of the tables, null for all
+	 */
+	public Stream<HiveTableRef> streamHiveTableRefs(String databaseName) {
+		StringBuffer query = new StringBuffer("sourceType:HIVE AND (type:TABLE OR type:VIEW)");
+		if (StringUtils.isNotEmpty(databaseName)) {
+			query.append(" AND parentPath:\"/").append(escapeQueryValue(databaseName)).append("\"");
+		}
+		return openCursor(query.toString(), new Function<Map<String, Object>, HiveTableRef>() {
+			@Override
+			public HiveTableRef apply(Map<String, Object> entity) {
+				return HiveTableRef.of(entity);
+			}
+		}).stream();
+	}
+	
+	/**
+	 * Prepares a parallel scan of disjoint partitions of the entities, like {@link ScanPartition#byType}, 
+	 * {@link ScanPartition#byParentPathPrefix} or {@link ScanPartition#byIdentityRange}. The scan starts 
+	 * on the first read and should be closed when not read to the end.
+	 * 
+	 * @param partitions	Disjoint partitions
+	 */
+	public ParallelScan<Map<String, Object>> parallelScan(List<ScanPartition> partitions) {
+		return parallelScan(partitions, Function.<Map<String, Object>>identity());
+	}
+	
+	/**
+	 * Prepares a parallel scan of disjoint partitions of the entities, each entity converted as 
+	 * soon as it is fetched.
+	 * 
+	 * @param partitions	Disjoint partitions
+	 * @param converter		Converts each entity to a result, e.g. {@link HdfsEntityRef#of(Map)}
+	 */
+	public <T> ParallelScan<T> parallelScan(List<ScanPartition> partitions, Function<Map<String, Object>, T> converter) {
+		return new ParallelScan<T>(getPagedExtractor(), partitions, converter, pageSize);
+	}
+	
+	/**
+	 * Extracts the entities matching a query which changed since the previous run, i.e. since the
+	 * marker stored in the checkpoint file; the first run extracts all of them. The checkpoint file
+	 * is saved atomically with the end marker of the run when it starts, and the identities of the
+	 * entities of each handled page are appended next to it, so an interrupted run resumes by skipping 
+	 * the entities already handled, whatever order Navigator returns them in. Once all pages are 
+	 * handled, the end marker becomes the start marker of the next run.
+	 * <p>
+	 * Delivery is at least once: a page handled just before the process stops, but not recorded yet,
+	 * is handled again by the resumed run, so the handler must be idempotent.
+	 * 
+	 * @param entitiesQuery		Solr query of the entities, like: sourceType:HIVE AND type:TABLE
+	 * @param checkpointFile	Local checkpoint file, created on the first run
+	 * @param handler			Processes the pages of {@link #getPageSize()} entities
+	 * @return Returns the number of entities handled by this call.
+	 */
+	public long extractIncrementally(String entitiesQuery, File checkpointFile, PageHandler handler) throws IOException {
+		Preconditions.checkArgument(handler != null, "Argument handler cannot be null");
+		return extractIncrementally(getPagedExtractor(), pageSize, entitiesQuery, checkpointFile, handler);
+	}
+	
+	/**
+	 * Extracts incrementally with the given extractor, see {@link #extractIncrementally(String, File, PageHandler)}.
+	 */
+	static long extractIncrementally(MetadataExtractor pagedExtractor, 
+									 int pageSize, 
+									 String entitiesQuery, 
+									 File checkpointFile, 
+									 PageHandler handler) throws IOException {
+		ExtractionCheckpoint checkpoint = ExtractionCheckpoint.load(checkpointFile);
+		if (checkpoint.getEntitiesQuery() != null && !checkpoint.getEntitiesQuery().equals(entitiesQuery)) {
+			LOG.warn(String.format("The checkpoint %s belongs to the entitiesQuery: %s, starts over.", 
+								   checkpointFile, checkpoint.getEntitiesQuery()));
+			checkpoint = new ExtractionCheckpoint();
+		}
+		checkpoint.setEntitiesQuery(entitiesQuery);
+		
+		MetadataResultSet results;
+		Set<String> handledIdentities;
+		if (checkpoint.isInProgress()) {
+			handledIdentities = ExtractionCheckpoint.loadHandled(checkpointFile);
+			LOG.info(String.format("Resumes the extraction from %s, skips %d handled entities.", 
+								   checkpoint, handledIdentities.size()));
+			results = pagedExtractor.extractMetadata(checkpoint.getStartMarker(), checkpoint.getEndMarker(), 
+													 entitiesQuery, null);
+		} else {
+			LOG.info(String.format("Extracts the entities changed since the marker: %s", checkpoint.getStartMarker()));
+			handledIdentities = Collections.emptySet();
+			ExtractionCheckpoint.deleteHandled(checkpointFile);
+			results = pagedExtractor.extractMetadata(checkpoint.getStartMarker(), null, entitiesQuery, null);
+			checkpoint.setEndMarker(results.getMarker());
+			checkpoint.save(checkpointFile);
+		}
+		
+		long handled = 0;
+		List<Map<String, Object>> page = Lists.newArrayListWithCapacity(pageSize);
+		for (Map<String, Object> entity : results.getEntities()) {
+			if (handledIdentities.contains(entity.get("identity"))) {
+				continue;
+			}
+			page.add(entity);
+			if (page.size() >= pageSize) {
+				handled += handlePage(page, handler, checkpointFile);
+				page = Lists.newArrayListWithCapacity(pageSize);
+			}
+		}
+		if (!page.isEmpty()) {
+			handled += handlePage(page, handler, checkpointFile);
+		}
+		
+		checkpoint.setStartMarker(checkpoint.getEndMarker());
+		checkpoint.setEndMarker(null);
+		checkpoint.save(checkpointFile);
+		ExtractionCheckpoint.deleteHandled(checkpointFile);
+		LOG.info(String.format("Extracted %d changed entities, next run starts from the marker: %s", 
+							   handled, checkpoint.getStartMarker()));
+		return handled;
+	}
+	
+	/**
+	 * Handles a page of an incremental extraction and records the identities of its entities.
+	 * 
+	 * @return Returns the number of entities handled.
+	 */
+	private static int handlePage(List<Map<String, Object>> page, PageHandler handler, File checkpointFile) throws IOException {
+		try {
+			handler.handle(page);
+		} catch (Exception e) {
+			Throwables.propagateIfInstanceOf(e, IOException.class);
+			throw Throwables.propagate(e);
+		}
+		List<String> identities = Lists.newArrayListWithCapacity(page.size());
+		for (Map<String, Object> entity : page) {
+			if (entity.get("identity") instanceof String) {
+				identities.add((String) entity.get("identity"));
+			}
+		}
+		ExtractionCheckpoint.appendHandled(checkpointFile, identities);
+		return page.size();
+	}
+	
+	/**
+	 * Keeps only the given fields of an entity, in a compact map.
+	 */
+	private static Map<String, Object> project(Map<String, Object> entity, String... fields) {
+		ImmutableMap.Builder<String, Object> projection = ImmutableMap.builder();
+		for (String field : fields) {
+			Object value = entity.get(field);
+			if (value != null) {
+				projection.put(field, value);
+			}
+		}
+		return projection.build();
 	}
 	
 	/**
@@ -73,6 +480,29 @@ public class MetaExtractor {
 		return hdfsAll.iterator();
 	}
 	
+	/**
+	 * Gets the metadata of all directories and files under a HDFS directory, walking the tree one 
+	 * level at a time with a parentPath query per directory. Sibling directories are listed 
+	 * concurrently, see {@link #setWalkParallelism(int)}, and entities are streamed out as they
+	 * arrive, so their order is not defined. The stream should be closed to stop the walk early.
+	 * 
+	 * @param rootPath		Root directory, like: /user/hive/warehouse or hdfs://nameservice1/user/hive/warehouse
+	 * @param depthLimit	Deepest level returned, 1 for the children of the root, 0 for no limit
+	 * @param filter		Entities to return, like directories only, null for all; 
+	 * 						sub-directories are walked even when filtered out
+	 */
+	public Stream<Map<String, Object>> getHDFSSubtree(String rootPath, int depthLimit, Predicate<Map<String, Object>> filter) {
+		Preconditions.checkArgument(StringUtils.isNotEmpty(rootPath), "Argument rootPath cannot be null");
+		String path = SourceResolver.toFileSystemPath(rootPath);
+		if (path.length() > 1) {
+			path = StringUtils.removeEnd(path, "/");
+		}
+		LOG.info(String.format("Walks the HDFS subtree %s (depth limit %d, %d concurrent directories)", 
+							   path, depthLimit, walkParallelism));
+		return new HdfsSubtreeScan(getPagedExtractor(), path, depthLimit, filter, walkParallelism, 
+								   pageSize * Math.max(1, prefetchPages)).stream();
+	}
+	
 	/**
 	 * Gets the metadata of specific Hive database.
 	 * 
@@ -143,4 +573,200 @@ public class MetaExtractor {
 		return hiveAll.iterator();
 	}
 
+	/**
+	 * Gets a Hive table (or view) and all its columns with one query.
+	 * 
+	 * @param databaseName	Database name
+	 * @param tableName		Table or view name
+	 * @return Returns the table and its columns, of every Hive source.
+	 */
+	public List<Map<String, Object>> getHiveTableSchema(String databaseName, String tableName) {
+		String query = String.format(
+				"sourceType:HIVE AND (parentPath:\"/%1$s/%2$s\" OR ((type:TABLE OR type:VIEW) AND parentPath:\"/%1$s\" AND originalName:\"%2$s\"))",
+				escapeQueryValue(databaseName), escapeQueryValue(tableName));
+		LOG.info(String.format("Gets the Hive table and its columns with the entitiesQuery: %s", query));
+		List<Map<String, Object>> schema = Lists.newArrayList(
+				getPagedExtractor().extractMetadata(null, null, query, null).getEntities());
+		LOG.info(String.format("Got %d entities of the Hive table %s.%s", schema.size(), databaseName, tableName));
+		return schema;
+	}
+	
+	/**
+	 * Gets the identities of HDFS files in bulk.
+	 * 
+	 * @param filePaths	The full HDFS paths of files
+	 * @return Returns identities by file path. Files not found in Navigator are left out.
+	 */
+	public Map<String, String> getHDFSFileIdentities(Collection<String> filePaths) {
+		return getHDFSIdentities(EntityType.FILE, filePaths);
+	}
+	
+	/**
+	 * Gets the identities of HDFS directories in bulk.
+	 * 
+	 * @param directoryPaths	The full HDFS paths of directories
+	 * @return Returns identities by directory path. Directories not found in Navigator are left out.
+	 */
+	public Map<String, String> getHDFSDirectoryIdentities(Collection<String> directoryPaths) {
+		return getHDFSIdentities(EntityType.DIRECTORY, directoryPaths);
+	}
+	
+	private Map<String, String> getHDFSIdentities(EntityType type, Collection<String> paths) {
+		List<EntityKey> keys = Lists.newArrayListWithCapacity(paths.size());
+		for (String path : paths) {
+			keys.add(EntityKey.ofHdfs(null, type, path));
+		}
+		
+		Map<String, String> identities = Maps.newHashMap();
+		for (Map.Entry<EntityKey, String> entry : getIdentities(keys).entrySet()) {
+			identities.put(entry.getKey().getPath(), entry.getValue());
+		}
+		return identities;
+	}
+	
+	/**
+	 * Gets the identities of HDFS or Hive entities in bulk. Keys are grouped by source and entity type
+	 * and combined into chunked OR-queries of at most {@link #getLookupBatchSize()} entities each.
+	 * A key without source id matches the entity in any source of its source type.
+	 * Entities absent from the {@link #setKnownEntityFilter(KnownEntityFilter) known entity filter} 
+	 * are not looked up.
+	 * 
+	 * @param keys	Natural keys of the entities
+	 * @return Returns identities by natural key. Entities not found in Navigator are left out.
+	 */
+	public Map<EntityKey, String> getIdentities(Collection<EntityKey> keys) {
+		Map<EntityKey, String> identities = Maps.newHashMap();
+		for (Map.Entry<EntityKey, Map<String, Object>> entry : getEntities(keys).entrySet()) {
+			identities.put(entry.getKey(), (String) entry.getValue().get("identity"));
+		}
+		LOG.info(String.format("Resolved %d of %d entity identities.", identities.size(), keys.size()));
+		return identities;
+	}
+	
+	/**
+	 * Gets HDFS or Hive entities in bulk, with their current metadata (tags, properties, 
+	 * customProperties, ...). Looks entities up like {@link #getIdentities(Collection)}.
+	 * 
+	 * @param keys	Natural keys of the entities
+	 * @return Returns entities by natural key. Entities not found in Navigator are left out.
+	 */
+	public Map<EntityKey, Map<String, Object>> getEntities(Collection<EntityKey> keys) {
+		Map<EntityKey, Map<String, Object>> entities = Maps.newHashMap();
+		
+		ListMultimap<String, EntityKey> groups = LinkedListMultimap.create();
+		int skipped = 0;
+		for (EntityKey key : keys) {
+			if (knownEntityFilter != null && !knownEntityFilter.mightExist(key)) {
+				skipped++;
+				continue;
+			}
+			groups.put(key.getSourceType() + ":" + key.getEntityType(), key);
+		}
+		if (skipped > 0) {
+			LOG.info(String.format("Skipped the lookup of %d entities absent from the known entity filter.", skipped));
+		}
+		
+		for (String group : groups.keySet()) {
+			for (List<EntityKey> chunk : Iterables.partition(groups.get(group), lookupBatchSize)) {
+				//Requested keys by source-less key, to match the returned documents
+				ListMultimap<EntityKey, EntityKey> requested = ArrayListMultimap.create();
+				for (EntityKey key : chunk) {
+					requested.put(key.withSourceId(null), key);
+				}
+				
+				String query = buildLookupQuery(chunk);
+				LOG.info(String.format("Looks up %d entities with the entitiesQuery: %s", chunk.size(), query));
+				Iterable<Map<String, Object>> results =
+						extractor.extractMetadata(null, null, query, null).getEntities();
+				for (Map<String, Object> result : results) {
+					EntityKey resultKey = toEntityKey(result);
+					if (resultKey == null) {
+						continue;
+					}
+					String sourceId = (String) result.get("sourceId");
+					for (EntityKey key : requested.get(resultKey)) {
+						if (key.getSourceId() == null || key.getSourceId().equals(sourceId)) {
+							entities.put(key, result);
+						}
+					}
+					if (knownEntityFilter != null) {
+						//Found entities are certainly registered, whatever the filter was built from
+						knownEntityFilter.put(resultKey);
+					}
+				}
+			}
+		}
+		return entities;
+	}
+	
+	/**
+	 * Builds one query matching all given entities, which must share source type and entity type.
+	 */
+	private String buildLookupQuery(List<EntityKey> keys) {
+		EntityKey first = keys.get(0);
+		StringBuffer query = new StringBuffer("sourceType:").append(first.getSourceType().name());
+		query.append(" AND type:").append(first.getEntityType());
+		query.append(" AND (");
+		for (int i = 0; i < keys.size(); i++) {
+			EntityKey key = keys.get(i);
+			if (i > 0) {
+				query.append(" OR ");
+			}
+			if (SourceType.HDFS.equals(key.getSourceType())) {
+				query.append("(fileSystemPath:\"").append(escapeQueryValue(key.getPath())).append("\"");
+			} else {
+				query.append("(originalName:\"").append(escapeQueryValue(key.getName())).append("\"");
+			}
+			if (key.getParentPath() != null) {
+				query.append(" AND parentPath:\"").append(escapeQueryValue(key.getParentPath())).append("\"");
+			}
+			query.append(")");
+		}
+		query.append(")");
+		return query.toString();
+	}
+	
+	/**
+	 * Builds the source-less natural key of an extracted HDFS or Hive entity.
+	 * 
+	 * @return Returns the key, or null if the entity is not a HDFS directory or file, nor a Hive 
+	 * database, table, view or field (e.g. a Hive partition or operation).
+	 */
+	static EntityKey toEntityKey(Map<String, Object> result) {
+		String sourceType = (String) result.get("sourceType");
+		String type = (String) result.get("type");
+		
+		if (SourceType.HDFS.name().equals(sourceType)) {
+			String path = (String) result.get("fileSystemPath");
+			if (StringUtils.isEmpty(path) 
+					|| !(EntityType.DIRECTORY.name().equals(type) || EntityType.FILE.name().equals(type))) {
+				return null;
+			}
+			return EntityKey.ofHdfs(null, EntityType.valueOf(type), path);
+		} else if (SourceType.HIVE.name().equals(sourceType)) {
+			if (!HIVE_KEY_TYPES.contains(type)) {
+				return null;
+			}
+			String name = (String) result.get("originalName");
+			String parentPath = (String) result.get("parentPath");
+			List<String> parents = StringUtils.isEmpty(parentPath) ? ImmutableList.<String>of()
+					: ImmutableList.copyOf(StringUtils.split(parentPath, "/"));
+			if (StringUtils.isEmpty(name)) {
+				return null;
+			}
+			return EntityKey.ofHive(null, type, 
+					parents.size() > 0 ? parents.get(0) : name,
+					parents.size() > 1 ? parents.get(1) : name,
+					name);
+		}
+		return null;
+	}
+	
+	/**
+	 * Escapes a value to be used inside a quoted Solr term.
+	 */
+	static String escapeQueryValue(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
 }
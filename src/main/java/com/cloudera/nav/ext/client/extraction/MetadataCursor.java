@@ -0,0 +1,229 @@
+package com.cloudera.nav.ext.client.extraction;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A closeable cursor over extracted entities, read page by page. With prefetching, a background
+ * thread fetches the next pages while the current one is consumed, holding at most the given
+ * number of pages in memory. Closing the cursor stops fetching, so a consumer can stop early
+ * without reading the remaining pages.
+ * Each entity is converted as soon as it is fetched, e.g. projected to a few fields or to a typed
+ * reference, so pages hold only the converted results.
+ *
+ * @param <T>	Type of the results
+ */
+public class MetadataCursor<T> implements Iterator<T>, Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(MetadataCursor.class);
+
+	private static final long POLL_INTERVAL_MS = 100; //Interval at which a blocked fetcher checks whether the cursor is closed
+
+	/**
+	 * A page of entities, the end of the results, or the error which stopped fetching.
+	 */
+	private static class Page {
+		static final Page END = new Page(Collections.emptyList(), null);
+
+		final List<?> entities;
+		final RuntimeException error;
+
+		Page(List<?> entities, RuntimeException error) {
+			this.entities = entities;
+			this.error = error;
+		}
+	}
+
+	private final Iterator<Map<String, Object>> source; //Entities fetched page by page by the SDK
+	private final Function<Map<String, Object>, T> converter; //Converts each entity to a result
+	private final int pageSize;
+	private final BlockingQueue<Page> pages; //Prefetched pages, null without prefetching
+	private final Thread fetcher; //Background fetcher, null without prefetching
+
+	private Iterator<?> current = Collections.emptyIterator(); //Page being consumed
+	private volatile boolean closed;
+	private boolean exhausted;
+	private long count; //Entities consumed
+
+	/**
+	 * Opens a cursor over the entities of an extraction.
+	 *
+	 * @param source		Entities, fetched from Navigator in pages of the given size while iterating
+	 * @param converter		Converts each entity to a result
+	 * @param pageSize		Number of entities per page
+	 * @param prefetchPages	Number of pages fetched ahead in the background, 0 to fetch on demand
+	 */
+	public MetadataCursor(Iterable<Map<String, Object>> source,
+						  Function<Map<String, Object>, T> converter,
+						  int pageSize,
+						  int prefetchPages) {
+		this.source = source.iterator();
+		this.converter = converter;
+		this.pageSize = pageSize;
+		if (prefetchPages > 0) {
+			this.pages = new ArrayBlockingQueue<Page>(prefetchPages);
+			this.fetcher = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					fetch();
+				}
+			}, "meta-extractor-prefetch");
+			this.fetcher.setDaemon(true);
+			this.fetcher.start();
+		} else {
+			this.pages = null;
+			this.fetcher = null;
+		}
+	}
+
+	/**
+	 * Reads the source into pages until it is exhausted or the cursor is closed. A failure is
+	 * queued after the entities fetched before it, so the consumer gets them all before the error.
+	 */
+	private void fetch() {
+		List<T> page = Lists.newArrayListWithCapacity(pageSize);
+		try {
+			while (!closed && source.hasNext()) {
+				page.add(converter.apply(source.next()));
+				if (page.size() >= pageSize) {
+					if (!put(new Page(page, null))) {
+						return;
+					}
+					page = Lists.newArrayListWithCapacity(pageSize);
+				}
+			}
+			if (!page.isEmpty() && !put(new Page(page, null))) {
+				return;
+			}
+			put(Page.END);
+		} catch (InterruptedException e) {
+			LOG.debug("Stopped prefetching pages.");
+		} catch (RuntimeException e) {
+			LOG.error("Failed to fetch a page of entities.", e);
+			try {
+				if (page.isEmpty() || put(new Page(page, null))) {
+					put(new Page(null, e));
+				}
+			} catch (InterruptedException ie) {
+				LOG.debug("Stopped prefetching pages.");
+			}
+		}
+	}
+
+	/**
+	 * Queues a page, waiting for room until the cursor is closed. The source may swallow the
+	 * interruption of {@link #close()}, so the fetcher does not rely on it to stop waiting.
+	 *
+	 * @return Returns whether the page was queued, false if the cursor was closed.
+	 */
+	private boolean put(Page page) throws InterruptedException {
+		while (!closed) {
+			if (pages.offer(page, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (closed || exhausted) {
+			return false;
+		}
+		if (fetcher == null) {
+			exhausted = !source.hasNext();
+			return !exhausted;
+		}
+		while (!current.hasNext()) {
+			Page page;
+			try {
+				page = pages.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new IllegalStateException("Interrupted while waiting for the next page", e);
+			}
+			if (page.error != null) {
+				exhausted = true;
+				throw page.error;
+			} else if (page == Page.END) {
+				exhausted = true;
+				return false;
+			}
+			current = page.entities.iterator();
+		}
+		return true;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		count++;
+		return fetcher == null ? converter.apply(source.next()) : (T) current.next();
+	}
+
+	/**
+	 * @return the number of entities consumed so far
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return a sequential stream over the remaining entities, which closes this cursor when closed
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+				Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(new Runnable() {
+					@Override
+					public void run() {
+						close();
+					}
+				});
+	}
+
+	/**
+	 * Stops fetching pages. Pages already fetched are discarded.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (fetcher != null) {
+			fetcher.interrupt();
+			pages.clear();
+		}
+		current = Collections.emptyIterator();
+		LOG.debug(String.format("Closed the cursor after %d entities.", count));
+	}
+
+	/**
+	 * @return Returns whether the background fetcher is still running.
+	 */
+	boolean isFetching() {
+		return fetcher != null && fetcher.isAlive();
+	}
+
+}
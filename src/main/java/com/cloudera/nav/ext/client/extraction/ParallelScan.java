@@ -0,0 +1,402 @@
+package com.cloudera.nav.ext.client.extraction;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.nav.sdk.client.MetadataExtractor;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Scans disjoint partitions of the entities concurrently on a worker pool and merges the results
+ * into one iterator or stream. Each worker reads one partition at a time, page by page, into a
+ * bounded queue, so memory stays bounded however large the partitions are.
+ * Progress is tracked per partition and can be observed with a {@link ProgressListener}.
+ *
+ * @param <T>	Type of the results
+ */
+public class ParallelScan<T> implements Iterator<T>, Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ParallelScan.class);
+
+	public static final int DEFAULT_PARALLELISM = 4;
+	public static final int DEFAULT_QUEUE_PAGES = 4;
+
+	private static final long POLL_INTERVAL_MS = 100; //Interval at which a blocked worker checks whether the scan is closed
+
+	/**
+	 * Order of the merged results.
+	 */
+	public enum Ordering {
+		UNORDERED,		//Pages of all partitions as they arrive, the fastest
+		BY_PARTITION	//Partitions one after the other in the given order, each in extraction order
+	}
+
+	/**
+	 * State of a partition.
+	 */
+	public enum State {
+		PENDING, RUNNING, DONE, FAILED, CANCELLED
+	}
+
+	/**
+	 * Progress of one partition.
+	 */
+	public static class Progress {
+		private final ScanPartition partition;
+		private volatile State state = State.PENDING;
+		private volatile long entities;
+		private volatile int pages;
+		private volatile long startTime;
+		private volatile long endTime;
+
+		Progress(ScanPartition partition) {
+			this.partition = partition;
+		}
+
+		public ScanPartition getPartition() {
+			return partition;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		public long getEntities() {
+			return entities;
+		}
+
+		public int getPages() {
+			return pages;
+		}
+
+		/**
+		 * @return the time spent scanning the partition so far, in milliseconds
+		 */
+		public long getElapsedMillis() {
+			if (startTime == 0) {
+				return 0;
+			}
+			return (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %s, %d entities in %d pages, %d ms",
+								 partition.getName(), state, entities, pages, getElapsedMillis());
+		}
+	}
+
+	/**
+	 * Receives the progress of the partitions, on the worker threads.
+	 */
+	public interface ProgressListener {
+		/**
+		 * Called after every page of a partition and when the partition ends.
+		 */
+		void onProgress(Progress progress);
+	}
+
+	/**
+	 * A page of results of a partition, its end, or the error which stopped it.
+	 */
+	private static class Page {
+		final int partition;
+		final List<?> results; //null at the end of the partition
+		final RuntimeException error;
+
+		Page(int partition, List<?> results, RuntimeException error) {
+			this.partition = partition;
+			this.results = results;
+			this.error = error;
+		}
+	}
+
+	private final MetadataExtractor extractor; //Extractor with the page size as limit
+	private final List<ScanPartition> partitions;
+	private final List<Progress> progress;
+	private final Function<Map<String, Object>, T> converter;
+	private final int pageSize;
+
+	private int parallelism = DEFAULT_PARALLELISM;
+	private int queuePages = DEFAULT_QUEUE_PAGES;
+	private Ordering ordering = Ordering.UNORDERED;
+	private ProgressListener listener;
+
+	private List<BlockingQueue<Page>> queues; //One queue per partition, or one shared queue when unordered
+	private ExecutorService workers;
+	private volatile boolean closed;
+	private int partitionIndex; //Partition being consumed when ordered by partition
+	private int ended; //Partitions consumed to the end
+	private Iterator<?> current = Collections.emptyIterator(); //Page being consumed
+
+	ParallelScan(MetadataExtractor extractor,
+				 List<ScanPartition> partitions,
+				 Function<Map<String, Object>, T> converter,
+				 int pageSize) {
+		Preconditions.checkArgument(!partitions.isEmpty(), "Argument partitions cannot be empty");
+		this.extractor = extractor;
+		this.partitions = ImmutableList.copyOf(partitions);
+		this.converter = converter;
+		this.pageSize = pageSize;
+		this.progress = Lists.newArrayList();
+		for (ScanPartition partition : partitions) {
+			progress.add(new Progress(partition));
+		}
+	}
+
+	/**
+	 * Sets the number of partitions scanned concurrently.
+	 */
+	public ParallelScan<T> setParallelism(int parallelism) {
+		Preconditions.checkArgument(parallelism > 0, "Argument parallelism must be positive");
+		checkNotStarted();
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * Sets the number of pages buffered per partition (per scan when unordered).
+	 */
+	public ParallelScan<T> setQueuePages(int queuePages) {
+		Preconditions.checkArgument(queuePages > 0, "Argument queuePages must be positive");
+		checkNotStarted();
+		this.queuePages = queuePages;
+		return this;
+	}
+
+	public ParallelScan<T> setOrdering(Ordering ordering) {
+		Preconditions.checkArgument(ordering != null, "Argument ordering cannot be null");
+		checkNotStarted();
+		this.ordering = ordering;
+		return this;
+	}
+
+	public ParallelScan<T> setProgressListener(ProgressListener listener) {
+		checkNotStarted();
+		this.listener = listener;
+		return this;
+	}
+
+	private void checkNotStarted() {
+		Preconditions.checkState(workers == null, "The scan is already started");
+	}
+
+	/**
+	 * @return the progress of every partition, in the order of the partitions
+	 */
+	public List<Progress> getProgress() {
+		return Collections.unmodifiableList(progress);
+	}
+
+	/**
+	 * Starts scanning, if not started yet. Called by the first read.
+	 */
+	public synchronized void start() {
+		if (workers != null) {
+			return;
+		}
+		queues = Lists.newArrayList();
+		if (Ordering.UNORDERED.equals(ordering)) {
+			queues.add(new ArrayBlockingQueue<Page>(queuePages * Math.min(parallelism, partitions.size())));
+		} else {
+			for (int i = 0; i < partitions.size(); i++) {
+				queues.add(new ArrayBlockingQueue<Page>(queuePages));
+			}
+		}
+		LOG.info(String.format("Scans %d partitions with %d workers, %s.",
+							   partitions.size(), parallelism, ordering));
+		workers = Executors.newFixedThreadPool(Math.min(parallelism, partitions.size()),
+				new ThreadFactoryBuilder().setNameFormat("meta-extractor-scan-%d").setDaemon(true).build());
+		for (int i = 0; i < partitions.size(); i++) {
+			final int index = i;
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					scan(index);
+				}
+			});
+		}
+		workers.shutdown();
+	}
+
+	private BlockingQueue<Page> queueOf(int partition) {
+		return queues.size() == 1 ? queues.get(0) : queues.get(partition);
+	}
+
+	/**
+	 * Scans one partition into its queue.
+	 */
+	private void scan(int index) {
+		ScanPartition partition = partitions.get(index);
+		Progress p = progress.get(index);
+		BlockingQueue<Page> queue = queueOf(index);
+		if (closed) {
+			p.state = State.CANCELLED;
+			return;
+		}
+		p.state = State.RUNNING;
+		p.startTime = System.currentTimeMillis();
+		try {
+			Iterator<Map<String, Object>> entities =
+					extractor.extractMetadata(null, null, partition.getEntitiesQuery(), null).getEntities().iterator();
+			List<T> page = Lists.newArrayListWithCapacity(pageSize);
+			while (!closed && entities.hasNext()) {
+				page.add(converter.apply(entities.next()));
+				if (page.size() >= pageSize || !entities.hasNext()) {
+					if (!put(queue, new Page(index, page, null))) {
+						break;
+					}
+					p.entities += page.size();
+					p.pages++;
+					notifyListener(p);
+					page = Lists.newArrayListWithCapacity(pageSize);
+				}
+			}
+			p.state = closed ? State.CANCELLED : State.DONE;
+			p.endTime = System.currentTimeMillis();
+			put(queue, new Page(index, null, null));
+			LOG.info(String.format("Scanned the partition %s.", p));
+		} catch (InterruptedException e) {
+			p.state = State.CANCELLED;
+			p.endTime = System.currentTimeMillis();
+		} catch (RuntimeException e) {
+			p.state = State.FAILED;
+			p.endTime = System.currentTimeMillis();
+			LOG.error(String.format("Failed to scan the partition %s.", partition), e);
+			try {
+				put(queue, new Page(index, null, e));
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		notifyListener(p);
+	}
+
+	/**
+	 * Queues a page, waiting for room until the scan is closed. The extractor may swallow the
+	 * interruption of {@link #close()}, so the worker does not rely on it to stop waiting.
+	 *
+	 * @return Returns whether the page was queued, false if the scan was closed.
+	 */
+	private boolean put(BlockingQueue<Page> queue, Page page) throws InterruptedException {
+		while (!closed) {
+			if (queue.offer(page, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void notifyListener(Progress p) {
+		if (listener != null) {
+			try {
+				listener.onProgress(p);
+			} catch (RuntimeException e) {
+				LOG.warn("The progress listener failed.", e);
+			}
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		start();
+		while (!current.hasNext()) {
+			if (closed || ended == partitions.size()) {
+				return false;
+			}
+			Page page;
+			try {
+				page = queueOf(Ordering.UNORDERED.equals(ordering) ? 0 : partitionIndex).take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new IllegalStateException("Interrupted while waiting for the next page", e);
+			}
+			if (page.error != null) {
+				close();
+				throw page.error;
+			} else if (page.results == null) {
+				ended++;
+				partitionIndex++;
+			} else {
+				current = page.results.iterator();
+			}
+		}
+		return true;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return (T) current.next();
+	}
+
+	/**
+	 * @return a stream over the merged results, which cancels the scan when closed
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+				Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(new Runnable() {
+					@Override
+					public void run() {
+						close();
+					}
+				});
+	}
+
+	/**
+	 * Cancels the partitions still running or pending. Results not consumed yet are discarded.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		current = Collections.emptyIterator();
+		for (Progress p : progress) {
+			//Partitions not started are never scanned
+			if (State.PENDING.equals(p.state)) {
+				p.state = State.CANCELLED;
+			}
+		}
+		if (workers != null) {
+			workers.shutdownNow();
+			for (BlockingQueue<Page> queue : queues) {
+				queue.clear();
+			}
+		}
+		LOG.info(String.format("Closed the scan: %s", progress));
+	}
+
+	/**
+	 * @return Returns whether all the workers have stopped.
+	 */
+	synchronized boolean isTerminated() {
+		return workers != null && workers.isTerminated();
+	}
+
+}
@@ -0,0 +1,118 @@
+package com.cloudera.nav.ext.client.extraction;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.cloudera.nav.sdk.model.SourceType;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * One partition of a parallel scan: a named query matching a disjoint part of the entities.
+ * The factory methods split a base query by entity type, by parent path prefix or by identity range.
+ */
+public final class ScanPartition {
+
+	private static final String HEX_DIGITS = "0123456789abcdef";
+
+	private final String name;
+	private final String entitiesQuery;
+
+	public ScanPartition(String name, String entitiesQuery) {
+		Preconditions.checkArgument(StringUtils.isNotEmpty(name), "Argument name cannot be null");
+		Preconditions.checkArgument(StringUtils.isNotEmpty(entitiesQuery), "Argument entitiesQuery cannot be null");
+		this.name = name;
+		this.entitiesQuery = entitiesQuery;
+	}
+
+	/**
+	 * Splits the entities of a source type by entity type, one partition per type.
+	 *
+	 * @param sourceType	Source type, like HDFS or HIVE
+	 * @param types			Entity types, like DATABASE, TABLE, VIEW, FIELD
+	 */
+	public static List<ScanPartition> byType(SourceType sourceType, String... types) {
+		List<ScanPartition> partitions = Lists.newArrayList();
+		for (String type : types) {
+			partitions.add(new ScanPartition(sourceType + ":" + type,
+					"sourceType:" + sourceType.name() + " AND type:" + type));
+		}
+		return partitions;
+	}
+
+	/**
+	 * Splits the entities of a base query by parent path, one partition per prefix. A partition
+	 * matches the entities whose parent path is the prefix or lies below it, so the prefixes must
+	 * not contain one another for the partitions to be disjoint, e.g. the sub-directories of a root.
+	 *
+	 * @param baseQuery	Query of all entities, like: sourceType:HDFS
+	 * @param prefixes	Parent path prefixes, like: /user/hive/warehouse/db1.db
+	 */
+	public static List<ScanPartition> byParentPathPrefix(String baseQuery, Collection<String> prefixes) {
+		List<ScanPartition> partitions = Lists.newArrayList();
+		for (String prefix : prefixes) {
+			String path = StringUtils.removeEnd(prefix, "/");
+			partitions.add(new ScanPartition(prefix, String.format(
+					"%s AND (parentPath:\"%s\" OR parentPath:%s\\/*)", baseQuery,
+					path.replace("\\", "\\\\").replace("\"", "\\\""), escapeTerm(path))));
+		}
+		return partitions;
+	}
+
+	/**
+	 * Splits the entities of a base query into 16^digits ranges of identities, by the leading
+	 * hexadecimal digits of the identity. Assumes the MD5-based identities of Navigator 2.x and later.
+	 *
+	 * @param baseQuery	Query of all entities, like: sourceType:HIVE
+	 * @param digits	Number of leading digits, 1 for 16 partitions, 2 for 256
+	 */
+	public static List<ScanPartition> byIdentityRange(String baseQuery, int digits) {
+		Preconditions.checkArgument(digits > 0 && digits <= 3, "Argument digits must be between 1 and 3");
+		List<String> prefixes = Lists.newArrayList("");
+		for (int i = 0; i < digits; i++) {
+			List<String> longer = Lists.newArrayList();
+			for (String prefix : prefixes) {
+				for (char digit : HEX_DIGITS.toCharArray()) {
+					longer.add(prefix + digit);
+				}
+			}
+			prefixes = longer;
+		}
+		List<ScanPartition> partitions = Lists.newArrayList();
+		for (String prefix : prefixes) {
+			partitions.add(new ScanPartition("identity:" + prefix + "*",
+					String.format("%s AND identity:%s*", baseQuery, prefix)));
+		}
+		return partitions;
+	}
+
+	/**
+	 * Escapes the Solr special characters of an unquoted term.
+	 */
+	static String escapeTerm(String term) {
+		StringBuilder escaped = new StringBuilder();
+		for (char c : term.toCharArray()) {
+			if ("\\+-!():^[]\"{}~*?|&;/ ".indexOf(c) >= 0) {
+				escaped.append('\\');
+			}
+			escaped.append(c);
+		}
+		return escaped.toString();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getEntitiesQuery() {
+		return entitiesQuery;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ScanPartition[%s: %s]", name, entitiesQuery);
+	}
+
+}
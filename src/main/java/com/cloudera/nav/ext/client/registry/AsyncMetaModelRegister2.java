@@ -0,0 +1,627 @@
+package com.cloudera.nav.ext.client.registry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.nav.ext.client.HttpTransport;
+import com.cloudera.nav.ext.client.NavigatorContext;
+import com.cloudera.nav.ext.client.PooledHttpTransport;
+import com.cloudera.nav.ext.client.registry.MetaModelRegister2.ModelHandler;
+import com.cloudera.nav.sdk.client.ClientConfig;
+import com.cloudera.nav.sdk.model.custom.CustomProperty;
+import com.cloudera.nav.sdk.model.custom.CustomPropertyType;
+import com.cloudera.nav.sdk.model.custom.MetaClass;
+import com.cloudera.nav.sdk.model.custom.MetaClassPackage;
+import com.cloudera.nav.sdk.model.custom.Namespace;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Asynchronous variant of {@link MetaModelRegister2}. Every endpoint returns a future and runs 
+ * on a bounded pool of workers, so independent lookups, like the properties of many namespaces, 
+ * are sent concurrently from one thread and combined with the {@link CompletableFuture} methods.
+ * At most {@link #getMaxConcurrency()} requests are in flight; the others wait in order.
+ * Requests share the keep-alive connections of a {@link PooledHttpTransport}, which should hold 
+ * at least as many connections as the concurrency limit.
+ * A failed request completes its future exceptionally with a {@link CompletionException} whose
+ * cause is the failure of the request: the {@link IOException} of the blocking register, even 
+ * when the register wraps it into a runtime exception, or any other runtime exception.
+ * Model handlers are called on the worker threads.
+ */
+public class AsyncMetaModelRegister2 implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AsyncMetaModelRegister2.class);
+
+	public static final int DEFAULT_MAX_CONCURRENCY = PooledHttpTransport.DEFAULT_MAX_CONNECTIONS;
+
+	private final MetaModelRegister2 register; //Sends the requests
+	private final HttpTransport ownTransport; //Transport created for this register, closed with it; null if shared
+	private final ExecutorService executor; //Workers bounding the requests in flight
+	private final int maxConcurrency;
+
+	/**
+	 * A blocking call of the register.
+	 */
+	private interface Call<T> {
+		T call() throws IOException;
+	}
+
+	/**
+	 * Constructs an asynchronous register on the default Navigator context, 
+	 * with {@link #DEFAULT_MAX_CONCURRENCY} concurrent requests.
+	 */
+	public AsyncMetaModelRegister2() {
+		this(NavigatorContext.getDefault(), DEFAULT_MAX_CONCURRENCY);
+	}
+
+	/**
+	 * Constructs an asynchronous register with its own connection pool, sized to the concurrency limit.
+	 * 
+	 * @param context			Navigator context
+	 * @param maxConcurrency	Maximum number of requests in flight
+	 */
+	public AsyncMetaModelRegister2(NavigatorContext context, int maxConcurrency) {
+		this(context, newTransport(context.getConfig(), maxConcurrency), maxConcurrency, true);
+	}
+
+	/**
+	 * Constructs an asynchronous register sending its requests through the given register.
+	 * The register and its transport stay open when this register is closed.
+	 * 
+	 * @param register			Blocking register
+	 * @param maxConcurrency	Maximum number of requests in flight
+	 */
+	public AsyncMetaModelRegister2(MetaModelRegister2 register, int maxConcurrency) {
+		Preconditions.checkArgument(register != null, "Argument register cannot be null");
+		Preconditions.checkArgument(maxConcurrency > 0, "Argument maxConcurrency must be positive");
+		this.register = register;
+		this.ownTransport = null;
+		this.maxConcurrency = maxConcurrency;
+		this.executor = newExecutor(maxConcurrency);
+	}
+
+	private AsyncMetaModelRegister2(NavigatorContext context, HttpTransport transport, int maxConcurrency, boolean own) {
+		this.register = new MetaModelRegister2(context, transport);
+		this.ownTransport = own ? transport : null;
+		this.maxConcurrency = maxConcurrency;
+		this.executor = newExecutor(maxConcurrency);
+	}
+
+	private static HttpTransport newTransport(ClientConfig config, int maxConcurrency) {
+		Preconditions.checkArgument(maxConcurrency > 0, "Argument maxConcurrency must be positive");
+		return new PooledHttpTransport(config.getUsername(), config.getPassword(), maxConcurrency);
+	}
+
+	private static ExecutorService newExecutor(int maxConcurrency) {
+		return Executors.newFixedThreadPool(maxConcurrency, 
+				new ThreadFactoryBuilder().setNameFormat("meta-model-register-%d").setDaemon(true).build());
+	}
+
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	/**
+	 * @return the blocking register the requests are sent through
+	 */
+	public MetaModelRegister2 getRegister() {
+		return register;
+	}
+
+	private <T> CompletableFuture<T> submit(final Call<T> call) {
+		return CompletableFuture.supplyAsync(new Supplier<T>() {
+			@Override
+			public T get() {
+				try {
+					return call.call();
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				} catch (RuntimeException e) {
+					//The register propagates the I/O failures of its requests unchecked
+					if (e.getCause() instanceof IOException) {
+						throw new CompletionException(e.getCause());
+					}
+					throw e;
+				}
+			}
+		}, executor);
+	}
+
+	/**
+	 * Gets all source types, entity types, and properties.
+	 * 
+	 * @see MetaModelRegister2#getAll()
+	 */
+	public CompletableFuture<Collection<Map<String, Object>>> getAll() {
+		return submit(new Call<Collection<Map<String, Object>>>() {
+			@Override
+			public Collection<Map<String, Object>> call() throws IOException {
+				return register.getAll();
+			}
+		});
+	}
+
+	/**
+	 * Gets all source types, entity types, and properties, streamed to a handler.
+	 * 
+	 * @see MetaModelRegister2#getAll(ModelHandler)
+	 */
+	public CompletableFuture<Void> getAll(final ModelHandler handler) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.getAll(handler);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Gets all packages (including default package).
+	 * 
+	 * @see MetaModelRegister2#getAllPackages()
+	 */
+	public CompletableFuture<Collection<Map<String, Object>>> getAllPackages() {
+		return submit(new Call<Collection<Map<String, Object>>>() {
+			@Override
+			public Collection<Map<String, Object>> call() throws IOException {
+				return register.getAllPackages();
+			}
+		});
+	}
+
+	/**
+	 * Gets package by package name.
+	 * 
+	 * @see MetaModelRegister2#getPackage(String)
+	 */
+	public CompletableFuture<Collection<Map<String, Object>>> getPackage(final String packageName) {
+		return submit(new Call<Collection<Map<String, Object>>>() {
+			@Override
+			public Collection<Map<String, Object>> call() throws IOException {
+				return register.getPackage(packageName);
+			}
+		});
+	}
+
+	/**
+	 * Creates a new package.
+	 * 
+	 * @see MetaModelRegister2#createPackage(String, String, String)
+	 */
+	public CompletableFuture<Void> createPackage(final String packageName, final String displayName, final String description) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.createPackage(packageName, displayName, description);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Creates a new package.
+	 * 
+	 * @see MetaModelRegister2#createPackage(MetaClassPackage)
+	 */
+	public CompletableFuture<Void> createPackage(final MetaClassPackage metapackage) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.createPackage(metapackage);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Retrieves all available MetaClasses, both default and custom.
+	 * 
+	 * @see MetaModelRegister2#getAllClasses()
+	 */
+	public CompletableFuture<Collection<Map<String, Object>>> getAllClasses() {
+		return submit(new Call<Collection<Map<String, Object>>>() {
+			@Override
+			public Collection<Map<String, Object>> call() throws IOException {
+				return register.getAllClasses();
+			}
+		});
+	}
+
+	/**
+	 * Retrieves all available MetaClasses, streamed to a handler.
+	 * 
+	 * @see MetaModelRegister2#getAllClasses(ModelHandler)
+	 */
+	public CompletableFuture<Void> getAllClasses(final ModelHandler handler) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.getAllClasses(handler);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Gets meta-classes under the given package.
+	 * 
+	 * @see MetaModelRegister2#getAllClasses(String)
+	 */
+	public CompletableFuture<Collection<Map<String, Object>>> getAllClasses(final String packageName) {
+		return submit(new Call<Collection<Map<String, Object>>>() {
+			@Override
+			public Collection<Map<String, Object>> call() throws IOException {
+				return register.getAllClasses(packageName);
+			}
+		});
+	}
+
+	/**
+	 * Gets package names and class names of all classes associated with specified property.
+	 * 
+	 * @see MetaModelRegister2#getAllClasses(String, String)
+	 */
+	public CompletableFuture<Collection<Map<String, Object>>> getAllClasses(final String namespaceName, final String propertyName) {
+		return submit(new Call<Collection<Map<String, Object>>>() {
+			@Override
+			public Collection<Map<String, Object>> call() throws IOException {
+				return register.getAllClasses(namespaceName, propertyName);
+			}
+		});
+	}
+
+	/**
+	 * Gets a meta-class by package name and class name.
+	 * 
+	 * @see MetaModelRegister2#getClass(String, String)
+	 */
+	public CompletableFuture<Collection<Map<String, Object>>> getClass(final String packageName, final String className) {
+		return submit(new Call<Collection<Map<String, Object>>>() {
+			@Override
+			public Collection<Map<String, Object>> call() throws IOException {
+				return register.getClass(packageName, className);
+			}
+		});
+	}
+
+	/**
+	 * Creates a new meta-class.
+	 * 
+	 * @see MetaModelRegister2#createClass(String, String, String, String)
+	 */
+	public CompletableFuture<Void> createClass(final String className, final String packageName, final String displayName, final String description) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.createClass(className, packageName, displayName, description);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Creates a new meta-class.
+	 * 
+	 * @see MetaModelRegister2#createClass(MetaClass)
+	 */
+	public CompletableFuture<Void> createClass(final MetaClass metaclass) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.createClass(metaclass);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Gets all namespaces.
+	 * 
+	 * @see MetaModelRegister2#getAllNamespaces()
+	 */
+	public CompletableFuture<Collection<Map<String, Object>>> getAllNamespaces() {
+		return submit(new Call<Collection<Map<String, Object>>>() {
+			@Override
+			public Collection<Map<String, Object>> call() throws IOException {
+				return register.getAllNamespaces();
+			}
+		});
+	}
+
+	/**
+	 * Gets a namespace by name.
+	 * 
+	 * @see MetaModelRegister2#getNamespace(String)
+	 */
+	public CompletableFuture<Collection<Map<String, Object>>> getNamespace(final String namespaceName) {
+		return submit(new Call<Collection<Map<String, Object>>>() {
+			@Override
+			public Collection<Map<String, Object>> call() throws IOException {
+				return register.getNamespace(namespaceName);
+			}
+		});
+	}
+
+	/**
+	 * Deletes a namespace.
+	 * 
+	 * @see MetaModelRegister2#deleteNamespace(String)
+	 */
+	public CompletableFuture<Void> deleteNamespace(final String namespaceName) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.deleteNamespace(namespaceName);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Creates a new namespace.
+	 * 
+	 * @see MetaModelRegister2#createNamespace(String, String, String)
+	 */
+	public CompletableFuture<Void> createNamespace(final String namespaceName, final String displayName, final String description) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.createNamespace(namespaceName, displayName, description);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Creates a new namespace.
+	 * 
+	 * @see MetaModelRegister2#createNamespace(Namespace)
+	 */
+	public CompletableFuture<Void> createNamespace(final Namespace namespace) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.createNamespace(namespace);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Retrieves all custom properties.
+	 * 
+	 * @see MetaModelRegister2#getAllProperties()
+	 */
+	public CompletableFuture<Collection<Map<String, Object>>> getAllProperties() {
+		return submit(new Call<Collection<Map<String, Object>>>() {
+			@Override
+			public Collection<Map<String, Object>> call() throws IOException {
+				return register.getAllProperties();
+			}
+		});
+	}
+
+	/**
+	 * Retrieves all custom properties, streamed to a handler.
+	 * 
+	 * @see MetaModelRegister2#getAllProperties(ModelHandler)
+	 */
+	public CompletableFuture<Void> getAllProperties(final ModelHandler handler) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.getAllProperties(handler);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Gets the properties of a namespace.
+	 * 
+	 * @see MetaModelRegister2#getAllProperties(String)
+	 */
+	public CompletableFuture<Collection<Map<String, Object>>> getAllProperties(final String namespaceName) {
+		return submit(new Call<Collection<Map<String, Object>>>() {
+			@Override
+			public Collection<Map<String, Object>> call() throws IOException {
+				return register.getAllProperties(namespaceName);
+			}
+		});
+	}
+
+	/**
+	 * Gets the properties of a meta-class.
+	 * 
+	 * @see MetaModelRegister2#getAllProperties(String, String)
+	 */
+	public CompletableFuture<Collection<Map<String, Object>>> getAllProperties(final String packageName, final String className) {
+		return submit(new Call<Collection<Map<String, Object>>>() {
+			@Override
+			public Collection<Map<String, Object>> call() throws IOException {
+				return register.getAllProperties(packageName, className);
+			}
+		});
+	}
+
+	/**
+	 * Gets a property by namespace and name.
+	 * 
+	 * @see MetaModelRegister2#getProperty(String, String)
+	 */
+	public CompletableFuture<Collection<Map<String, Object>>> getProperty(final String namespaceName, final String propertyName) {
+		return submit(new Call<Collection<Map<String, Object>>>() {
+			@Override
+			public Collection<Map<String, Object>> call() throws IOException {
+				return register.getProperty(namespaceName, propertyName);
+			}
+		});
+	}
+
+	/**
+	 * Creates a new custom property.
+	 * 
+	 * @see MetaModelRegister2#createProperty(String, String, String, String, CustomPropertyType, boolean, String[], Integer, String)
+	 */
+	public CompletableFuture<Void> createProperty(final String namespaceName, final String propertyName, final String displayName, final String description, final CustomPropertyType propertyType, final boolean multiValued, final String[] values, final Integer maxLength, final String pattern) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.createProperty(namespaceName, propertyName, displayName, description, propertyType, multiValued, values, maxLength, pattern);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Creates a new custom property.
+	 * 
+	 * @see MetaModelRegister2#createProperty(CustomProperty)
+	 */
+	public CompletableFuture<Void> createProperty(final CustomProperty property) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.createProperty(property);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Updates disabled, display name, description, or validation criteria of a property.
+	 * 
+	 * @see MetaModelRegister2#updateProperty(String, String, String, String, boolean, String[], Integer, String)
+	 */
+	public CompletableFuture<Void> updateProperty(final String namespaceName, final String propertyName, final String displayName, final String description, final boolean disabled, final String[] values, final Integer maxLength, final String pattern) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.updateProperty(namespaceName, propertyName, displayName, description, disabled, values, maxLength, pattern);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Adds the specified enum values to a property.
+	 * 
+	 * @see MetaModelRegister2#updateProperty(String, String, String[])
+	 */
+	public CompletableFuture<Void> updateProperty(final String namespaceName, final String propertyName, final String[] values) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.updateProperty(namespaceName, propertyName, values);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Deletes a property.
+	 * 
+	 * @see MetaModelRegister2#deleteProperty(String, String)
+	 */
+	public CompletableFuture<Void> deleteProperty(final String namespaceName, final String propertyName) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.deleteProperty(namespaceName, propertyName);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Adds the specified property to the specified class.
+	 * 
+	 * @see MetaModelRegister2#createMapping(String, String, String, String)
+	 */
+	public CompletableFuture<Void> createMapping(final String packageName, final String className, final String namespaceName, final String propertyName) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.createMapping(packageName, className, namespaceName, propertyName);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Adds the specified properties to the specified class.
+	 * 
+	 * @see MetaModelRegister2#createMappings(String, String, Set)
+	 */
+	public CompletableFuture<Void> createMappings(final String packageName, final String className, final Set<String> properties) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.createMappings(packageName, className, properties);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Gets complete mapping of packages -> classes -> properties.
+	 * 
+	 * @see MetaModelRegister2#getAllMappings()
+	 */
+	public CompletableFuture<Collection<Map<String, Object>>> getAllMappings() {
+		return submit(new Call<Collection<Map<String, Object>>>() {
+			@Override
+			public Collection<Map<String, Object>> call() throws IOException {
+				return register.getAllMappings();
+			}
+		});
+	}
+
+	/**
+	 * Gets complete mapping of packages -> classes -> properties, streamed to a handler.
+	 * 
+	 * @see MetaModelRegister2#getAllMappings(ModelHandler)
+	 */
+	public CompletableFuture<Void> getAllMappings(final ModelHandler handler) {
+		return submit(new Call<Void>() {
+			@Override
+			public Void call() throws IOException {
+				register.getAllMappings(handler);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Stops the workers once the submitted requests are done, and closes the connection pool 
+	 * of this register if it has its own.
+	 */
+	@Override
+	public void close() throws IOException {
+		LOG.info("Closes the asynchronous model register.");
+		executor.shutdown();
+		if (ownTransport != null) {
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				ownTransport.close();
+			}
+		}
+	}
+
+}
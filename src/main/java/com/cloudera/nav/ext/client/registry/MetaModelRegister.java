@@ -7,8 +7,7 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.cloudera.nav.sdk.client.NavApiCient;
-import com.cloudera.nav.sdk.client.NavigatorPlugin;
+import com.cloudera.nav.ext.client.NavigatorContext;
 import com.cloudera.nav.sdk.model.MetadataModel;
 import com.cloudera.nav.sdk.model.custom.CustomProperty;
 import com.cloudera.nav.sdk.model.custom.CustomPropertyType;
@@ -24,8 +23,7 @@ public class MetaModelRegister {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(MetaModelRegister.class);
 
-	private NavigatorPlugin plugin; //Plugin used to write metadata to Navigator
-	private NavApiCient client; //Client to communicate with the Navigator REST API
+	private NavigatorContext context; //Shared Navigator plugin and client
 
 	private Set<Namespace> namespaces;
 	private Set<CustomProperty> properties;
@@ -35,8 +33,16 @@ public class MetaModelRegister {
 	 * Constructs a metadata model register.
 	 */
 	public MetaModelRegister() {
-		this.plugin = NavigatorPlugin.fromConfigFile("navigator.conf");
-		this.client = this.plugin.getClient();
+		this(NavigatorContext.getDefault());
+	}
+	
+	/**
+	 * Constructs a metadata model register on the given Navigator context.
+	 * 
+	 * @param context	Navigator context
+	 */
+	public MetaModelRegister(NavigatorContext context) {
+		this.context = context;
 		this.namespaces = Sets.newHashSet();
 		this.properties = Sets.newHashSet();
 		this.mappings = Maps.newHashMap();
@@ -128,7 +134,7 @@ public class MetaModelRegister {
 		model.setProperties(properties);
 		model.setMappings(mappings);
 
-		client.registerModels(model);
+		context.getClient().registerModels(model);
 		clear();
 	}
 	
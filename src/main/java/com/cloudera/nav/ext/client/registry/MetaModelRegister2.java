@@ -1,39 +1,40 @@
 package com.cloudera.nav.ext.client.registry;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.net.util.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpMethod;
 
+import com.cloudera.nav.ext.client.HttpTransport;
+import com.cloudera.nav.ext.client.NavigatorContext;
 import com.cloudera.nav.sdk.client.ClientConfig;
-import com.cloudera.nav.sdk.client.NavigatorPlugin;
 import com.cloudera.nav.sdk.model.custom.CustomProperty;
 import com.cloudera.nav.sdk.model.custom.CustomPropertyType;
 import com.cloudera.nav.sdk.model.custom.MetaClass;
 import com.cloudera.nav.sdk.model.custom.MetaClassPackage;
 import com.cloudera.nav.sdk.model.custom.Namespace;
+import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 /**
@@ -43,13 +44,52 @@ public class MetaModelRegister2 {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(MetaModelRegister2.class);
 	
+	private static final ObjectMapper MAPPER = new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+			.configure(JsonParser.Feature.ALLOW_COMMENTS, true)
+			.configure(JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS, true);
+	private static final ObjectReader MODEL_READER = MAPPER.reader(new TypeReference<Map<String, Object>>() {});
+	
 	private ClientConfig config; //Client configuration
+	private HttpTransport transport; //Pooled HTTP connections to the Navigator API
 
+	/**
+	 * Handles the models of a response as they are parsed.
+	 */
+	public interface ModelHandler {
+		/**
+		 * @param model	One model (package, class, property, ...) of the response
+		 */
+		void handle(Map<String, Object> model) throws IOException;
+	}
+	
 	/**
 	 * Constructs a metadata model register.
 	 */
 	public MetaModelRegister2() {
-		this.config = NavigatorPlugin.fromConfigFile("navigator.conf").getConfig();
+		this(NavigatorContext.getDefault());
+	}
+	
+	/**
+	 * Constructs a metadata model register on the given Navigator context.
+	 * 
+	 * @param context	Navigator context
+	 */
+	public MetaModelRegister2(NavigatorContext context) {
+		this(context, context.getHttpTransport());
+	}
+	
+	/**
+	 * Constructs a metadata model register sending its requests through the given transport.
+	 * 
+	 * @param context	Navigator context
+	 * @param transport	HTTP transport, like a {@link com.cloudera.nav.ext.client.PooledHttpTransport} 
+	 * 					with custom timeouts
+	 */
+	public MetaModelRegister2(NavigatorContext context, HttpTransport transport) {
+		Preconditions.checkArgument(transport != null, "Argument transport cannot be null");
+		this.config = context.getConfig();
+		this.transport = transport;
 	}
 	
 	/**
@@ -68,6 +108,23 @@ public class MetaModelRegister2 {
 		return sendRequest(apiUrl, HttpMethod.GET.name(), null);
 	}
 	
+	/**
+	 * Gets all source types, entity types, and properties, streamed to a handler one by one as they are parsed, 
+	 * without holding the whole response in memory.
+	 * REST GET URL: http://host:port/api/{apiVersion}/models/all
+	 * 
+	 * @param handler	Handles each model
+	 */
+	public void getAll(ModelHandler handler) throws IOException {
+		LOG.info("Gets all source types, entity types, and properties.");
+		String apiUrl = joinUrlPath(
+	            joinUrlPath(config.getNavigatorUrl(),
+	                "api/v" + String.valueOf(config.getApiVersion())),
+	                "models/all");
+	    
+		sendRequest(apiUrl, HttpMethod.GET.name(), null, handler);
+	}
+	
 	//------------------------------------------
 	
 	/**
@@ -179,6 +236,23 @@ public class MetaModelRegister2 {
 		return sendRequest(apiUrl, HttpMethod.GET.name(), null);
 	}
 	
+	/**
+	 * Retrieves all available MetaClasses, both default and custom, streamed to a handler one by one as they are parsed, 
+	 * without holding the whole response in memory.
+	 * REST GET URL: http://host:port/api/{apiVersion}/models/classes
+	 * 
+	 * @param handler	Handles each model
+	 */
+	public void getAllClasses(ModelHandler handler) throws IOException {
+		LOG.info("Retrieves all available MetaClasses, both default and custom.");
+		String apiUrl = joinUrlPath(
+	            joinUrlPath(config.getNavigatorUrl(),
+	                "api/v" + String.valueOf(config.getApiVersion())),
+	                "models/classes");
+	    
+		sendRequest(apiUrl, HttpMethod.GET.name(), null, handler);
+	}
+	
 	/**
 	 * Gets meta-classes under the given package.
 	 * REST GET URL: http://host:port/api/{apiVersion}/models/packages/{package}/classes
@@ -422,6 +496,42 @@ public class MetaModelRegister2 {
 		return sendRequest(apiUrl, HttpMethod.GET.name(), null);
 	}
 	
+	/**
+	 * Retrieves all custom properties, streamed to a handler one by one as they are parsed, 
+	 * without holding the whole response in memory.
+	 * REST GET URL: http://host:port/api/{apiVersion}/models/properties
+	 * 
+	 * @param handler	Handles each model
+	 */
+	public void getAllProperties(ModelHandler handler) throws IOException {
+		LOG.info("Retrieves all custom properties.");
+		String apiUrl = joinUrlPath(
+	            joinUrlPath(config.getNavigatorUrl(),
+	                "api/v" + String.valueOf(config.getApiVersion())),
+	                "models/properties");
+	    
+		sendRequest(apiUrl, HttpMethod.GET.name(), null, handler);
+	}
+	
+	/**
+	 * Retrieves all custom properties if they changed since the response the validator belongs to, 
+	 * streamed to a handler. The validator is updated with the one of the new response.
+	 * 
+	 * @param handler	Handles each property
+	 * @param validator	Validator of the previous response, empty for the first request
+	 * @return Returns false if the properties did not change, then the handler is not called.
+	 */
+	public boolean getAllProperties(ModelHandler handler, ResponseValidator validator) throws IOException {
+		Preconditions.checkArgument(validator != null, "Argument validator cannot be null");
+		LOG.info("Retrieves all custom properties if modified.");
+		String apiUrl = joinUrlPath(
+	            joinUrlPath(config.getNavigatorUrl(),
+	                "api/v" + String.valueOf(config.getApiVersion())),
+	                "models/properties");
+	    
+		return sendRequest(apiUrl, HttpMethod.GET.name(), null, validator, handler);
+	}
+	
 	/**
 	 * Gets custom properties for namespace.
 	 * REST GET URL: http://host:port/api/{apiVersion}/models/namespaces/{namespace}/properties
@@ -629,7 +739,7 @@ public class MetaModelRegister2 {
 		    for (String value : values) {
 		    	valueSet.add("\"" + value + "\"");
 		    }
-		    postStr.append("[").append(Joiner.on(", ").join(values)).append("]");
+		    postStr.append("[").append(Joiner.on(", ").join(valueSet)).append("]");
 		}
 		
 		postStr.append("}");
@@ -665,7 +775,7 @@ public class MetaModelRegister2 {
 		for (String value : values) {
 			valueSet.add("\"" + value + "\"");
 		}
-		postStr.append("[").append(Joiner.on(", ").join(values)).append("]");
+		postStr.append("[").append(Joiner.on(", ").join(valueSet)).append("]");
 		postStr.append("}");
 		
 		sendRequest(apiUrl, HttpMethod.POST.name(), postStr.toString());
@@ -780,84 +890,134 @@ public class MetaModelRegister2 {
 		return sendRequest(apiUrl, HttpMethod.GET.name(), null);
 	}
 	
+	/**
+	 * Gets complete mapping of packages -> classes -> properties if it changed since the response 
+	 * the validator belongs to, streamed to a handler. The validator is updated with the one of the new response.
+	 * 
+	 * @param handler	Handles each mapping
+	 * @param validator	Validator of the previous response, empty for the first request
+	 * @return Returns false if the mappings did not change, then the handler is not called.
+	 */
+	public boolean getAllMappings(ModelHandler handler, ResponseValidator validator) throws IOException {
+		Preconditions.checkArgument(validator != null, "Argument validator cannot be null");
+		LOG.info("Gets complete mapping of packages -> classes -> properties if modified.");
+		String apiUrl = joinUrlPath(
+	            joinUrlPath(config.getNavigatorUrl(),
+	                "api/v" + String.valueOf(config.getApiVersion())),
+	                "models/properties/mappings");
+	    
+		return sendRequest(apiUrl, HttpMethod.GET.name(), null, validator, handler);
+	}
+	
+	/**
+	 * Gets complete mapping of packages -> classes -> properties, streamed to a handler one by one as they are parsed, 
+	 * without holding the whole response in memory.
+	 * REST GET URL: http://host:port/api/{apiVersion}/models/properties/mappings
+	 * 
+	 * @param handler	Handles each model
+	 */
+	public void getAllMappings(ModelHandler handler) throws IOException {
+		LOG.info("Gets complete mapping of packages -> classes -> properties.");
+		String apiUrl = joinUrlPath(
+	            joinUrlPath(config.getNavigatorUrl(),
+	                "api/v" + String.valueOf(config.getApiVersion())),
+	                "models/properties/mappings");
+	    
+		sendRequest(apiUrl, HttpMethod.GET.name(), null, handler);
+	}
+	
 	//------------------------------------------
 	
 	private Collection<Map<String, Object>> sendRequest(String apiUrl, String requestMethod, String postData) throws IOException {
-		HttpURLConnection conn = null;
-		OutputStream out = null;
-		InputStream in = null;
-		Collection<Map<String, Object>> models = null;
-		
-		try {
-			URL url = new URL(apiUrl);
-		    conn = (HttpURLConnection) url.openConnection();
-		    String userpass = config.getUsername() + ":" + config.getPassword();
-		    String basicAuth = "Basic " + new String(Base64.encodeBase64(userpass.getBytes()));
-		    conn.addRequestProperty("Authorization", basicAuth);
-		    conn.addRequestProperty("Content-Type", "application/json");
-		    conn.addRequestProperty("Accept", "application/json");
-		    conn.setDoOutput(true);
-		    conn.setDoInput(true);
-		    //conn.setReadTimeout(0);
-		    conn.setRequestMethod(requestMethod);
-		    
-		    LOG.debug(String.format("Sends %s request to Navigator API: %s", requestMethod, apiUrl));
-		    if (HttpMethod.POST.name().equals(requestMethod) || HttpMethod.PUT.name().equals(requestMethod)) {
-		    	LOG.debug("Post data: " + postData);
-		    	out = conn.getOutputStream();
-		    	PrintWriter writer = new PrintWriter(out);
-			    writer.write(postData);
-			    writer.flush();
-		    } else {
-		    	conn.connect();
-		    }
-		    
-		    if (conn.getResponseCode() >= HttpStatus.SC_BAD_REQUEST) {
-		    	in = conn.getErrorStream();
-		    } else {
-		    	in = conn.getInputStream();
-		    }
-		    BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-		    StringBuilder sb = new StringBuilder();
-		    String responseBody;
-		    while ((responseBody = reader.readLine()) != null) {
-		    	sb.append(responseBody);
-		    }
-		    responseBody = sb.toString().trim();
-		    
-		    if (conn.getResponseCode() >= HttpStatus.SC_BAD_REQUEST) {
+		final List<Map<String, Object>> models = Lists.newArrayList();
+		sendRequest(apiUrl, requestMethod, postData, new ModelHandler() {
+			@Override
+			public void handle(Map<String, Object> model) {
+				models.add(model);
+			}
+		});
+		return models;
+	}
+	
+	/**
+	 * Sends a request and parses the response body as it is read. The body is either one model 
+	 * or an array of models; each is handed to the handler as soon as it is parsed.
+	 */
+	private void sendRequest(String apiUrl, String requestMethod, String postData, ModelHandler handler) throws IOException {
+		sendRequest(apiUrl, requestMethod, postData, null, handler);
+	}
+	
+	/**
+	 * Sends a request, conditional if a validator is given, and parses the response body as it is read.
+	 * 
+	 * @return Returns false if the validator matched and Navigator answered 304 Not Modified.
+	 */
+	private boolean sendRequest(String apiUrl, 
+								String requestMethod, 
+								String postData, 
+								ResponseValidator validator, 
+								ModelHandler handler) throws IOException {
+		LOG.debug(String.format("Sends %s request to Navigator API: %s", requestMethod, apiUrl));
+		if (postData != null) {
+			LOG.debug("Post data: " + postData);
+		}
+		Map<String, String> headers = Maps.newHashMap();
+		if (validator != null && validator.getEtag() != null) {
+			headers.put("If-None-Match", validator.getEtag());
+		}
+		if (validator != null && validator.getLastModified() != null) {
+			headers.put("If-Modified-Since", validator.getLastModified());
+		}
+		try (HttpTransport.Response response = transport.execute(requestMethod, apiUrl, postData, headers)) {
+			if (response.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+				LOG.debug("Not modified since " + validator);
+				return false;
+			}
+		    if (response.getStatusCode() >= HttpStatus.SC_BAD_REQUEST) {
 		    	//Throw error message
 		    	throw new IOException(String.format(
-		              "Error sending request (code %s): %s %s", conn.getResponseCode(),
-		              conn.getResponseMessage(), responseBody));
+		              "Error sending request (code %s): %s %s", response.getStatusCode(),
+		              response.getStatusText(), IOUtils.toString(response.getBody(), StandardCharsets.UTF_8).trim()));
 		    }
-		    
-		    if (!StringUtils.isEmpty(responseBody)) {
-		    	LOG.debug("Response body: " + responseBody);
-			}
-		    
-		    if (!responseBody.startsWith("[")) {
-		    	responseBody = "[" + responseBody + "]";
+		    if (validator != null) {
+		    	validator.setEtag(response.getHeader("ETag"));
+		    	validator.setLastModified(response.getHeader("Last-Modified"));
 		    }
 		    
-		    ObjectMapper mapper = new ObjectMapper();
-		    mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-		    mapper.configure(JsonParser.Feature.ALLOW_COMMENTS, true);
-		    mapper.configure(JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS, true);
-		    models = mapper.readValue(responseBody, new TypeReference<Collection<Map<String, Object>>>() {});
+		    int count = parse(response.getBody(), handler);
+		    LOG.debug(String.format("Response of %d models.", count));
 		} catch (IOException ioe) {
 			Throwables.propagate(ioe);
-		} finally {
-			if (out != null) {
-				out.close();
+		}
+		return true;
+	}
+	
+	/**
+	 * Parses a JSON stream holding one object or an array of objects, without buffering it.
+	 * 
+	 * @return Returns the number of objects parsed.
+	 */
+	static int parse(InputStream body, ModelHandler handler) throws IOException {
+		int count = 0;
+		try (JsonParser parser = MAPPER.getFactory().createParser(body)) {
+			JsonToken token = parser.nextToken();
+			if (token == null) {
+				return count;
+			} else if (token == JsonToken.START_OBJECT) {
+				handler.handle(MODEL_READER.<Map<String, Object>>readValue(parser));
+				return ++count;
+			} else if (token != JsonToken.START_ARRAY) {
+				throw new JsonParseException("Expected a JSON object or array", parser.getCurrentLocation());
 			}
-			if (in != null) {
-				in.close();
+			while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+				handler.handle(MODEL_READER.<Map<String, Object>>readValue(parser));
+				count++;
+			}
+			if (token != JsonToken.END_ARRAY) {
+				throw new JsonParseException("Expected a JSON object in the array", parser.getCurrentLocation());
 			}
-			IOUtils.close(conn);
 		}
-		
-		return models;
+		return count;
 	}
 	
 	private static String joinUrlPath(String base, String component) {
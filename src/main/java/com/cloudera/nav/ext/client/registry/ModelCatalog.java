@@ -0,0 +1,529 @@
+package com.cloudera.nav.ext.client.registry;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.nav.ext.client.registry.MetaModelRegister2.ModelHandler;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * An in-memory catalog of the custom properties and their mappings to classes, indexed for
+ * lookups without requests to Navigator: properties by namespace, mapped properties by class,
+ * and classes by property. Classes are named package.class and properties namespace.property.
+ * <p>
+ * The catalog is loaded from {@link MetaModelRegister2#getAllProperties(ModelHandler, ResponseValidator)}
+ * and {@link MetaModelRegister2#getAllMappings(ModelHandler, ResponseValidator)} on first use, and refreshed
+ * on demand or in the background. Refreshes are conditional requests when Navigator sends validators
+ * (ETag or Last-Modified); otherwise the responses are digested as they stream in and the indexes
+ * are only rebuilt when a digest changed. Lookups always see a complete, consistent catalog.
+ * <p>
+ * The catalog can be saved to a local snapshot file and loaded from it, so a new process starts
+ * with the catalog of the previous one and only refreshes it.
+ */
+public class ModelCatalog implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ModelCatalog.class);
+
+	private static final ObjectMapper MAPPER =
+			new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	private final MetaModelRegister2 register; //Fetches the properties and mappings
+	private final File snapshotFile; //Snapshot saved after each change, null if none
+	private volatile Snapshot snapshot; //Current catalog, null until loaded
+	private volatile long checkedAt; //Time of the last refresh, whether the catalog changed or not
+	private ScheduledExecutorService scheduler; //Background refresh, null if not started
+
+	/**
+	 * Constructs a catalog without snapshot file, loaded on first use.
+	 *
+	 * @param register	Model register
+	 */
+	public ModelCatalog(MetaModelRegister2 register) {
+		this(register, null);
+	}
+
+	/**
+	 * Constructs a catalog which starts from a snapshot file if it exists, and saves the catalog
+	 * to it after each change.
+	 *
+	 * @param register		Model register
+	 * @param snapshotFile	Snapshot file, null for none
+	 */
+	public ModelCatalog(MetaModelRegister2 register, File snapshotFile) {
+		Preconditions.checkArgument(register != null, "Argument register cannot be null");
+		this.register = register;
+		this.snapshotFile = snapshotFile;
+		if (snapshotFile != null && snapshotFile.exists()) {
+			try {
+				load(snapshotFile);
+			} catch (IOException e) {
+				LOG.warn(String.format("Cannot load the model catalog snapshot %s, loads it from Navigator.", snapshotFile), e);
+			}
+		}
+	}
+
+	/**
+	 * The properties and mappings of the catalog, with their indexes. The indexes are not persisted.
+	 */
+	static class Snapshot {
+		private List<Map<String, Object>> properties = Lists.newArrayList();
+		private Map<String, Set<String>> mappings = Maps.newTreeMap(); //Mapped properties by class
+		private ResponseValidator propertiesValidator = new ResponseValidator();
+		private ResponseValidator mappingsValidator = new ResponseValidator();
+		private String propertiesDigest;
+		private String mappingsDigest;
+		private long loadedAt; //Time the catalog was fetched
+
+		@JsonIgnore
+		private Map<String, Map<String, Object>> propertiesByName;
+		@JsonIgnore
+		private ImmutableSetMultimap<String, String> propertiesByNamespace;
+		@JsonIgnore
+		private ImmutableSetMultimap<String, String> propertiesByClass;
+		@JsonIgnore
+		private ImmutableSetMultimap<String, String> classesByProperty;
+
+		/**
+		 * Builds the indexes.
+		 */
+		Snapshot index() {
+			ImmutableMap.Builder<String, Map<String, Object>> byName = ImmutableMap.builder();
+			ImmutableSetMultimap.Builder<String, String> byNamespace = ImmutableSetMultimap.builder();
+			Set<String> names = Sets.newHashSet();
+			for (Map<String, Object> property : properties) {
+				String namespace = (String) property.get("namespace");
+				String name = (String) property.get("name");
+				if (namespace == null || name == null || !names.add(namespace + "." + name)) {
+					continue;
+				}
+				byName.put(namespace + "." + name, property);
+				byNamespace.put(namespace, namespace + "." + name);
+			}
+			ImmutableSetMultimap.Builder<String, String> byClass = ImmutableSetMultimap.builder();
+			for (Map.Entry<String, Set<String>> mapping : mappings.entrySet()) {
+				byClass.putAll(mapping.getKey(), mapping.getValue());
+			}
+			this.propertiesByName = byName.build();
+			this.propertiesByNamespace = byNamespace.build();
+			this.propertiesByClass = byClass.build();
+			this.classesByProperty = propertiesByClass.inverse();
+			return this;
+		}
+
+		/**
+		 * @return a copy of this indexed snapshot, sharing its content and indexes, with other validators
+		 */
+		Snapshot withValidators(ResponseValidator propertiesValidator, ResponseValidator mappingsValidator) {
+			Snapshot copy = new Snapshot();
+			copy.properties = properties;
+			copy.mappings = mappings;
+			copy.propertiesValidator = propertiesValidator;
+			copy.mappingsValidator = mappingsValidator;
+			copy.propertiesDigest = propertiesDigest;
+			copy.mappingsDigest = mappingsDigest;
+			copy.loadedAt = loadedAt;
+			copy.propertiesByName = propertiesByName;
+			copy.propertiesByNamespace = propertiesByNamespace;
+			copy.propertiesByClass = propertiesByClass;
+			copy.classesByProperty = classesByProperty;
+			return copy;
+		}
+
+		public List<Map<String, Object>> getProperties() {
+			return properties;
+		}
+
+		public void setProperties(List<Map<String, Object>> properties) {
+			this.properties = properties;
+		}
+
+		public Map<String, Set<String>> getMappings() {
+			return mappings;
+		}
+
+		public void setMappings(Map<String, Set<String>> mappings) {
+			this.mappings = mappings;
+		}
+
+		public ResponseValidator getPropertiesValidator() {
+			return propertiesValidator;
+		}
+
+		public void setPropertiesValidator(ResponseValidator propertiesValidator) {
+			this.propertiesValidator = propertiesValidator;
+		}
+
+		public ResponseValidator getMappingsValidator() {
+			return mappingsValidator;
+		}
+
+		public void setMappingsValidator(ResponseValidator mappingsValidator) {
+			this.mappingsValidator = mappingsValidator;
+		}
+
+		public String getPropertiesDigest() {
+			return propertiesDigest;
+		}
+
+		public void setPropertiesDigest(String propertiesDigest) {
+			this.propertiesDigest = propertiesDigest;
+		}
+
+		public String getMappingsDigest() {
+			return mappingsDigest;
+		}
+
+		public void setMappingsDigest(String mappingsDigest) {
+			this.mappingsDigest = mappingsDigest;
+		}
+
+		public long getLoadedAt() {
+			return loadedAt;
+		}
+
+		public void setLoadedAt(long loadedAt) {
+			this.loadedAt = loadedAt;
+		}
+	}
+
+	/**
+	 * Collects the models of a response and digests them as they are parsed.
+	 */
+	private static class Collector implements ModelHandler {
+		final List<Map<String, Object>> models = Lists.newArrayList();
+		final Hasher hasher = Hashing.md5().newHasher();
+
+		@Override
+		public void handle(Map<String, Object> model) {
+			models.add(model);
+			hasher.putString(String.valueOf(model), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Fetches the properties and mappings which changed since the last refresh and replaces the
+	 * catalog if any did. Lookups keep using the previous catalog until the new one is complete.
+	 *
+	 * @return Returns whether the catalog changed.
+	 */
+	public synchronized boolean refresh() throws IOException {
+		long start = System.currentTimeMillis();
+		Snapshot current = snapshot;
+		ResponseValidator propertiesValidator = copy(current == null ? null : current.getPropertiesValidator());
+		ResponseValidator mappingsValidator = copy(current == null ? null : current.getMappingsValidator());
+
+		Collector properties = new Collector();
+		Collector mappings = new Collector();
+		boolean propertiesModified = register.getAllProperties(properties, propertiesValidator);
+		boolean mappingsModified = register.getAllMappings(mappings, mappingsValidator);
+
+		Snapshot next = new Snapshot();
+		next.setPropertiesValidator(propertiesValidator);
+		next.setMappingsValidator(mappingsValidator);
+		next.setLoadedAt(start);
+		boolean changed = current == null;
+		if (propertiesModified) {
+			next.setProperties(properties.models);
+			next.setPropertiesDigest(properties.hasher.hash().toString());
+			changed |= current != null && !next.getPropertiesDigest().equals(current.getPropertiesDigest());
+		} else {
+			next.setProperties(current.getProperties());
+			next.setPropertiesDigest(current.getPropertiesDigest());
+		}
+		if (mappingsModified) {
+			Map<String, Set<String>> byClass = Maps.newTreeMap();
+			for (Map<String, Object> mapping : mappings.models) {
+				readMapping(mapping, byClass);
+			}
+			next.setMappings(byClass);
+			next.setMappingsDigest(mappings.hasher.hash().toString());
+			changed |= current != null && !next.getMappingsDigest().equals(current.getMappingsDigest());
+		} else {
+			next.setMappings(current.getMappings());
+			next.setMappingsDigest(current.getMappingsDigest());
+		}
+
+		checkedAt = System.currentTimeMillis();
+		if (!changed) {
+			//Keeps the indexes; only the validators may have changed
+			LOG.info(String.format("The model catalog is unchanged, checked in %d ms.", checkedAt - start));
+			if (!sameValidator(propertiesValidator, current.getPropertiesValidator())
+					|| !sameValidator(mappingsValidator, current.getMappingsValidator())) {
+				snapshot = current.withValidators(propertiesValidator, mappingsValidator);
+				if (snapshotFile != null) {
+					save(snapshotFile);
+				}
+			}
+			return false;
+		}
+		snapshot = next.index();
+		LOG.info(String.format("Loaded the model catalog in %d ms: %s", checkedAt - start, this));
+		if (snapshotFile != null) {
+			save(snapshotFile);
+		}
+		return true;
+	}
+
+	private static boolean sameValidator(ResponseValidator validator, ResponseValidator other) {
+		return other != null
+				&& Objects.equal(validator.getEtag(), other.getEtag())
+				&& Objects.equal(validator.getLastModified(), other.getLastModified());
+	}
+
+	private static ResponseValidator copy(ResponseValidator validator) {
+		ResponseValidator copy = new ResponseValidator();
+		if (validator != null) {
+			copy.setEtag(validator.getEtag());
+			copy.setLastModified(validator.getLastModified());
+		}
+		return copy;
+	}
+
+	/**
+	 * Reads one mapping of the mappings response: a class, by package name and class name,
+	 * with its properties, as namespace.property strings or as objects with namespace and name.
+	 */
+	static void readMapping(Map<String, Object> mapping, Map<String, Set<String>> byClass) {
+		String packageName = firstString(mapping, "packageName", "package");
+		String className = firstString(mapping, "className", "name", "class");
+		if (packageName == null || className == null) {
+			LOG.debug("Ignores the mapping without package or class: " + mapping);
+			return;
+		}
+		Object properties = mapping.containsKey("properties") ? mapping.get("properties") : mapping.get("mappings");
+		Set<String> names = Sets.newTreeSet();
+		if (properties instanceof Collection) {
+			for (Object property : (Collection<?>) properties) {
+				if (property instanceof String) {
+					names.add((String) property);
+				} else if (property instanceof Map) {
+					@SuppressWarnings("unchecked")
+					Map<String, Object> map = (Map<String, Object>) property;
+					String namespace = firstString(map, "namespace");
+					String name = firstString(map, "name");
+					if (namespace != null && name != null) {
+						names.add(namespace + "." + name);
+					}
+				}
+			}
+		}
+		String fullClassName = packageName + "." + className;
+		if (byClass.containsKey(fullClassName)) {
+			byClass.get(fullClassName).addAll(names);
+		} else {
+			byClass.put(fullClassName, names);
+		}
+	}
+
+	private static String firstString(Map<String, Object> map, String... keys) {
+		for (String key : keys) {
+			if (map.get(key) instanceof String) {
+				return (String) map.get(key);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Refreshes the catalog in the background. A failed refresh is logged, and the catalog kept.
+	 *
+	 * @param period	Time between the end of a refresh and the start of the next
+	 * @param unit		Time unit of the period
+	 */
+	public synchronized void start(long period, TimeUnit unit) {
+		Preconditions.checkState(scheduler == null, "The background refresh is already started");
+		Preconditions.checkArgument(period > 0, "Argument period must be positive");
+		scheduler = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("model-catalog-refresh").setDaemon(true).build());
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refresh();
+				} catch (Exception e) {
+					LOG.warn("Failed to refresh the model catalog, keeps the current one.", e);
+				}
+			}
+		}, snapshot == null ? 0 : period, period, unit);
+	}
+
+	/**
+	 * Stops the background refresh.
+	 */
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Loads the catalog from a snapshot file, replacing the current one.
+	 *
+	 * @param file	Snapshot file
+	 */
+	public synchronized void load(File file) throws IOException {
+		Snapshot loaded = MAPPER.readValue(file, Snapshot.class);
+		snapshot = loaded.index();
+		LOG.info(String.format("Loaded the model catalog from %s: %s", file, this));
+	}
+
+	/**
+	 * Saves the catalog atomically: the content is written and forced to a temporary file,
+	 * which then replaces the snapshot file.
+	 *
+	 * @param file	Snapshot file
+	 */
+	public synchronized void save(File file) throws IOException {
+		Snapshot current = getSnapshot();
+		Path target = file.toPath().toAbsolutePath();
+		Files.createDirectories(target.getParent());
+		Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.wrap(MAPPER.writeValueAsBytes(current));
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return the current catalog, loaded from Navigator on first call
+	 */
+	private Snapshot getSnapshot() {
+		Snapshot current = snapshot;
+		if (current == null) {
+			synchronized (this) {
+				if (snapshot == null) {
+					try {
+						refresh();
+					} catch (IOException e) {
+						throw Throwables.propagate(e);
+					}
+				}
+				current = snapshot;
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * @return the namespaces which have properties
+	 */
+	public Set<String> getNamespaces() {
+		return getSnapshot().propertiesByNamespace.keySet();
+	}
+
+	/**
+	 * @param namespaceName	Namespace name
+	 * @param propertyName	Property name
+	 * @return Returns the property, or null if there is none with this name.
+	 */
+	public Map<String, Object> getProperty(String namespaceName, String propertyName) {
+		return getSnapshot().propertiesByName.get(namespaceName + "." + propertyName);
+	}
+
+	/**
+	 * @param namespaceName	Namespace name
+	 * @return Returns the properties of the namespace, as namespace.property.
+	 */
+	public Set<String> getProperties(String namespaceName) {
+		return getSnapshot().propertiesByNamespace.get(namespaceName);
+	}
+
+	/**
+	 * @param packageName	Package name
+	 * @param className		Class name
+	 * @return Returns the properties mapped to the class, as namespace.property.
+	 */
+	public Set<String> getMappedProperties(String packageName, String className) {
+		return getSnapshot().propertiesByClass.get(packageName + "." + className);
+	}
+
+	/**
+	 * @param namespaceName	Namespace name
+	 * @param propertyName	Property name
+	 * @return Returns the classes the property is mapped to, as package.class.
+	 */
+	public Set<String> getClasses(String namespaceName, String propertyName) {
+		return getSnapshot().classesByProperty.get(namespaceName + "." + propertyName);
+	}
+
+	/**
+	 * @return Returns whether the property is mapped to the class, i.e. entities of the class accept it.
+	 */
+	public boolean isMapped(String packageName, String className, String namespaceName, String propertyName) {
+		return getSnapshot().propertiesByClass.containsEntry(packageName + "." + className,
+															 namespaceName + "." + propertyName);
+	}
+
+	/**
+	 * @return all classes with mapped properties, as package.class
+	 */
+	public Set<String> getClasses() {
+		return ImmutableSet.copyOf(getSnapshot().propertiesByClass.keySet());
+	}
+
+	/**
+	 * @return the time the catalog was fetched from Navigator, 0 if it is not loaded
+	 */
+	public long getLoadedAt() {
+		Snapshot current = snapshot;
+		return current == null ? 0 : current.getLoadedAt();
+	}
+
+	/**
+	 * @return the time of the last refresh, whether the catalog changed or not, 0 if never refreshed
+	 */
+	public long getCheckedAt() {
+		return checkedAt;
+	}
+
+	@Override
+	public String toString() {
+		Snapshot current = snapshot;
+		if (current == null) {
+			return "ModelCatalog[not loaded]";
+		}
+		return String.format("ModelCatalog[namespaces=%d, properties=%d, classes=%d, mappings=%d]",
+							 current.propertiesByNamespace.keySet().size(), current.propertiesByName.size(),
+							 current.propertiesByClass.keySet().size(), current.propertiesByClass.size());
+	}
+
+}
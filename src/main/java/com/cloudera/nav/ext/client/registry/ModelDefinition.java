@@ -0,0 +1,203 @@
+package com.cloudera.nav.ext.client.registry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cloudera.nav.sdk.model.custom.CustomPropertyType;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A desired model, read from a JSON file: packages with their classes, namespaces with their
+ * properties, and the mappings of classes to properties. Attributes left out are not reconciled.
+ * For example:
+ * <pre>
+ * {
+ *   "packages": [{"name": "ext", "classes": [{"name": "report"}]}],
+ *   "namespaces": [{
+ *     "name": "finance",
+ *     "properties": [{"name": "costCenter", "type": "ENUM", "enumValues": ["sales", "supply chain"]}]
+ *   }],
+ *   "mappings": {"nav.hv_table": ["finance.costCenter"]}
+ * }
+ * </pre>
+ */
+public class ModelDefinition {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+			.configure(JsonParser.Feature.ALLOW_COMMENTS, true);
+
+	private List<PackageDefinition> packages = Lists.newArrayList();
+	private List<NamespaceDefinition> namespaces = Lists.newArrayList();
+	private Map<String, Set<String>> mappings = Maps.newTreeMap(); //Map<package.class, Set<namespace.property>>
+
+	/**
+	 * Reads a JSON model file.
+	 *
+	 * @param file	Model file
+	 * @return Returns the desired model.
+	 */
+	public static ModelDefinition read(File file) throws IOException {
+		Preconditions.checkArgument(file != null, "Argument file cannot be null");
+		return MAPPER.readValue(file, ModelDefinition.class);
+	}
+
+	/**
+	 * Reads a model from a stream.
+	 *
+	 * @param in	JSON content
+	 * @return Returns the desired model.
+	 */
+	public static ModelDefinition read(InputStream in) throws IOException {
+		Preconditions.checkArgument(in != null, "Argument in cannot be null");
+		return MAPPER.readValue(in, ModelDefinition.class);
+	}
+
+	public List<PackageDefinition> getPackages() {
+		return packages;
+	}
+
+	public void setPackages(List<PackageDefinition> packages) {
+		this.packages = packages;
+	}
+
+	public List<NamespaceDefinition> getNamespaces() {
+		return namespaces;
+	}
+
+	public void setNamespaces(List<NamespaceDefinition> namespaces) {
+		this.namespaces = namespaces;
+	}
+
+	public Map<String, Set<String>> getMappings() {
+		return mappings;
+	}
+
+	public void setMappings(Map<String, Set<String>> mappings) {
+		this.mappings = mappings;
+	}
+
+	/**
+	 * A named model element with an optional display name and description.
+	 */
+	public static class ElementDefinition {
+		private String name;
+		private String displayName;
+		private String description;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public String getDisplayName() {
+			return displayName;
+		}
+
+		public void setDisplayName(String displayName) {
+			this.displayName = displayName;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		public void setDescription(String description) {
+			this.description = description;
+		}
+	}
+
+	/**
+	 * A package and its classes.
+	 */
+	public static class PackageDefinition extends ElementDefinition {
+		private List<ElementDefinition> classes = Lists.newArrayList();
+
+		public List<ElementDefinition> getClasses() {
+			return classes;
+		}
+
+		public void setClasses(List<ElementDefinition> classes) {
+			this.classes = classes;
+		}
+	}
+
+	/**
+	 * A namespace and its properties.
+	 */
+	public static class NamespaceDefinition extends ElementDefinition {
+		private List<PropertyDefinition> properties = Lists.newArrayList();
+
+		public List<PropertyDefinition> getProperties() {
+			return properties;
+		}
+
+		public void setProperties(List<PropertyDefinition> properties) {
+			this.properties = properties;
+		}
+	}
+
+	/**
+	 * A custom property. Its type and multi-valued flag cannot change once created.
+	 */
+	public static class PropertyDefinition extends ElementDefinition {
+		private CustomPropertyType type = CustomPropertyType.TEXT;
+		private boolean multiValued;
+		private List<String> enumValues;
+		private Integer maxLength;
+		private String pattern;
+
+		public CustomPropertyType getType() {
+			return type;
+		}
+
+		public void setType(CustomPropertyType type) {
+			this.type = type;
+		}
+
+		public boolean isMultiValued() {
+			return multiValued;
+		}
+
+		public void setMultiValued(boolean multiValued) {
+			this.multiValued = multiValued;
+		}
+
+		public List<String> getEnumValues() {
+			return enumValues;
+		}
+
+		public void setEnumValues(List<String> enumValues) {
+			this.enumValues = enumValues;
+		}
+
+		public Integer getMaxLength() {
+			return maxLength;
+		}
+
+		public void setMaxLength(Integer maxLength) {
+			this.maxLength = maxLength;
+		}
+
+		public String getPattern() {
+			return pattern;
+		}
+
+		public void setPattern(String pattern) {
+			this.pattern = pattern;
+		}
+	}
+
+}
@@ -0,0 +1,112 @@
+package com.cloudera.nav.ext.client.registry;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * The changes which bring the models of Navigator to a desired model, in the order they must be
+ * applied: packages, classes, namespaces, properties, then mappings. Differences which cannot
+ * be applied, like a property type change, are reported as conflicts.
+ */
+public class ModelPlan {
+
+	/**
+	 * Type of change.
+	 */
+	public enum ActionType {
+		CREATE_PACKAGE,
+		CREATE_CLASS,
+		CREATE_NAMESPACE,
+		CREATE_PROPERTY,
+		UPDATE_PROPERTY,
+		ADD_ENUM_VALUES,
+		CREATE_MAPPINGS
+	}
+
+	/**
+	 * Applies one change through a model register.
+	 */
+	interface Step {
+		void apply(MetaModelRegister2 register) throws IOException;
+	}
+
+	/**
+	 * One change, on one model element.
+	 */
+	public static class Action {
+		private final ActionType type;
+		private final String target; //Changed element, like namespace.property
+		private final Step step;
+
+		Action(ActionType type, String target, Step step) {
+			this.type = type;
+			this.target = target;
+			this.step = step;
+		}
+
+		public ActionType getType() {
+			return type;
+		}
+
+		public String getTarget() {
+			return target;
+		}
+
+		void apply(MetaModelRegister2 register) throws IOException {
+			step.apply(register);
+		}
+
+		@Override
+		public String toString() {
+			return type + " " + target;
+		}
+	}
+
+	private final List<Action> actions = Lists.newArrayList();
+	private final List<String> conflicts = Lists.newArrayList();
+
+	void add(ActionType type, String target, Step step) {
+		actions.add(new Action(type, target, step));
+	}
+
+	void addConflict(String conflict) {
+		conflicts.add(conflict);
+	}
+
+	/**
+	 * @return the changes, in the order they must be applied
+	 */
+	public List<Action> getActions() {
+		return Collections.unmodifiableList(actions);
+	}
+
+	/**
+	 * @return the differences which are not applied
+	 */
+	public List<String> getConflicts() {
+		return Collections.unmodifiableList(conflicts);
+	}
+
+	/**
+	 * @return Returns whether Navigator already has the desired model.
+	 */
+	public boolean isEmpty() {
+		return actions.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		Map<ActionType, Integer> counts = Maps.newEnumMap(ActionType.class);
+		for (Action action : actions) {
+			Integer count = counts.get(action.getType());
+			counts.put(action.getType(), count == null ? 1 : count + 1);
+		}
+		return String.format("ModelPlan[actions=%s, conflicts=%d]", counts, conflicts.size());
+	}
+
+}
@@ -0,0 +1,322 @@
+package com.cloudera.nav.ext.client.registry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.nav.ext.client.registry.MetaModelRegister2.ModelHandler;
+import com.cloudera.nav.ext.client.registry.ModelDefinition.ElementDefinition;
+import com.cloudera.nav.ext.client.registry.ModelDefinition.NamespaceDefinition;
+import com.cloudera.nav.ext.client.registry.ModelDefinition.PackageDefinition;
+import com.cloudera.nav.ext.client.registry.ModelDefinition.PropertyDefinition;
+import com.cloudera.nav.ext.client.registry.ModelPlan.ActionType;
+import com.cloudera.nav.ext.client.registry.ModelPlan.Step;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Brings the models of Navigator to a desired model with as few requests as possible. The current
+ * models are fetched with five bulk requests, compared with the desired model, and only the
+ * missing or changed elements are created or updated; mappings are added with one request per class.
+ * Reconciling is additive: elements which are not in the desired model are left as they are.
+ */
+public class ModelReconciler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ModelReconciler.class);
+
+	private final MetaModelRegister2 register; //Reads and changes the models
+
+	/**
+	 * Constructs a reconciler on the default Navigator context.
+	 */
+	public ModelReconciler() {
+		this(new MetaModelRegister2());
+	}
+
+	/**
+	 * Constructs a reconciler.
+	 *
+	 * @param register	Model register
+	 */
+	public ModelReconciler(MetaModelRegister2 register) {
+		Preconditions.checkArgument(register != null, "Argument register cannot be null");
+		this.register = register;
+	}
+
+	/**
+	 * Reads a model file and applies the changes it needs.
+	 *
+	 * @param file	JSON model file
+	 * @return Returns the applied plan.
+	 */
+	public ModelPlan reconcile(File file) throws IOException {
+		return reconcile(ModelDefinition.read(file));
+	}
+
+	/**
+	 * Plans and applies the changes a desired model needs.
+	 *
+	 * @param desired	Desired model
+	 * @return Returns the applied plan.
+	 */
+	public ModelPlan reconcile(ModelDefinition desired) throws IOException {
+		ModelPlan plan = plan(desired);
+		apply(plan);
+		return plan;
+	}
+
+	/**
+	 * Compares a desired model with the models of Navigator, without changing them.
+	 *
+	 * @param desired	Desired model
+	 * @return Returns the changes to apply.
+	 */
+	public ModelPlan plan(ModelDefinition desired) throws IOException {
+		Preconditions.checkArgument(desired != null, "Argument desired cannot be null");
+		long start = System.currentTimeMillis();
+
+		final CurrentModel current = new CurrentModel();
+		for (Map<String, Object> model : register.getAllPackages()) {
+			current.addPackage(model);
+		}
+		register.getAllClasses(new ModelHandler() {
+			@Override
+			public void handle(Map<String, Object> model) {
+				current.addClass(model);
+			}
+		});
+		for (Map<String, Object> model : register.getAllNamespaces()) {
+			current.addNamespace(model);
+		}
+		register.getAllProperties(new ModelHandler() {
+			@Override
+			public void handle(Map<String, Object> model) {
+				current.addProperty(model);
+			}
+		});
+		register.getAllMappings(new ModelHandler() {
+			@Override
+			public void handle(Map<String, Object> model) {
+				current.addMapping(model);
+			}
+		});
+
+		ModelPlan plan = plan(desired, current);
+		LOG.info(String.format("Planned the model changes in %d ms: %s", System.currentTimeMillis() - start, plan));
+		for (String conflict : plan.getConflicts()) {
+			LOG.warn("Cannot reconcile: " + conflict);
+		}
+		return plan;
+	}
+
+	/**
+	 * The models of Navigator, as read from the responses of the model register.
+	 */
+	static class CurrentModel {
+		private final Set<String> packages = Sets.newHashSet();
+		private final Set<String> classes = Sets.newHashSet(); //package.class
+		private final Set<String> namespaces = Sets.newHashSet();
+		private final Map<String, Map<String, Object>> properties = Maps.newHashMap(); //By namespace.property
+		private final Map<String, Set<String>> mappings = Maps.newHashMap(); //Map<package.class, Set<namespace.property>>
+
+		void addPackage(Map<String, Object> model) {
+			packages.add((String) model.get("name"));
+		}
+
+		void addClass(Map<String, Object> model) {
+			classes.add(model.get("packageName") + "." + model.get("name"));
+		}
+
+		void addNamespace(Map<String, Object> model) {
+			namespaces.add((String) model.get("name"));
+		}
+
+		void addProperty(Map<String, Object> model) {
+			properties.put(model.get("namespace") + "." + model.get("name"), model);
+		}
+
+		void addMapping(Map<String, Object> model) {
+			ModelCatalog.readMapping(model, mappings);
+		}
+	}
+
+	/**
+	 * Compares a desired model with the given models of Navigator.
+	 *
+	 * @param desired	Desired model
+	 * @param current	Current models
+	 * @return Returns the changes to apply.
+	 */
+	static ModelPlan plan(ModelDefinition desired, CurrentModel current) {
+		ModelPlan plan = new ModelPlan();
+		for (final PackageDefinition pkg : desired.getPackages()) {
+			if (!current.packages.contains(pkg.getName())) {
+				plan.add(ActionType.CREATE_PACKAGE, pkg.getName(), new Step() {
+					@Override
+					public void apply(MetaModelRegister2 register) throws IOException {
+						register.createPackage(pkg.getName(), pkg.getDisplayName(), pkg.getDescription());
+					}
+				});
+			}
+		}
+		for (final PackageDefinition pkg : desired.getPackages()) {
+			for (final ElementDefinition cls : pkg.getClasses()) {
+				if (!current.classes.contains(pkg.getName() + "." + cls.getName())) {
+					plan.add(ActionType.CREATE_CLASS, pkg.getName() + "." + cls.getName(), new Step() {
+						@Override
+						public void apply(MetaModelRegister2 register) throws IOException {
+							register.createClass(cls.getName(), pkg.getName(), cls.getDisplayName(), cls.getDescription());
+						}
+					});
+				}
+			}
+		}
+		for (final NamespaceDefinition namespace : desired.getNamespaces()) {
+			if (!current.namespaces.contains(namespace.getName())) {
+				plan.add(ActionType.CREATE_NAMESPACE, namespace.getName(), new Step() {
+					@Override
+					public void apply(MetaModelRegister2 register) throws IOException {
+						register.createNamespace(namespace.getName(), namespace.getDisplayName(), namespace.getDescription());
+					}
+				});
+			}
+		}
+		for (NamespaceDefinition namespace : desired.getNamespaces()) {
+			for (PropertyDefinition property : namespace.getProperties()) {
+				planProperty(plan, namespace.getName(), property, current.properties.get(namespace.getName() + "." + property.getName()));
+			}
+		}
+		for (Map.Entry<String, Set<String>> mapping : desired.getMappings().entrySet()) {
+			planMappings(plan, mapping.getKey(), mapping.getValue(), current.mappings.get(mapping.getKey()));
+		}
+		return plan;
+	}
+
+	private static void planProperty(ModelPlan plan,
+									 final String namespaceName,
+									 final PropertyDefinition property,
+									 Map<String, Object> current) {
+		final String fullPropertyName = namespaceName + "." + property.getName();
+		final String[] values = property.getEnumValues() == null ? null
+				: property.getEnumValues().toArray(new String[property.getEnumValues().size()]);
+		if (current == null) {
+			plan.add(ActionType.CREATE_PROPERTY, fullPropertyName, new Step() {
+				@Override
+				public void apply(MetaModelRegister2 register) throws IOException {
+					register.createProperty(namespaceName, property.getName(), property.getDisplayName(),
+							property.getDescription(), property.getType(), property.isMultiValued(), values,
+							property.getMaxLength(), property.getPattern());
+				}
+			});
+			return;
+		}
+
+		if (!property.getType().name().equals(current.get("type"))
+				|| property.isMultiValued() != Boolean.TRUE.equals(current.get("multiValued"))) {
+			plan.addConflict(String.format("%s is %s%s in Navigator, the model wants %s%s", fullPropertyName,
+					current.get("type"), Boolean.TRUE.equals(current.get("multiValued")) ? " multi-valued" : "",
+					property.getType(), property.isMultiValued() ? " multi-valued" : ""));
+			return;
+		}
+		boolean changed = Boolean.TRUE.equals(current.get("disabled"))
+				|| differs(property.getDisplayName(), current.get("displayName"))
+				|| differs(property.getDescription(), current.get("description"))
+				|| differs(property.getPattern(), current.get("pattern"))
+				|| property.getMaxLength() != null && !(current.get("maxLength") instanceof Number
+						&& ((Number) current.get("maxLength")).intValue() == property.getMaxLength());
+		Set<String> missingValues = Sets.newLinkedHashSet();
+		if (property.getEnumValues() != null) {
+			missingValues.addAll(property.getEnumValues());
+			if (current.get("enumValues") instanceof Collection) {
+				missingValues.removeAll((Collection<?>) current.get("enumValues"));
+			}
+		}
+
+		if (changed) {
+			plan.add(ActionType.UPDATE_PROPERTY, fullPropertyName, new Step() {
+				@Override
+				public void apply(MetaModelRegister2 register) throws IOException {
+					register.updateProperty(namespaceName, property.getName(), property.getDisplayName(),
+							property.getDescription(), false, values, property.getMaxLength(), property.getPattern());
+				}
+			});
+		} else if (!missingValues.isEmpty()) {
+			final String[] added = missingValues.toArray(new String[missingValues.size()]);
+			plan.add(ActionType.ADD_ENUM_VALUES, fullPropertyName, new Step() {
+				@Override
+				public void apply(MetaModelRegister2 register) throws IOException {
+					register.updateProperty(namespaceName, property.getName(), added);
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return Returns whether a desired attribute is set and differs from the current one.
+	 */
+	private static boolean differs(String desired, Object current) {
+		return desired != null && !desired.equals(current);
+	}
+
+	private static void planMappings(ModelPlan plan, String fullClassName, Set<String> desired, Set<String> current) {
+		final Set<String> missing = Sets.newTreeSet(desired);
+		if (current != null) {
+			missing.removeAll(current);
+		}
+		if (missing.isEmpty()) {
+			return;
+		}
+		int dot = fullClassName.indexOf('.');
+		if (dot <= 0 || dot == fullClassName.length() - 1) {
+			plan.addConflict(String.format("Mapping class %s is not package.class", fullClassName));
+			return;
+		}
+		for (String property : missing) {
+			if (property.split("\\.").length != 2) {
+				plan.addConflict(String.format("Mapped property %s of %s is not namespace.property", property, fullClassName));
+				return;
+			}
+		}
+		final String packageName = fullClassName.substring(0, dot);
+		final String className = fullClassName.substring(dot + 1);
+		plan.add(ActionType.CREATE_MAPPINGS, fullClassName + " " + missing, new Step() {
+			@Override
+			public void apply(MetaModelRegister2 register) throws IOException {
+				register.createMappings(packageName, className, missing);
+			}
+		});
+	}
+
+	/**
+	 * Applies the changes of a plan in order, and stops at the first failure. Planning again
+	 * after a failure resumes where it stopped.
+	 *
+	 * @param plan	Plan of changes
+	 * @return Returns the number of applied changes.
+	 */
+	public int apply(ModelPlan plan) throws IOException {
+		Preconditions.checkArgument(plan != null, "Argument plan cannot be null");
+		long start = System.currentTimeMillis();
+		List<ModelPlan.Action> actions = plan.getActions();
+		for (int i = 0; i < actions.size(); i++) {
+			ModelPlan.Action action = actions.get(i);
+			LOG.info(String.format("Applies %s (%d/%d)", action, i + 1, actions.size()));
+			try {
+				action.apply(register);
+			} catch (IOException | RuntimeException e) {
+				LOG.error(String.format("Failed to apply %s after %d of %d changes.", action, i, actions.size()), e);
+				throw e;
+			}
+		}
+		LOG.info(String.format("Applied %d model changes in %d ms.", actions.size(), System.currentTimeMillis() - start));
+		return actions.size();
+	}
+
+}
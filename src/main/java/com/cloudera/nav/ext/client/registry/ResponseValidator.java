@@ -0,0 +1,41 @@
+package com.cloudera.nav.ext.client.registry;
+
+/**
+ * The validators of the last response of an endpoint, sent back with the next request to the
+ * endpoint so Navigator can answer 304 Not Modified instead of the whole response.
+ * Both are null when Navigator does not send them.
+ */
+public class ResponseValidator {
+
+	private String etag; //ETag of the last response
+	private String lastModified; //Last-Modified of the last response
+
+	/**
+	 * @return whether there is a validator to send
+	 */
+	public boolean isPresent() {
+		return etag != null || lastModified != null;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public void setEtag(String etag) {
+		this.etag = etag;
+	}
+
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	public void setLastModified(String lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ResponseValidator[etag=%s, lastModified=%s]", etag, lastModified);
+	}
+
+}
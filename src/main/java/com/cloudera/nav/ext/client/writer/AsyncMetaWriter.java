@@ -0,0 +1,532 @@
+package com.cloudera.nav.ext.client.writer;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.nav.ext.model.EntityKey;
+import com.cloudera.nav.sdk.model.entities.Entity;
+import com.cloudera.nav.sdk.model.entities.EntityType;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Asynchronous variant of {@link MetaWriter}. Updates are prepared on the caller thread and
+ * enqueued into a bounded queue; a background sender drains the queue into batches, which are
+ * written when they reach the batch size, when the linger time has elapsed since the first
+ * update of the batch, or when a flush is requested.
+ * Every update and every flush returns a future which completes once the metadata is written.
+ * When the queue is full, callers block or fail depending on the configured backpressure policy.
+ * <p>
+ * If the writer has a {@link MetaWriter#setJournal(WriteJournal) journal}, every update is appended 
+ * to it before it is enqueued and marked done once written (or not found in Navigator), so updates 
+ * still queued when the process stops can be replayed with {@link MetaWriter#replayJournal()}.
+ */
+public class AsyncMetaWriter implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AsyncMetaWriter.class);
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	public static final long DEFAULT_LINGER_MS = 100L;
+	public static final long DEFAULT_MAX_BLOCK_MS = 60000L;
+
+	private static final long POLL_INTERVAL_MS = 100; //Interval at which close checks that the sender is alive
+
+	/**
+	 * What an update does when the queue is full.
+	 */
+	public enum Backpressure {
+		BLOCK,	//Waits up to the maximum block time for free space, then fails
+		FAIL	//Fails immediately
+	}
+
+	private final MetaWriter writer; //Prepares entities and writes batches
+	private final BlockingQueue<Request> queue; //Pending updates and flush requests
+	private final Thread sender; //Background sender
+	private final Object lock = new Object(); //Orders the closed check and journal append of an update with closing
+
+	private volatile int batchSize = DEFAULT_BATCH_SIZE;
+	private volatile long lingerMs = DEFAULT_LINGER_MS;
+	private volatile Backpressure backpressure = Backpressure.BLOCK;
+	private volatile long maxBlockMs = DEFAULT_MAX_BLOCK_MS;
+	private volatile boolean closed; //Set under the lock, no update is accepted after
+	private volatile boolean stopped; //Set by the sender before it fails the requests left in the queue
+
+	/**
+	 * An update, a flush request (no entity) or the end of the queue (no future).
+	 */
+	private static class Request {
+		final EntityKey key;
+		final MetadataUpdate update;
+		final Entity entity;
+		final CompletableFuture<Void> future;
+
+		Request(EntityKey key, MetadataUpdate update, Entity entity, CompletableFuture<Void> future) {
+			this.key = key;
+			this.update = update;
+			this.entity = entity;
+			this.future = future;
+		}
+
+		boolean isFlush() {
+			return entity == null && future != null;
+		}
+
+		boolean isEnd() {
+			return future == null;
+		}
+	}
+
+	/**
+	 * Constructs an asynchronous metadata writer on the default Navigator context.
+	 */
+	public AsyncMetaWriter() {
+		this(new MetaWriter(), DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * Constructs an asynchronous metadata writer which prepares and writes entities through the given writer.
+	 * The writer must not be used directly any more.
+	 *
+	 * @param writer		Metadata writer, its request limits, identity cache and sources apply
+	 * @param queueCapacity	Maximum number of updates waiting to be sent
+	 */
+	public AsyncMetaWriter(MetaWriter writer, int queueCapacity) {
+		Preconditions.checkArgument(writer != null, "Argument writer cannot be null");
+		Preconditions.checkArgument(queueCapacity > 0, "Argument queueCapacity must be positive");
+		this.writer = writer;
+		this.queue = new ArrayBlockingQueue<Request>(queueCapacity);
+		this.sender = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runSender();
+			}
+		}, "meta-writer-sender");
+		this.sender.setDaemon(true);
+		this.sender.start();
+	}
+
+	/**
+	 * Sets the number of updates which makes the sender write a batch without waiting for the linger time.
+	 *
+	 * @param batchSize	Number of updates per batch
+	 */
+	public void setBatchSize(int batchSize) {
+		Preconditions.checkArgument(batchSize > 0, "Argument batchSize must be positive");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Sets how long the sender waits for more updates after the first update of a batch.
+	 *
+	 * @param linger	Linger time, 0 to write whatever is queued immediately
+	 * @param unit		Time unit of the linger time
+	 */
+	public void setLinger(long linger, TimeUnit unit) {
+		this.lingerMs = unit.toMillis(linger);
+	}
+
+	/**
+	 * Sets what an update or a flush does when the queue is full.
+	 *
+	 * @param backpressure	Backpressure policy
+	 * @param maxBlock		Maximum time to wait for free space with {@link Backpressure#BLOCK}
+	 * @param unit			Time unit of the maximum block time
+	 */
+	public void setBackpressure(Backpressure backpressure, long maxBlock, TimeUnit unit) {
+		Preconditions.checkArgument(backpressure != null, "Argument backpressure cannot be null");
+		this.backpressure = backpressure;
+		this.maxBlockMs = unit.toMillis(maxBlock);
+	}
+
+	/**
+	 * @return the number of updates waiting to be sent
+	 */
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	/**
+	 * Updates the metadata of a HDFS file.
+	 * See {@link MetaWriter#updateHdfsFile(String, String, String, Collection, Map, Map, boolean)}.
+	 *
+	 * @return Returns a future which completes once the metadata is written.
+	 * @throws RejectedExecutionException if the queue is full
+	 */
+	public CompletableFuture<Void> updateHdfsFile(String filePath,
+												  String alias,
+												  String description,
+												  Collection<String> tags,
+												  Map<String, String> properties,
+												  Map<String, Map<String, Object>> customProperties,
+												  boolean override) {
+		return enqueue(MetadataUpdate.ofHdfs(EntityType.FILE, filePath, alias, description,
+											 tags, properties, customProperties, override));
+	}
+
+	/**
+	 * Updates the metadata of a HDFS directory.
+	 * See {@link MetaWriter#updateHdfsDirectory(String, String, String, Collection, Map, Map, boolean)}.
+	 *
+	 * @return Returns a future which completes once the metadata is written.
+	 * @throws RejectedExecutionException if the queue is full
+	 */
+	public CompletableFuture<Void> updateHdfsDirectory(String directoryPath,
+													   String alias,
+													   String description,
+													   Collection<String> tags,
+													   Map<String, String> properties,
+													   Map<String, Map<String, Object>> customProperties,
+													   boolean override) {
+		return enqueue(MetadataUpdate.ofHdfs(EntityType.DIRECTORY, directoryPath, alias, description,
+											 tags, properties, customProperties, override));
+	}
+
+	/**
+	 * Updates the metadata of a Hive database.
+	 * See {@link MetaWriter#updateHiveDatabase(String, String, String, Collection, Map, Map, boolean)}.
+	 *
+	 * @return Returns a future which completes once the metadata is written.
+	 * @throws RejectedExecutionException if the queue is full
+	 */
+	public CompletableFuture<Void> updateHiveDatabase(String databaseName,
+													  String alias,
+													  String description,
+													  Collection<String> tags,
+													  Map<String, String> properties,
+													  Map<String, Map<String, Object>> customProperties,
+													  boolean override) {
+		return updateHiveEntity(EntityType.DATABASE.name(), databaseName, null, null, alias,
+								description, tags, properties, customProperties, override);
+	}
+
+	/**
+	 * Updates the metadata of a Hive table.
+	 * See {@link MetaWriter#updateHiveTable(String, String, String, String, Collection, Map, Map, boolean)}.
+	 *
+	 * @return Returns a future which completes once the metadata is written.
+	 * @throws RejectedExecutionException if the queue is full
+	 */
+	public CompletableFuture<Void> updateHiveTable(String databaseName,
+												   String tableName,
+												   String alias,
+												   String description,
+												   Collection<String> tags,
+												   Map<String, String> properties,
+												   Map<String, Map<String, Object>> customProperties,
+												   boolean override) {
+		return updateHiveEntity(EntityType.TABLE.name(), databaseName, tableName, null, alias,
+								description, tags, properties, customProperties, override);
+	}
+
+	/**
+	 * Updates the metadata of a Hive view.
+	 * See {@link MetaWriter#updateHiveView(String, String, String, String, Collection, Map, Map, boolean)}.
+	 *
+	 * @return Returns a future which completes once the metadata is written.
+	 * @throws RejectedExecutionException if the queue is full
+	 */
+	public CompletableFuture<Void> updateHiveView(String databaseName,
+												  String viewName,
+												  String alias,
+												  String description,
+												  Collection<String> tags,
+												  Map<String, String> properties,
+												  Map<String, Map<String, Object>> customProperties,
+												  boolean override) {
+		return updateHiveEntity("VIEW", databaseName, viewName, null, alias,
+								description, tags, properties, customProperties, override);
+	}
+
+	/**
+	 * Updates the metadata of a Hive field.
+	 * See {@link MetaWriter#updateHiveField(String, String, String, String, String, Collection, Map, Map, boolean)}.
+	 *
+	 * @return Returns a future which completes once the metadata is written.
+	 * @throws RejectedExecutionException if the queue is full
+	 */
+	public CompletableFuture<Void> updateHiveField(String databaseName,
+												   String tableName,
+												   String fieldName,
+												   String alias,
+												   String description,
+												   Collection<String> tags,
+												   Map<String, String> properties,
+												   Map<String, Map<String, Object>> customProperties,
+												   boolean override) {
+		return updateHiveEntity(EntityType.FIELD.name(), databaseName, tableName, fieldName, alias,
+								description, tags, properties, customProperties, override);
+	}
+
+	private CompletableFuture<Void> updateHiveEntity(String type,
+													 String databaseName,
+													 String tableName,
+													 String fieldName,
+													 String alias,
+													 String description,
+													 Collection<String> tags,
+													 Map<String, String> properties,
+													 Map<String, Map<String, Object>> customProperties,
+													 boolean override) {
+		return enqueue(MetadataUpdate.ofHive(type, databaseName, tableName, fieldName, alias,
+											 description, tags, properties, customProperties, override));
+	}
+
+	/**
+	 * Requests the sender to write all updates enqueued so far without waiting for the linger time.
+	 *
+	 * @return Returns a future which completes once all updates enqueued before are written,
+	 * exceptionally if any update since the previous flush failed.
+	 * @throws RejectedExecutionException if the queue is full
+	 */
+	public CompletableFuture<Void> flush() {
+		return enqueue(null);
+	}
+
+	/**
+	 * Flushes pending updates and stops the sender, waiting until all updates are written.
+	 */
+	@Override
+	public void close() {
+		synchronized (lock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		CompletableFuture<Void> flushed = new CompletableFuture<Void>();
+		try {
+			putWhileSending(new Request(null, null, null, flushed));
+			putWhileSending(new Request(null, null, null, null));
+			sender.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (flushed.isCompletedExceptionally()) {
+			LOG.warn("Some updates failed before closing the writer.");
+		}
+	}
+
+	/**
+	 * Waits for free space in the queue as long as the sender runs.
+	 */
+	private void putWhileSending(Request request) throws InterruptedException {
+		while (sender.isAlive() && !queue.offer(request, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+			//The sender is draining the queue
+		}
+	}
+
+	/**
+	 * Prepares the entity of an update on the caller thread and enqueues it. The closed flag is
+	 * checked, and the update journaled, under the lock of {@link #close()}; the request is then 
+	 * offered outside of it, so producers waiting for free space do not wait for each other nor stall 
+	 * closing. A request which lands behind the end of the queue is failed by the sender when it stops, 
+	 * or here if the sender already stopped.
+	 *
+	 * @param update	Metadata update, null for a flush request
+	 */
+	private CompletableFuture<Void> enqueue(MetadataUpdate update) {
+		Request request;
+		if (update == null) {
+			request = new Request(null, null, null, new CompletableFuture<Void>());
+		} else {
+			Entity entity = writer.newEntity(update);
+			request = new Request(MetaWriter.keyOf(update.getType(), entity), update, entity, new CompletableFuture<Void>());
+		}
+		WriteJournal journal = writer.getJournal();
+		synchronized (lock) {
+			if (closed) {
+				throw new IllegalStateException("The writer is closed");
+			}
+			if (journal != null && update != null) {
+				journal.append(update);
+			}
+		}
+		boolean accepted;
+		if (Backpressure.FAIL.equals(backpressure)) {
+			accepted = queue.offer(request);
+		} else {
+			try {
+				accepted = queue.offer(request, maxBlockMs, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				accepted = false;
+			}
+		}
+		if (accepted && stopped && queue.remove(request)) {
+			//Enqueued after the sender failed what was left in the queue
+			if (journal != null && update != null) {
+				journal.markDone(Collections.singleton(update.getSeq()));
+			}
+			throw new IllegalStateException("The writer is closed");
+		}
+		if (!accepted) {
+			if (journal != null && update != null) {
+				//The caller is told the update failed, so it must not be replayed
+				journal.markDone(Collections.singleton(update.getSeq()));
+			}
+			if (Thread.currentThread().isInterrupted()) {
+				throw new RejectedExecutionException("Interrupted while waiting for free space in the queue");
+			}
+			throw new RejectedExecutionException(String.format(
+					"The queue of the writer is full (%d updates)", queue.size()));
+		}
+		return request.future;
+	}
+
+	/**
+	 * Drains the queue into batches until the end of the queue is reached. If the sender stops
+	 * otherwise, e.g. interrupted or on an error, the writer is closed and the futures of the
+	 * requests in flight and in the queue are failed.
+	 */
+	private void runSender() {
+		Throwable flushError = null; //First error since the previous flush
+		Throwable failure = null; //Error which stopped the sender
+		List<Request> batch = Collections.emptyList(); //Requests in flight
+		List<Request> flushes = Collections.emptyList();
+		boolean end = false;
+		try {
+			while (!end) {
+				Request first = queue.take();
+				batch = Lists.newArrayList();
+				flushes = Lists.newArrayList();
+				if (first.isEnd()) {
+					end = true;
+				} else if (first.isFlush()) {
+					flushes.add(first);
+				} else {
+					batch.add(first);
+					long deadline = System.currentTimeMillis() + lingerMs;
+					while (batch.size() < batchSize) {
+						long wait = deadline - System.currentTimeMillis();
+						Request next = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+						if (next == null) {
+							break;
+						} else if (next.isEnd()) {
+							end = true;
+							break;
+						} else if (next.isFlush()) {
+							flushes.add(next);
+							break;
+						}
+						batch.add(next);
+					}
+				}
+
+				Throwable error = send(batch);
+				if (error != null && flushError == null) {
+					flushError = error;
+				}
+				for (Request flush : flushes) {
+					if (flushError == null) {
+						flush.future.complete(null);
+					} else {
+						flush.future.completeExceptionally(flushError);
+					}
+					flushError = null;
+				}
+			}
+		} catch (InterruptedException e) {
+			LOG.warn("The sender of the writer was interrupted.");
+			Thread.currentThread().interrupt();
+			failure = e;
+		} catch (Throwable t) {
+			LOG.error("The sender of the writer failed.", t);
+			failure = t;
+		}
+
+		synchronized (lock) {
+			closed = true;
+		}
+		//Requests offered from now on are failed by their producer unless polled below
+		stopped = true;
+		//Fails the requests in flight and whatever is left, including requests behind the end of the queue;
+		//completed futures are left as they are
+		IllegalStateException error = new IllegalStateException("The writer is closed", failure);
+		for (Request request : Iterables.concat(batch, flushes)) {
+			request.future.completeExceptionally(error);
+		}
+		Request request;
+		while ((request = queue.poll()) != null) {
+			if (request.future != null) {
+				request.future.completeExceptionally(error);
+			}
+		}
+	}
+
+	/**
+	 * Writes a batch and completes the futures of its updates, each with the outcome of its entity.
+	 * Updates of the same entity are merged, so each entity is written once.
+	 *
+	 * @return Returns the error of the batch, or null if all updates were written.
+	 */
+	private Throwable send(List<Request> batch) {
+		if (batch.isEmpty()) {
+			return null;
+		}
+		Map<EntityKey, Request> merged = Maps.newLinkedHashMap();
+		for (Request request : batch) {
+			Request pending = merged.get(request.key);
+			if (pending == null) {
+				merged.put(request.key, request);
+			} else {
+				MetadataUpdate update = pending.update.merge(request.update);
+				merged.put(request.key, new Request(request.key, update, null, null));
+			}
+		}
+		try {
+			ListMultimap<EntityKey, Entity> entities = LinkedListMultimap.create();
+			Map<EntityKey, MetadataUpdate> updates = Maps.newHashMap();
+			for (Request request : merged.values()) {
+				entities.put(request.key, request.entity != null ? request.entity : writer.newEntity(request.update));
+				updates.put(request.key, request.update);
+			}
+			if (merged.size() < batch.size()) {
+				LOG.debug(String.format("Merged %d updates into %d entities.", batch.size(), merged.size()));
+			}
+			WriteReport report = writer.write(entities, updates);
+			WriteException batchError = report.hasErrors() ? new WriteException(report) : null;
+			List<Long> done = Lists.newArrayList();
+			for (Request request : batch) {
+				String error = report.getError(request.key);
+				if (!report.getFailed().containsKey(request.key)) {
+					//Written, or not found in Navigator, like MetaWriter without deferral
+					done.add(request.update.getSeq());
+				}
+				if (error == null) {
+					request.future.complete(null);
+				} else {
+					request.future.completeExceptionally(new IllegalStateException(error, batchError));
+				}
+			}
+			WriteJournal journal = writer.getJournal();
+			if (journal != null) {
+				//Failed updates stay in the journal to be replayed
+				journal.markDone(done);
+			}
+			return batchError;
+		} catch (RuntimeException e) {
+			LOG.error(String.format("Failed to write a batch of %d updates.", batch.size()), e);
+			for (Request request : batch) {
+				request.future.completeExceptionally(e);
+			}
+			return e;
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+package com.cloudera.nav.ext.client.writer;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The new metadata of one Hive column, for {@link MetaWriter#updateHiveTableSchema(String, String, Map)}.
+ */
+public class ColumnMetadata {
+
+	private String alias; //Name of the column shown in Navigator
+	private String description; //Description of the column shown in Navigator
+	private Collection<String> tags; //User-defined tags (custom metadata)
+	private Map<String, String> properties; //User-defined properties (custom metadata)
+	private Map<String, Map<String, Object>> customProperties; //Managed custom properties (managed metadata)
+	private boolean override; //Whether to override existing tags, custom properties and managed custom properties
+
+	public ColumnMetadata() {
+	}
+
+	public ColumnMetadata(String alias, String description) {
+		this.alias = alias;
+		this.description = description;
+	}
+
+	public ColumnMetadata(String alias,
+						  String description,
+						  Collection<String> tags,
+						  Map<String, String> properties,
+						  Map<String, Map<String, Object>> customProperties,
+						  boolean override) {
+		this.alias = alias;
+		this.description = description;
+		this.tags = tags;
+		this.properties = properties;
+		this.customProperties = customProperties;
+		this.override = override;
+	}
+
+	public String getAlias() {
+		return alias;
+	}
+
+	public void setAlias(String alias) {
+		this.alias = alias;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public void setDescription(String description) {
+		this.description = description;
+	}
+
+	public Collection<String> getTags() {
+		return tags;
+	}
+
+	public void setTags(Collection<String> tags) {
+		this.tags = tags;
+	}
+
+	public Map<String, String> getProperties() {
+		return properties;
+	}
+
+	public void setProperties(Map<String, String> properties) {
+		this.properties = properties;
+	}
+
+	public Map<String, Map<String, Object>> getCustomProperties() {
+		return customProperties;
+	}
+
+	public void setCustomProperties(Map<String, Map<String, Object>> customProperties) {
+		this.customProperties = customProperties;
+	}
+
+	public boolean isOverride() {
+		return override;
+	}
+
+	public void setOverride(boolean override) {
+		this.override = override;
+	}
+
+}
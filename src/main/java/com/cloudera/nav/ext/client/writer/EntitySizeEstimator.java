@@ -0,0 +1,80 @@
+package com.cloudera.nav.ext.client.writer;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.cloudera.nav.ext.model.entities.CustomEntity;
+import com.cloudera.nav.sdk.model.entities.Entity;
+
+/**
+ * Estimates the size in bytes of the JSON document written to Navigator for an entity.
+ * The estimate counts the UTF-8 length of all user-modifiable values plus a fixed
+ * overhead for field names and system attributes, and is only meant to bound request sizes.
+ */
+final class EntitySizeEstimator {
+
+	static final int ENTITY_OVERHEAD_BYTES = 512; //Field names, source type, entity type, natural key, ...
+	static final int VALUE_OVERHEAD_BYTES = 8; //Quotes, separators and key names of one value
+
+	private EntitySizeEstimator() {
+	}
+
+	/**
+	 * @param entity	Entity to be written
+	 * @return Returns the estimated size of the serialized entity in bytes.
+	 */
+	static long estimate(Entity entity) {
+		long size = ENTITY_OVERHEAD_BYTES;
+		size += sizeOf(entity.getIdentity());
+		size += sizeOf(entity.getSourceId());
+		size += sizeOf(entity.getAlias());
+		size += sizeOf(entity.getDescription());
+		size += sizeOf(entity.getTags());
+		size += sizeOf(entity.getProperties());
+		if (entity instanceof CustomEntity) {
+			size += sizeOf(((CustomEntity) entity).getCustomProperties());
+		}
+		return size;
+	}
+
+	private static long sizeOf(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		long size = VALUE_OVERHEAD_BYTES;
+		if (value instanceof Map) {
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				size += sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+			}
+		} else if (value instanceof Collection) {
+			for (Object element : (Collection<?>) value) {
+				size += sizeOf(element);
+			}
+		} else {
+			size += utf8Length(String.valueOf(value));
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes of the UTF-8 encoding of the given string, without encoding it
+	 */
+	static int utf8Length(CharSequence str) {
+		int length = 0;
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c)) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+}
@@ -0,0 +1,235 @@
+package com.cloudera.nav.ext.client.writer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.nav.ext.model.EntityKey;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * A bounded cache of entity identities keyed by the natural key of the entity
+ * (source, entity type, database/table/column or file system path).
+ * Entries are evicted in least-recently-used order when the cache is full and
+ * expire after the configured time to live.
+ * Entities not found in Navigator are remembered for a short time as well, so repeated
+ * writes of an entity not ingested yet do not query Navigator again for each write.
+ * An optional {@link IdentityIndex} backs the cache on disk: identities missing from memory are
+ * read from the index, and resolved identities are written to it, so processes sharing the index
+ * file share their resolved identities.
+ */
+public class IdentityCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(IdentityCache.class);
+
+	public static final long DEFAULT_MAX_SIZE = 100000L;
+	public static final long DEFAULT_TTL_HOURS = 24L;
+	public static final long DEFAULT_NOT_FOUND_TTL_SECONDS = 60L;
+
+	/**
+	 * When the time to live of an entry starts counting.
+	 */
+	public enum Expiration {
+		AFTER_WRITE,	//Entries expire a fixed time after they were resolved
+		AFTER_ACCESS	//Entries expire a fixed time after they were last read or written
+	}
+
+	private final Cache<EntityKey, String> cache;
+	private final Cache<EntityKey, Boolean> notFound; //Entities recently not found in Navigator
+	private final long ttlMillis; //Time to live of an entry, 0 for no expiration
+	private IdentityIndex index; //Identities on disk, null if none
+
+	/**
+	 * Constructs an identity cache with the default size and time to live.
+	 */
+	public IdentityCache() {
+		this(DEFAULT_MAX_SIZE, DEFAULT_TTL_HOURS, TimeUnit.HOURS, Expiration.AFTER_WRITE);
+	}
+
+	/**
+	 * Constructs an identity cache.
+	 *
+	 * @param maxSize		Maximum number of cached identities, 0 disables caching
+	 * @param ttl			Time to live of an entry, 0 or negative for no expiration
+	 * @param unit			Time unit of the time to live
+	 * @param expiration	Whether the time to live is counted from the last write or the last access
+	 */
+	public IdentityCache(long maxSize, long ttl, TimeUnit unit, Expiration expiration) {
+		this(maxSize, ttl, unit, expiration, DEFAULT_NOT_FOUND_TTL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Constructs an identity cache.
+	 *
+	 * @param maxSize		Maximum number of cached identities, 0 disables caching
+	 * @param ttl			Time to live of an entry, 0 or negative for no expiration
+	 * @param unit			Time unit of the time to live
+	 * @param expiration	Whether the time to live is counted from the last write or the last access
+	 * @param notFoundTtl	Time an entity not found in Navigator is remembered, 0 or negative to not remember it
+	 * @param notFoundUnit	Time unit of notFoundTtl
+	 */
+	public IdentityCache(long maxSize, long ttl, TimeUnit unit, Expiration expiration, 
+						 long notFoundTtl, TimeUnit notFoundUnit) {
+		Preconditions.checkArgument(maxSize >= 0, "Argument maxSize cannot be negative");
+		Preconditions.checkArgument(unit != null, "Argument unit cannot be null");
+		Preconditions.checkArgument(expiration != null, "Argument expiration cannot be null");
+		Preconditions.checkArgument(notFoundUnit != null, "Argument notFoundUnit cannot be null");
+
+		CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.recordStats();
+		if (ttl > 0) {
+			if (Expiration.AFTER_ACCESS.equals(expiration)) {
+				builder.expireAfterAccess(ttl, unit);
+			} else {
+				builder.expireAfterWrite(ttl, unit);
+			}
+		}
+		this.cache = builder.build();
+		this.ttlMillis = ttl > 0 ? unit.toMillis(ttl) : 0;
+		this.notFound = CacheBuilder.newBuilder()
+				.maximumSize(notFoundTtl > 0 ? maxSize : 0)
+				.expireAfterWrite(Math.max(notFoundTtl, 0), notFoundUnit)
+				.build();
+	}
+
+	/**
+	 * Gets the cached identity of an entity.
+	 *
+	 * @param key	Natural key of the entity
+	 * @return Returns the identity, or null if it is not cached.
+	 */
+	public String get(EntityKey key) {
+		String identity = cache.getIfPresent(key);
+		if (identity != null) {
+			LOG.debug(String.format("Identity cache hit: %s", key));
+		} else if (index != null) {
+			identity = index.get(key, ttlMillis);
+			if (identity != null) {
+				LOG.debug(String.format("Identity index hit: %s", key));
+				cache.put(key, identity);
+			}
+		}
+		return identity;
+	}
+
+	/**
+	 * Caches the identity of an entity.
+	 *
+	 * @param key		Natural key of the entity
+	 * @param identity	Navigator identity of the entity
+	 */
+	public void put(EntityKey key, String identity) {
+		Preconditions.checkArgument(key != null, "Argument key cannot be null");
+		Preconditions.checkArgument(identity != null, "Argument identity cannot be null");
+		cache.put(key, identity);
+		notFound.invalidate(key);
+		if (index != null) {
+			try {
+				index.put(key, identity);
+			} catch (IOException e) {
+				LOG.warn(String.format("Failed to write the identity of %s to %s", key, index), e);
+			}
+		}
+	}
+
+	/**
+	 * Remembers that an entity was not found in Navigator, for the time to live of not-found entries.
+	 *
+	 * @param key	Natural key of the entity
+	 */
+	public void putNotFound(EntityKey key) {
+		Preconditions.checkArgument(key != null, "Argument key cannot be null");
+		notFound.put(key, Boolean.TRUE);
+	}
+
+	/**
+	 * @param key	Natural key of an entity
+	 * @return Returns whether the entity was recently not found in Navigator, so looking it up again is pointless.
+	 */
+	public boolean isNotFound(EntityKey key) {
+		if (notFound.getIfPresent(key) != null) {
+			LOG.debug(String.format("Identity cache not-found hit: %s", key));
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Discards the cached identity of an entity, e.g. after the entity was recreated,
+	 * or the memory of the entity not being found, e.g. after it was ingested.
+	 *
+	 * @param key	Natural key of the entity
+	 */
+	public void invalidate(EntityKey key) {
+		cache.invalidate(key);
+		notFound.invalidate(key);
+		if (index != null) {
+			try {
+				index.invalidate(key);
+			} catch (IOException e) {
+				LOG.warn(String.format("Failed to discard the identity of %s from %s", key, index), e);
+			}
+		}
+	}
+
+	/**
+	 * Discards all cached identities and not-found entries, in memory only: 
+	 * the identities of the index are kept.
+	 */
+	public void invalidateAll() {
+		cache.invalidateAll();
+		notFound.invalidateAll();
+	}
+
+	public IdentityIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Sets the index backing the cache on disk. Identities read from the index are subject to the
+	 * time to live of the cache, counted from their last verification.
+	 *
+	 * @param index	Identity index, null to keep identities in memory only
+	 */
+	public void setIndex(IdentityIndex index) {
+		this.index = index;
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	public long getNotFoundSize() {
+		return notFound.size();
+	}
+
+	public long getHitCount() {
+		return cache.stats().hitCount();
+	}
+
+	public long getMissCount() {
+		return cache.stats().missCount();
+	}
+
+	public long getEvictionCount() {
+		return cache.stats().evictionCount();
+	}
+
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	@Override
+	public String toString() {
+		CacheStats stats = cache.stats();
+		return String.format("IdentityCache[size=%d, notFound=%d, hits=%d, misses=%d, evictions=%d]",
+							 cache.size(), notFound.size(), stats.hitCount(), stats.missCount(), stats.evictionCount());
+	}
+
+}
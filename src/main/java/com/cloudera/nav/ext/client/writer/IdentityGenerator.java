@@ -0,0 +1,43 @@
+package com.cloudera.nav.ext.client.writer;
+
+import java.util.List;
+
+import com.cloudera.nav.sdk.model.MD5IdGenerator;
+import com.cloudera.nav.sdk.model.entities.Entity;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Computes the Navigator identity of an entity locally from its id attributes, without a lookup.
+ */
+public interface IdentityGenerator {
+
+	/**
+	 * The identity the SDK generates for an entity: {@link MD5IdGenerator#generateIdentity(String...)}
+	 * of the source id followed by the values of {@link Entity#getIdAttrsMap()} (fileSystemPath for
+	 * HDFS entities; database, table and column name for Hive entities). Computed identities are
+	 * only written unverified once Navigator confirmed enough of them,
+	 * see {@link MetaWriter#setLocalIdentity(IdentityGenerator, double)}.
+	 */
+	IdentityGenerator MD5 = new IdentityGenerator() {
+		@Override
+		public String generate(Entity entity) {
+			Preconditions.checkArgument(entity.getSourceId() != null, "Cannot generate the identity of %s without source", entity);
+			List<String> components = Lists.newArrayList(entity.getSourceId());
+			components.addAll(entity.getIdAttrsMap().values());
+			return MD5IdGenerator.generateIdentity(components.toArray(new String[components.size()]));
+		}
+
+		@Override
+		public String toString() {
+			return "MD5";
+		}
+	};
+
+	/**
+	 * @param entity	Entity bound to a source, with its id attributes
+	 * @return Returns the identity of the entity.
+	 */
+	String generate(Entity entity);
+
+}
@@ -0,0 +1,463 @@
+package com.cloudera.nav.ext.client.writer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.nav.ext.model.EntityKey;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * A persistent index of entity identities in a memory-mapped file, shared by all processes
+ * which open the same file, so a new process starts with the identities resolved by the previous
+ * ones without loading them on the heap.
+ * <p>
+ * The file is an open-addressing hash table of fixed-size slots. A slot holds a 128-bit hash of
+ * the natural key (the source id, entity type and id attributes of the entity), the identity
+ * and the time it was last verified against Navigator. A key is searched in a window of
+ * {@link #MAX_PROBES} slots; when the window is full, the slot verified longest ago is reused,
+ * so the index never grows and behaves like a cache.
+ * <p>
+ * Writers, in any process, are serialized by a lock on the header of the file. Readers take no
+ * file lock: each slot carries a sequence number which a writer makes odd while it changes the slot,
+ * and a reader retries when the number changed during its read. The accesses of a mapped buffer are
+ * not ordered, so the sequence number alone cannot tell a torn read: each slot also carries a
+ * checksum of its content, which the reader verifies on the bytes it read.
+ * <p>
+ * File locks are held by the whole process, so an index is opened with {@link #open(File, int)},
+ * which shares one instance per file in a JVM. The file is unmapped when its last holder closes it.
+ */
+public class IdentityIndex implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(IdentityIndex.class);
+
+	public static final int DEFAULT_CAPACITY = 1 << 18;
+	public static final int MAX_PROBES = 16;
+	public static final int MAX_IDENTITY_LENGTH = 92;
+
+	private static final int MAGIC = 0x4E415649;
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 64;
+	private static final int SLOT_SIZE = 128;
+	private static final int MAX_READ_ATTEMPTS = 8;
+
+	//Header layout
+	private static final int MAGIC_OFFSET = 0;
+	private static final int VERSION_OFFSET = 4;
+	private static final int CAPACITY_OFFSET = 8;
+	private static final int SLOT_SIZE_OFFSET = 12;
+	private static final int COUNT_OFFSET = 16;
+
+	//Slot layout
+	private static final int SEQ = 0; //Sequence number, odd while the slot is written
+	private static final int LENGTH = 4; //Length of the identity, 0 if the slot is empty or invalidated
+	private static final int HASH_HIGH = 8;
+	private static final int HASH_LOW = 16;
+	private static final int VERIFIED_AT = 24;
+	private static final int CHECKSUM = 32; //CRC32 of the length, hash, verification time and identity
+	private static final int IDENTITY = 36;
+
+	private static final HashFunction HASH = Hashing.murmur3_128();
+
+	private static final Map<String, IdentityIndex> OPEN = Maps.newHashMap(); //Open indexes by canonical path
+
+	private final File file;
+	private final String path; //Canonical path of the file
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int capacity; //Number of slots, a power of 2
+	private final ReadWriteLock mapping = new ReentrantReadWriteLock(); //Read to access the buffer, write to unmap it
+	private boolean closed; //Guarded by the mapping lock
+	private int references; //Holders of this index, guarded by OPEN
+
+	/**
+	 * Opens the index file, creating it with the default capacity if it does not exist.
+	 *
+	 * @param file	Index file
+	 * @see #open(File, int)
+	 */
+	public static IdentityIndex open(File file) throws IOException {
+		return open(file, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Opens the index file, creating it if it does not exist. An index already open in this JVM
+	 * is shared: each call must be matched by a call to {@link #close()}.
+	 *
+	 * @param file		Index file
+	 * @param capacity	Number of slots of a new file, rounded up to a power of 2;
+	 * 					an existing file keeps its capacity
+	 * @return Returns the index of the file.
+	 */
+	public static IdentityIndex open(File file, int capacity) throws IOException {
+		Preconditions.checkArgument(file != null, "Argument file cannot be null");
+		Preconditions.checkArgument(capacity >= MAX_PROBES, "Argument capacity must be at least " + MAX_PROBES);
+		String path = file.getCanonicalPath();
+		synchronized (OPEN) {
+			IdentityIndex index = OPEN.get(path);
+			if (index == null) {
+				index = new IdentityIndex(file, path, capacity);
+				OPEN.put(path, index);
+			}
+			index.references++;
+			return index;
+		}
+	}
+
+	private IdentityIndex(File file, String path, int capacity) throws IOException {
+		this.file = file;
+		this.path = path;
+		if (file.getAbsoluteFile().getParentFile() != null) {
+			Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+		}
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+										StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			this.capacity = initialize(Integer.highestOneBit(capacity - 1) << 1);
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) this.capacity * SLOT_SIZE);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		LOG.info(String.format("Opened %s", this));
+	}
+
+	/**
+	 * Writes the header of a new file, or validates the header of an existing one.
+	 *
+	 * @return Returns the capacity of the file.
+	 */
+	private int initialize(int capacity) throws IOException {
+		try (FileLock lock = channel.lock(0, HEADER_SIZE, false)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			if (channel.size() < HEADER_SIZE) {
+				header.putInt(MAGIC_OFFSET, MAGIC);
+				header.putInt(VERSION_OFFSET, VERSION);
+				header.putInt(CAPACITY_OFFSET, capacity);
+				header.putInt(SLOT_SIZE_OFFSET, SLOT_SIZE);
+				//Extends the file, sparse where supported, before publishing the header
+				channel.write(ByteBuffer.allocate(1), HEADER_SIZE + (long) capacity * SLOT_SIZE - 1);
+				channel.write(header, 0);
+				channel.force(true);
+				return capacity;
+			}
+			channel.read(header, 0);
+			if (header.getInt(MAGIC_OFFSET) != MAGIC || header.getInt(VERSION_OFFSET) != VERSION
+					|| header.getInt(SLOT_SIZE_OFFSET) != SLOT_SIZE) {
+				throw new IOException("Not an identity index file: " + file);
+			}
+			return header.getInt(CAPACITY_OFFSET);
+		}
+	}
+
+	/**
+	 * Gets the identity of an entity.
+	 *
+	 * @param key		Natural key of the entity
+	 * @param maxAgeMs	Maximum time since the identity was last verified, 0 or negative for any
+	 * @return Returns the identity, or null if it is not indexed or was verified too long ago.
+	 */
+	public String get(EntityKey key, long maxAgeMs) {
+		HashCode hash = hash(key);
+		long high = high(hash);
+		long low = low(hash);
+		int home = home(high);
+		mapping.readLock().lock();
+		try {
+			checkOpen();
+			for (int probe = 0; probe < MAX_PROBES; probe++) {
+				int slot = offset(home + probe);
+				for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+					int seq = buffer.getInt(slot + SEQ);
+					if ((seq & 1) != 0) {
+						Thread.yield();
+						continue;
+					}
+					byte[] content = new byte[CHECKSUM - LENGTH];
+					for (int i = 0; i < content.length; i++) {
+						content[i] = buffer.get(slot + LENGTH + i);
+					}
+					int checksum = buffer.getInt(slot + CHECKSUM);
+					ByteBuffer fields = ByteBuffer.wrap(content);
+					int length = fields.getInt(0);
+					long slotHigh = fields.getLong(HASH_HIGH - LENGTH);
+					long slotLow = fields.getLong(HASH_LOW - LENGTH);
+					long verifiedAt = fields.getLong(VERIFIED_AT - LENGTH);
+					if (slotHigh == 0 && slotLow == 0 && checksum == 0) {
+						//Keys are put in the first free slot of their window, none lies beyond a never used slot
+						return null;
+					}
+					if (length < 0 || length > MAX_IDENTITY_LENGTH) {
+						continue;
+					}
+					byte[] identity = new byte[length];
+					for (int i = 0; i < length; i++) {
+						identity[i] = buffer.get(slot + IDENTITY + i);
+					}
+					if (buffer.getInt(slot + SEQ) != seq || checksum(content, identity) != checksum) {
+						//Torn read: the slot changed, or the reads were not ordered with the writes
+						continue;
+					}
+					if (slotHigh != high || slotLow != low || length == 0) {
+						break;
+					}
+					if (maxAgeMs > 0 && System.currentTimeMillis() - verifiedAt > maxAgeMs) {
+						return null;
+					}
+					return new String(identity, StandardCharsets.UTF_8);
+				}
+			}
+			return null;
+		} finally {
+			mapping.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Indexes the identity of an entity, verified now.
+	 *
+	 * @param key		Natural key of the entity
+	 * @param identity	Navigator identity of the entity
+	 */
+	public void put(EntityKey key, String identity) throws IOException {
+		Preconditions.checkArgument(!Strings.isNullOrEmpty(identity), "Argument identity cannot be null");
+		byte[] bytes = identity.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_IDENTITY_LENGTH) {
+			LOG.debug(String.format("Does not index the identity of %s, longer than %d bytes: %s",
+									key, MAX_IDENTITY_LENGTH, identity));
+			return;
+		}
+		write(key, bytes, System.currentTimeMillis());
+	}
+
+	/**
+	 * Discards the identity of an entity.
+	 *
+	 * @param key	Natural key of the entity
+	 */
+	public void invalidate(EntityKey key) throws IOException {
+		write(key, null, 0);
+	}
+
+	/**
+	 * Writes or clears the slot of a key under the writer lock.
+	 */
+	private synchronized void write(EntityKey key, byte[] identity, long verifiedAt) throws IOException {
+		HashCode hash = hash(key);
+		long high = high(hash);
+		long low = low(hash);
+		int home = home(high);
+		mapping.readLock().lock();
+		try {
+			checkOpen();
+			try (FileLock lock = channel.lock(0, HEADER_SIZE, false)) {
+				int target = -1;
+				int empty = -1;
+				boolean unused = false;
+				int oldest = -1;
+				long oldestVerifiedAt = Long.MAX_VALUE;
+				for (int probe = 0; probe < MAX_PROBES && target < 0; probe++) {
+					int slot = offset(home + probe);
+					boolean used = buffer.getLong(slot + HASH_HIGH) != 0 || buffer.getLong(slot + HASH_LOW) != 0;
+					if (used && buffer.getLong(slot + HASH_HIGH) == high && buffer.getLong(slot + HASH_LOW) == low) {
+						target = slot;
+					} else if (!used || buffer.getInt(slot + LENGTH) == 0) {
+						if (empty < 0) {
+							empty = slot;
+							unused = !used;
+						}
+					} else if (buffer.getLong(slot + VERIFIED_AT) < oldestVerifiedAt) {
+						oldest = slot;
+						oldestVerifiedAt = buffer.getLong(slot + VERIFIED_AT);
+					}
+				}
+				if (identity == null) {
+					if (target >= 0) {
+						writeSlot(target, high, low, null, 0);
+					}
+					return;
+				}
+				if (target < 0) {
+					target = empty >= 0 ? empty : oldest;
+					if (unused) {
+						buffer.putLong(COUNT_OFFSET, buffer.getLong(COUNT_OFFSET) + 1);
+					}
+				}
+				writeSlot(target, high, low, identity, verifiedAt);
+			}
+		} finally {
+			mapping.readLock().unlock();
+		}
+	}
+
+	private void writeSlot(int slot, long high, long low, byte[] identity, long verifiedAt) {
+		if (identity == null) {
+			identity = new byte[0];
+		}
+		ByteBuffer content = ByteBuffer.allocate(CHECKSUM - LENGTH);
+		content.putInt(0, identity.length);
+		content.putLong(HASH_HIGH - LENGTH, high);
+		content.putLong(HASH_LOW - LENGTH, low);
+		content.putLong(VERIFIED_AT - LENGTH, verifiedAt);
+
+		int seq = buffer.getInt(slot + SEQ);
+		buffer.putInt(slot + SEQ, seq + 1);
+		for (int i = 0; i < content.capacity(); i++) {
+			buffer.put(slot + LENGTH + i, content.get(i));
+		}
+		for (int i = 0; i < identity.length; i++) {
+			buffer.put(slot + IDENTITY + i, identity[i]);
+		}
+		buffer.putInt(slot + CHECKSUM, checksum(content.array(), identity));
+		buffer.putInt(slot + SEQ, seq + 2);
+	}
+
+	private static int checksum(byte[] content, byte[] identity) {
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		crc.update(identity);
+		return (int) crc.getValue();
+	}
+
+	private static HashCode hash(EntityKey key) {
+		String natural = Strings.nullToEmpty(key.getSourceId()) + '\u0000' + key.getEntityType() + '\u0000'
+				+ Joiner.on('\u0000').join(key.getNames());
+		return HASH.hashString(natural, StandardCharsets.UTF_8);
+	}
+
+	private static long high(HashCode hash) {
+		long high = ByteBuffer.wrap(hash.asBytes()).getLong(0);
+		return high == 0 ? 1 : high; //A zero hash marks an empty slot
+	}
+
+	private static long low(HashCode hash) {
+		return ByteBuffer.wrap(hash.asBytes()).getLong(8);
+	}
+
+	private int home(long high) {
+		return (int) (high ^ (high >>> 32)) & (capacity - 1);
+	}
+
+	private int offset(int index) {
+		return HEADER_SIZE + (index & (capacity - 1)) * SLOT_SIZE;
+	}
+
+	/**
+	 * @return the number of slots ever filled, which includes invalidated entries
+	 */
+	public long getUsedSlots() {
+		mapping.readLock().lock();
+		try {
+			checkOpen();
+			return buffer.getLong(COUNT_OFFSET);
+		} finally {
+			mapping.readLock().unlock();
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Forces the changes of the index to the disk. Changes reach the file, and the other processes,
+	 * without it; forcing only matters for a crash of the operating system.
+	 */
+	public void force() {
+		mapping.readLock().lock();
+		try {
+			checkOpen();
+			buffer.force();
+		} finally {
+			mapping.readLock().unlock();
+		}
+	}
+
+	private void checkOpen() {
+		Preconditions.checkState(!closed, "The identity index %s is closed", file);
+	}
+
+	/**
+	 * Releases this holder of the index. The last holder unmaps and closes the file, once the
+	 * reads and writes in progress are done.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (OPEN) {
+			if (references == 0 || --references > 0) {
+				return;
+			}
+			OPEN.remove(path);
+			mapping.writeLock().lock();
+			try {
+				closed = true;
+				unmap(buffer);
+			} finally {
+				mapping.writeLock().unlock();
+				channel.close();
+			}
+		}
+		LOG.info(String.format("Closed the identity index %s", file));
+	}
+
+	/**
+	 * Unmaps a buffer now, instead of when it is garbage collected, so the file can be deleted or
+	 * opened again without holding two mappings. The buffer must not be accessed any more.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			//Java 9 and later
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+		} catch (NoSuchMethodException e) {
+			//Java 8
+			try {
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			} catch (ReflectiveOperationException | RuntimeException e2) {
+				LOG.warn("Cannot unmap the identity index, it is released when garbage collected: " + e2);
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOG.warn("Cannot unmap the identity index, it is released when garbage collected: " + e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("IdentityIndex[file=%s, capacity=%d]", file, capacity);
+	}
+
+}
@@ -1,7 +1,19 @@
 package com.cloudera.nav.ext.client.writer;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.MapUtils;
@@ -9,20 +21,30 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudera.nav.ext.client.NavigatorContext;
+import com.cloudera.nav.ext.client.SourceResolver;
+import com.cloudera.nav.ext.client.extraction.KnownEntityFilter;
 import com.cloudera.nav.ext.client.extraction.MetaExtractor;
+import com.cloudera.nav.ext.model.EntityKey;
 import com.cloudera.nav.ext.model.entities.CustomEntity;
 import com.cloudera.nav.ext.model.entities.CustomHdfsEntity;
 import com.cloudera.nav.ext.model.entities.CustomHiveColumn;
 import com.cloudera.nav.ext.model.entities.CustomHiveDatabase;
 import com.cloudera.nav.ext.model.entities.CustomHiveTable;
-import com.cloudera.nav.sdk.client.NavApiCient;
-import com.cloudera.nav.sdk.client.NavigatorPlugin;
 import com.cloudera.nav.sdk.client.writer.ResultSet;
 import com.cloudera.nav.sdk.model.Source;
-import com.cloudera.nav.sdk.model.SourceType;
 import com.cloudera.nav.sdk.model.entities.Entity;
 import com.cloudera.nav.sdk.model.entities.EntityType;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Updates user modifiable properties of an entity (a.k.a. business metadata).
@@ -33,24 +55,335 @@ public class MetaWriter {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(MetaWriter.class);
 	
-	private NavigatorPlugin plugin; //Plugin used to write metadata to Navigator
-    private NavApiCient client; //Client to communicate with the Navigator REST API
+	public static final int DEFAULT_MAX_REQUEST_ENTITIES = 1000;
+	public static final long DEFAULT_MAX_REQUEST_BYTES = 8L * 1024 * 1024;
+	public static final int DEFAULT_AUTO_FLUSH_ENTITIES = 10000;
+	public static final long DEFAULT_AUTO_FLUSH_BYTES = 64L * 1024 * 1024;
+	public static final int DEFAULT_MAX_RETRIES = 3;
+	public static final long DEFAULT_INITIAL_BACKOFF_MS = 500L;
+	public static final long DEFAULT_MAX_BACKOFF_MS = 30000L;
+	public static final int TRUSTED_LOCAL_IDENTITIES = 1000;
+	
+	private NavigatorContext context; //Shared Navigator plugin and client
+	private SourceResolver sourceResolver; //Memoised HDFS and Hive sources
+    
+    private ListMultimap<EntityKey, Entity> entities; //Entity batch by natural key
+    private Map<EntityKey, MetadataUpdate> pendingUpdates = Maps.newHashMap(); //Merged update of each entity in the batch
+    private IdentityCache identityCache; //Resolved entity identities
+    private int lookupBatchSize = MetaExtractor.DEFAULT_LOOKUP_BATCH_SIZE; //Entities resolved per query
+    private long pendingBytes; //Estimated size of the entity batch
+    
+    private int maxRequestEntities = DEFAULT_MAX_REQUEST_ENTITIES; //Entities per write request
+    private long maxRequestBytes = DEFAULT_MAX_REQUEST_BYTES; //Estimated bytes per write request
+    private int autoFlushEntities = DEFAULT_AUTO_FLUSH_ENTITIES; //Batch size which triggers a flush
+    private long autoFlushBytes = DEFAULT_AUTO_FLUSH_BYTES; //Estimated batch bytes which trigger a flush
+    private WriteReport autoFlushReport = new WriteReport(); //Outcome of the auto flushes since the last flush
+    private int parallelism = 1; //Write requests sent concurrently
+    private int maxRetries = DEFAULT_MAX_RETRIES; //Retries of a failed write request
+    private long initialBackoffMs = DEFAULT_INITIAL_BACKOFF_MS; //Delay before the first retry
+    private long maxBackoffMs = DEFAULT_MAX_BACKOFF_MS; //Maximum delay between retries
+    private boolean diffMode; //Whether to write only metadata that differs from Navigator
+    private IdentityGenerator identityGenerator; //Computes identities locally, null to look them up
+    private double verificationRate; //Share of locally computed identities verified against Navigator
+    private long confirmedIdentities; //Locally computed identities Navigator confirmed since the generator was set
+    private KnownEntityFilter knownEntityFilter; //Entities registered in Navigator, null to look up every entity
     
-    private Collection<Entity> entities; //Entity batch
+    private WriteJournal journal; //Durable journal of updates, null if disabled
+    private ListMultimap<EntityKey, Long> pendingSeqs = LinkedListMultimap.create(); //Journal sequence numbers of the batch
+    
+    private boolean deferMissing; //Whether to keep the updates of entities not found in Navigator for a later retry
+    private Map<EntityKey, MetadataUpdate> deferred = Maps.newLinkedHashMap(); //Updates of entities not found, by natural key
+    private ListMultimap<EntityKey, Long> deferredSeqs = LinkedListMultimap.create(); //Journal sequence numbers of the deferred updates
     
     /**
 	 * Constructs a metadata writer.
 	 */
 	public MetaWriter() {
-		this.plugin = NavigatorPlugin.fromConfigFile("navigator.conf");
-		this.client = this.plugin.getClient();
-		this.entities = Sets.newHashSet();
+		this(NavigatorContext.getDefault(), new IdentityCache());
+	}
+	
+	/**
+	 * Constructs a metadata writer which resolves entity identities through the given cache.
+	 * 
+	 * @param identityCache	Cache of entity identities, may be shared by several writers
+	 */
+	public MetaWriter(IdentityCache identityCache) {
+		this(NavigatorContext.getDefault(), identityCache);
+	}
+	
+	/**
+	 * Constructs a metadata writer on the given Navigator context.
+	 * 
+	 * @param context		Navigator context
+	 * @param identityCache	Cache of entity identities, may be shared by several writers
+	 */
+	public MetaWriter(NavigatorContext context, IdentityCache identityCache) {
+		this.context = context;
+		this.sourceResolver = new SourceResolver(context);
+		this.entities = LinkedListMultimap.create();
+		this.identityCache = identityCache;
+	}
+	
+	/**
+	 * @return the cache of entity identities used by this writer
+	 */
+	public IdentityCache getIdentityCache() {
+		return identityCache;
+	}
+	
+	/**
+	 * @return the resolver of HDFS and Hive sources used by this writer, 
+	 * e.g. to refresh sources or to route HDFS paths to one of several HDFS sources
+	 */
+	public SourceResolver getSourceResolver() {
+		return sourceResolver;
+	}
+	
+	public int getLookupBatchSize() {
+		return lookupBatchSize;
+	}
+	
+	/**
+	 * Sets the maximum number of entities whose identities are resolved with one query on flushing.
+	 * 
+	 * @param lookupBatchSize	Number of entities per query
+	 */
+	public void setLookupBatchSize(int lookupBatchSize) {
+		this.lookupBatchSize = lookupBatchSize;
+	}
+	
+	public int getMaxRequestEntities() {
+		return maxRequestEntities;
+	}
+	
+	/**
+	 * Sets the maximum number of entities sent to Navigator in one write request.
+	 * Larger batches are split into several requests on flushing.
+	 * 
+	 * @param maxRequestEntities	Number of entities per request
+	 */
+	public void setMaxRequestEntities(int maxRequestEntities) {
+		Preconditions.checkArgument(maxRequestEntities > 0, "Argument maxRequestEntities must be positive");
+		this.maxRequestEntities = maxRequestEntities;
+	}
+	
+	public long getMaxRequestBytes() {
+		return maxRequestBytes;
+	}
+	
+	/**
+	 * Sets the maximum estimated size of one write request. 
+	 * An entity larger than the limit is sent in a request of its own.
+	 * 
+	 * @param maxRequestBytes	Estimated bytes per request
+	 */
+	public void setMaxRequestBytes(long maxRequestBytes) {
+		Preconditions.checkArgument(maxRequestBytes > 0, "Argument maxRequestBytes must be positive");
+		this.maxRequestBytes = maxRequestBytes;
+	}
+	
+	/**
+	 * Sets the batch limits which make the writer flush automatically after an update.
+	 * An auto flush does not throw: its outcome is added to the report of the next {@link #flush()}, 
+	 * which throws a {@link WriteException} if some entities of the auto flushes could not be written.
+	 * 
+	 * @param autoFlushEntities	Number of pending entities, 0 to disable
+	 * @param autoFlushBytes	Estimated size of pending entities, 0 to disable
+	 */
+	public void setAutoFlush(int autoFlushEntities, long autoFlushBytes) {
+		this.autoFlushEntities = autoFlushEntities;
+		this.autoFlushBytes = autoFlushBytes;
+	}
+	
+	public int getParallelism() {
+		return parallelism;
+	}
+	
+	/**
+	 * Sets the number of write requests sent to Navigator concurrently on flushing. 
+	 * With more than one, the requests of a batch are no longer written in order.
+	 * 
+	 * @param parallelism	Number of concurrent connections
+	 */
+	public void setParallelism(int parallelism) {
+		Preconditions.checkArgument(parallelism > 0, "Argument parallelism must be positive");
+		this.parallelism = parallelism;
+	}
+	
+	/**
+	 * Sets how failed write requests are retried. The delay before the n-th retry is 
+	 * initialBackoff * 2^(n-1), capped at maxBackoff, of which a random half is jitter.
+	 * 
+	 * @param maxRetries		Retries of a failed request, 0 to disable
+	 * @param initialBackoff	Delay before the first retry
+	 * @param maxBackoff		Maximum delay between retries
+	 * @param unit				Time unit of the delays
+	 */
+	public void setRetries(int maxRetries, long initialBackoff, long maxBackoff, TimeUnit unit) {
+		Preconditions.checkArgument(maxRetries >= 0, "Argument maxRetries cannot be negative");
+		this.maxRetries = maxRetries;
+		this.initialBackoffMs = unit.toMillis(initialBackoff);
+		this.maxBackoffMs = unit.toMillis(maxBackoff);
+	}
+	
+	public boolean isDiffMode() {
+		return diffMode;
+	}
+	
+	/**
+	 * Enables or disables diff mode. In diff mode, the current tags, properties and managed custom 
+	 * properties of a batch are fetched from Navigator in bulk on flushing; entities already as 
+	 * requested are not written, and the others are written with only the changed metadata.
+	 * Saves writes and reindexing when most updates repeat what Navigator has, at the cost of 
+	 * fetching the full entities instead of resolving identities from the cache.
+	 * The avoided writes are reported by {@link WriteReport#getUnchanged()}.
+	 * 
+	 * @param diffMode	Whether to write only metadata that differs from Navigator
+	 */
+	public void setDiffMode(boolean diffMode) {
+		this.diffMode = diffMode;
+	}
+	
+	public IdentityGenerator getIdentityGenerator() {
+		return identityGenerator;
+	}
+	
+	/**
+	 * Enables local identity computation: the identities of entities missing from the identity 
+	 * cache are computed from their source id and id attributes instead of being looked up, 
+	 * so a flush needs fewer read requests. Computed identities are written unverified only once
+	 * Navigator confirmed {@value #TRUSTED_LOCAL_IDENTITIES} of them without a mismatch; until then
+	 * all are verified. Afterwards a random share is verified on each flush, unless missing entities
+	 * are deferred, which needs every entity checked. Only verified identities are cached, so a 
+	 * wrong identity never reaches the shared identity index. On a mismatch the error is logged, 
+	 * local computation is disabled and the batch is looked up instead. Unverified entities which
+	 * are not in Navigator are reported as failed by the write.
+	 * 
+	 * @param identityGenerator	Computes identities, like {@link IdentityGenerator#MD5}; null to disable
+	 * @param verificationRate	Share of identities verified once trusted, above 0 and up to 1 (all)
+	 */
+	public void setLocalIdentity(IdentityGenerator identityGenerator, double verificationRate) {
+		Preconditions.checkArgument(identityGenerator == null || (verificationRate > 0 && verificationRate <= 1), 
+				"Argument verificationRate must be above 0 and at most 1");
+		this.identityGenerator = identityGenerator;
+		this.verificationRate = verificationRate;
+		this.confirmedIdentities = 0;
+	}
+	
+	public KnownEntityFilter getKnownEntityFilter() {
+		return knownEntityFilter;
+	}
+	
+	/**
+	 * Sets the filter of entities registered in Navigator, built with 
+	 * {@link MetaExtractor#buildKnownEntityFilter(String, long, double)}. Entities the filter does not
+	 * contain are reported missing (and deferred, if enabled) without querying Navigator, which saves
+	 * the lookups of jobs that mostly update unregistered paths like temporary or staging directories.
+	 * The filter should be refreshed regularly, entities registered after the last refresh are missed.
+	 * 
+	 * @param knownEntityFilter	Filter of registered entities, null to look up every entity
+	 */
+	public void setKnownEntityFilter(KnownEntityFilter knownEntityFilter) {
+		this.knownEntityFilter = knownEntityFilter;
+	}
+	
+	public boolean isDeferMissing() {
+		return deferMissing;
+	}
+	
+	/**
+	 * Sets whether the updates of entities not found in Navigator, e.g. Hive tables not ingested yet, 
+	 * are kept by the writer instead of being dropped. Deferred updates are retried all at once with 
+	 * {@link #retryDeferred()}; with a journal, they also stay in the journal until written.
+	 * 
+	 * @param deferMissing	Whether to defer the updates of missing entities
+	 */
+	public void setDeferMissing(boolean deferMissing) {
+		this.deferMissing = deferMissing;
+	}
+	
+	/**
+	 * @return the entities whose updates are deferred until they are found in Navigator
+	 */
+	public Set<EntityKey> getDeferred() {
+		return ImmutableSet.copyOf(deferred.keySet());
+	}
+	
+	/**
+	 * Retries the deferred updates of entities which were not found in Navigator, in one batch. 
+	 * The entities are looked up again regardless of the not-found entries of the identity cache; 
+	 * those still missing are deferred again, as are those absent from the known entity filter 
+	 * until the filter is refreshed.
+	 * 
+	 * @return Returns which entities were written, retried, failed or are still missing.
+	 * @throws WriteException if some entities could not be written
+	 */
+	public WriteReport retryDeferred() {
+		Preconditions.checkState(entities.isEmpty(), "Flush the writer before retrying deferred updates");
+		Map<EntityKey, MetadataUpdate> updates = deferred;
+		ListMultimap<EntityKey, Long> seqs = deferredSeqs;
+		deferred = Maps.newLinkedHashMap();
+		deferredSeqs = LinkedListMultimap.create();
+		LOG.info(String.format("Retries the deferred updates of %d entities.", updates.size()));
+		for (Map.Entry<EntityKey, MetadataUpdate> entry : updates.entrySet()) {
+			EntityKey key = entry.getKey();
+			identityCache.invalidate(key);
+			pendingUpdates.put(key, entry.getValue());
+			pendingSeqs.putAll(key, seqs.get(key));
+			addEntity(key, newEntity(entry.getValue()));
+		}
+		return flush();
+	}
+	
+	public WriteJournal getJournal() {
+		return journal;
+	}
+	
+	/**
+	 * Sets the journal every update is persisted to before the update method returns. 
+	 * Updates are marked done in the journal once written to Navigator (or not found in it), 
+	 * so updates which failed or were pending when the process stopped can be replayed with 
+	 * {@link #replayJournal()}.
+	 * 
+	 * @param journal	Write-ahead journal, null to disable journaling
+	 */
+	public void setJournal(WriteJournal journal) {
+		Preconditions.checkState(entities.isEmpty(), "Flush the writer before changing its journal");
+		this.journal = journal;
+	}
+	
+	/**
+	 * Writes the updates of the journal which were not written to Navigator, e.g. after a restart
+	 * or once Navigator is reachable again. Updates are replayed in their original order; 
+	 * updates superseded by later updates of the same entity are skipped, as are the updates 
+	 * this writer holds as {@link #getDeferred() deferred}, which {@link #retryDeferred()} writes. 
+	 * 
+	 * @return Returns which entities were written, retried, failed, or were not found.
+	 * @throws WriteException if some entities could not be written; the failed ones remain in the journal
+	 */
+	public WriteReport replayJournal() {
+		Preconditions.checkState(journal != null, "No journal is set");
+		Preconditions.checkState(entities.isEmpty(), "Flush the writer before replaying its journal");
+		List<MetadataUpdate> updates = journal.readPending();
+		Set<Long> deferredSeqSet = Sets.newHashSet(deferredSeqs.values());
+		LOG.info(String.format("Replays %d updates of the journal, except those of %d deferred entities.", 
+							   updates.size(), deferred.size()));
+		try {
+			for (MetadataUpdate update : updates) {
+				if (!deferredSeqSet.contains(update.getSeq())) {
+					apply(update, false);
+				}
+			}
+			return flush();
+		} finally {
+			journal.compact();
+		}
 	}
 	
 	/**
 	 * Updates the metadata of a HDFS file.
 	 * 
-	 * @param filePath			File system path of the HDFS file, like: /user/user1/fileA
+	 * @param filePath			File system path of the HDFS file, like: /user/user1/fileA or hdfs://nameservice1/user/user1/fileA
 	 * @param alias				Name of the HDFS file shown in Navigator
 	 * @param description		Description of the HDFS file shown in Navigator
 	 * @param tags				User-defined tags for the HDFS file (custom metadata)
@@ -66,15 +399,14 @@ public class MetaWriter {
 							   Map<String, Map<String, Object>> customProperties,
 							   boolean override) {
 		LOG.info(String.format("Updates the metadata of the HDFS file: %s", filePath));
-		Entity entity = newHdfsEntity(EntityType.FILE, filePath, alias, description, 
-									  tags, properties, customProperties, override);
-		entities.add(entity);
+		apply(MetadataUpdate.ofHdfs(EntityType.FILE, filePath, alias, description, 
+									tags, properties, customProperties, override), true);
 	}
 	
 	/**
 	 * Updates the metadata of a HDFS directory.
 	 * 
-	 * @param directoryPath		File system path of the HDFS directory, like: /user/user1
+	 * @param directoryPath		File system path of the HDFS directory, like: /user/user1 or hdfs://nameservice1/user/user1
 	 * @param alias				Name of the HDFS directory shown in Navigator
 	 * @param description		Description of the HDFS directory shown in Navigator
 	 * @param tags				User-defined tags for the HDFS directory (custom metadata)
@@ -90,12 +422,11 @@ public class MetaWriter {
 								    Map<String, Map<String, Object>> customProperties,
 								    boolean override) {
 		LOG.info(String.format("Updates the metadata of the HDFS directory: %s", directoryPath));
-		Entity entity = newHdfsEntity(EntityType.DIRECTORY, directoryPath, alias, description, 
-									  tags, properties, customProperties, override);
-		entities.add(entity);
+		apply(MetadataUpdate.ofHdfs(EntityType.DIRECTORY, directoryPath, alias, description, 
+									tags, properties, customProperties, override), true);
 	}
 	
-	private Entity newHdfsEntity(EntityType type, 
+	Entity newHdfsEntity(EntityType type, 
 								 String path, 
 								 String alias, 
 								 String description,
@@ -103,20 +434,10 @@ public class MetaWriter {
 								 Map<String, String> properties,
 								 Map<String, Map<String, Object>> customProperties,
 								 boolean override) {
-		MetaExtractor extractor = new MetaExtractor();
-		
-		//Takes the first one without checking
-		Source fs = client.getSourcesForType(SourceType.HDFS).iterator().next();
+		//Gets the HDFS source the path belongs to
+		Source fs = sourceResolver.getHdfsSource(path);
 		//Sets new properties to entity
-		CustomHdfsEntity entity = new CustomHdfsEntity(path, type, fs.getIdentity());
-		
-		String identity = null;
-		if (EntityType.DIRECTORY.equals(type)) {
-			identity = (String) extractor.getHDFSDirectories(path).next().get("identity");
-		} else {
-			identity = (String) extractor.getHDFSFiles(path).next().get("identity");
-		}
-		entity.setIdentity(identity);
+		CustomHdfsEntity entity = new CustomHdfsEntity(SourceResolver.toFileSystemPath(path), type, fs.getIdentity());
 		
 		if (StringUtils.isNotEmpty(alias)) {
 			entity.setAlias(alias);
@@ -165,9 +486,8 @@ public class MetaWriter {
 								   Map<String, Map<String, Object>> customProperties,
 								   boolean override) {
 		LOG.info(String.format("Updates the metadata of the Hive database: %s", databaseName));
-		Entity entity = newHiveEntity(EntityType.DATABASE.name(), databaseName, null, null, alias, 
-									  description, tags, properties, customProperties, override);
-		entities.add(entity);
+		apply(MetadataUpdate.ofHive(EntityType.DATABASE.name(), databaseName, null, null, alias, 
+									description, tags, properties, customProperties, override), true);
 	}
 	
 	/**
@@ -191,9 +511,8 @@ public class MetaWriter {
 								Map<String, Map<String, Object>> customProperties,
 								boolean override) {
 		LOG.info(String.format("Updates the metadata of the Hive table: %s.%s", databaseName, tableName));
-		Entity entity = newHiveEntity(EntityType.TABLE.name(), databaseName, tableName, null, alias, 
-									  description, tags, properties, customProperties, override);
-		entities.add(entity);
+		apply(MetadataUpdate.ofHive(EntityType.TABLE.name(), databaseName, tableName, null, alias, 
+									description, tags, properties, customProperties, override), true);
 	}
 	
 	/**
@@ -217,9 +536,8 @@ public class MetaWriter {
 							   Map<String, Map<String, Object>> customProperties,
 							   boolean override) {
 		LOG.info(String.format("Updates the metadata of the Hive view: %s.%s", databaseName, viewName));
-		Entity entity = newHiveEntity("VIEW", databaseName, viewName, null, alias, 
-									  description, tags, properties, customProperties, override);
-		entities.add(entity);
+		apply(MetadataUpdate.ofHive("VIEW", databaseName, viewName, null, alias, 
+									description, tags, properties, customProperties, override), true);
 	}
 	
 	/**
@@ -245,12 +563,54 @@ public class MetaWriter {
 								Map<String, Map<String, Object>> customProperties,
 								boolean override) {
 		LOG.info(String.format("Updates the metadata of the Hive field: %s.%s.%s", databaseName, tableName, fieldName));
-		Entity entity = newHiveEntity(EntityType.FIELD.name(), databaseName, tableName, fieldName, alias, 
-									  description, tags, properties, customProperties, override);
-		entities.add(entity);
+		apply(MetadataUpdate.ofHive(EntityType.FIELD.name(), databaseName, tableName, fieldName, alias, 
+									description, tags, properties, customProperties, override), true);
 	}
 
-	private Entity newHiveEntity(String type, 
+	/**
+	 * Updates the metadata of many columns of a Hive table at once. The table and all its columns
+	 * are fetched with a single query and their identities put into the identity cache, so the 
+	 * column updates added to the batch need no further lookup; they are written on the next 
+	 * flush, in chunks like any other update. An update of the table itself with 
+	 * {@link #updateHiveTable} before the flush is resolved by the same query.
+	 * 
+	 * @param databaseName	Hive database name
+	 * @param tableName		Hive table name
+	 * @param columns		New metadata by column name
+	 */
+	public void updateHiveTableSchema(String databaseName, String tableName, Map<String, ColumnMetadata> columns) {
+		Preconditions.checkArgument(columns != null, "Argument columns cannot be null");
+		LOG.info(String.format("Updates the metadata of %d columns of the Hive table: %s.%s", 
+							   columns.size(), databaseName, tableName));
+		String sourceId = sourceResolver.getHiveSource().getIdentity();
+		
+		MetaExtractor extractor = new MetaExtractor(context);
+		int resolved = 0;
+		for (Map<String, Object> entity : extractor.getHiveTableSchema(databaseName, tableName)) {
+			if (!sourceId.equals(entity.get("sourceId"))) {
+				continue;
+			}
+			String type = (String) entity.get("type");
+			String name = (String) entity.get("originalName");
+			EntityKey key = EntityType.FIELD.name().equals(type) 
+					? EntityKey.ofHiveField(sourceId, databaseName, tableName, name)
+					: EntityKey.ofHive(sourceId, type, databaseName, tableName, null);
+			identityCache.put(key, (String) entity.get("identity"));
+			resolved++;
+		}
+		LOG.info(String.format("Resolved %d identities of the Hive table %s.%s with one query.", 
+							   resolved, databaseName, tableName));
+		
+		for (Map.Entry<String, ColumnMetadata> column : columns.entrySet()) {
+			ColumnMetadata metadata = column.getValue();
+			apply(MetadataUpdate.ofHive(EntityType.FIELD.name(), databaseName, tableName, column.getKey(), 
+										metadata.getAlias(), metadata.getDescription(), metadata.getTags(), 
+										metadata.getProperties(), metadata.getCustomProperties(), 
+										metadata.isOverride()), true);
+		}
+	}
+	
+	Entity newHiveEntity(String type, 
 								 String databaseName,
 								 String tableName,
 								 String fieldName,
@@ -261,40 +621,24 @@ public class MetaWriter {
 								 Map<String, Map<String, Object>> customProperties,
 								 boolean override) {
 		Entity entity = null;
-		String identity = null;
-		MetaExtractor extractor = new MetaExtractor();
 		
 		if (EntityType.DATABASE.name().equals(type)) {
 			entity = new CustomHiveDatabase();
 			((CustomHiveDatabase) entity).setDatabaseName(databaseName);
-			
-			identity = (String) extractor.getHiveDatabase(databaseName).next().get("identity");
-		} else if (EntityType.TABLE.name().equals(type)) {
-			entity = new CustomHiveTable();
-			((CustomHiveTable) entity).setDatabaseName(databaseName);
-			((CustomHiveTable) entity).setTableName(tableName);
-			
-			identity = (String) extractor.getHiveTable(databaseName, tableName).next().get("identity");
-		} else if ("VIEW".equals(type)) {
+		} else if (EntityType.TABLE.name().equals(type) || "VIEW".equals(type)) {
 			entity = new CustomHiveTable();
 			((CustomHiveTable) entity).setDatabaseName(databaseName);
 			((CustomHiveTable) entity).setTableName(tableName);
-			
-			identity = (String) extractor.getHiveView(databaseName, tableName).next().get("identity");
 		} else if (EntityType.FIELD.name().equals(type)) {
 			entity = new CustomHiveColumn();
 			
 			((CustomHiveColumn) entity).setDatabaseName(databaseName);
 			((CustomHiveColumn) entity).setTableName(tableName);
 			((CustomHiveColumn) entity).setColumnName(fieldName);
-			
-			identity = (String) extractor.getHiveField(databaseName, tableName, fieldName).next().get("identity");
 		}
 		
-		entity.setIdentity(identity);
-		
 		//Gets the Hive Source
-		Source hiveSource = client.getHMSSource();
+		Source hiveSource = sourceResolver.getHiveSource();
 		entity.setSourceId(hiveSource.getIdentity());
 		
 		if (StringUtils.isNotEmpty(alias)) {
@@ -326,19 +670,541 @@ public class MetaWriter {
 		return entity;
 	}
 	
+	/**
+	 * Adds an update to the batch, after persisting it to the journal if there is one.
+	 * An update of an entity already in the batch is merged with the pending update, 
+	 * so the batch holds one entity per natural key.
+	 * 
+	 * @param update	Metadata update
+	 * @param append	Whether to append the update to the journal, false when replaying it
+	 */
+	private void apply(MetadataUpdate update, boolean append) {
+		EntityKey key = keyOf(update);
+		if (journal != null) {
+			if (append) {
+				journal.append(update);
+			}
+			pendingSeqs.put(key, update.getSeq());
+		}
+		
+		MetadataUpdate pending = pendingUpdates.get(key);
+		if (pending != null) {
+			LOG.debug(String.format("Merges the update of %s with the pending one.", key));
+			update = pending.merge(update);
+			for (Entity replaced : entities.removeAll(key)) {
+				pendingBytes -= EntitySizeEstimator.estimate(replaced);
+			}
+		}
+		pendingUpdates.put(key, update);
+		addEntity(key, newEntity(update));
+	}
+	
+	/**
+	 * Builds the HDFS or Hive entity of an update, without identity.
+	 */
+	Entity newEntity(MetadataUpdate update) {
+		if (update.isHdfs()) {
+			return newHdfsEntity(EntityType.valueOf(update.getType()), update.getPath(), update.getAlias(), 
+								 update.getDescription(), update.getTags(), update.getProperties(), 
+								 update.getCustomProperties(), update.isOverride());
+		}
+		return newHiveEntity(update.getType(), update.getDatabaseName(), update.getTableName(), 
+							 update.getFieldName(), update.getAlias(), update.getDescription(), 
+							 update.getTags(), update.getProperties(), update.getCustomProperties(), 
+							 update.isOverride());
+	}
+	
+	/**
+	 * Builds the natural key of the entity of an update, without building the entity.
+	 * The key is the one {@link #keyOf(String, Entity)} gives for {@link #newEntity(MetadataUpdate)}.
+	 */
+	EntityKey keyOf(MetadataUpdate update) {
+		if (update.isHdfs()) {
+			return EntityKey.ofHdfs(sourceResolver.getHdfsSource(update.getPath()).getIdentity(), 
+									EntityType.valueOf(update.getType()), SourceResolver.toFileSystemPath(update.getPath()));
+		}
+		String sourceId = sourceResolver.getHiveSource().getIdentity();
+		if (EntityType.DATABASE.name().equals(update.getType())) {
+			return EntityKey.ofHiveDatabase(sourceId, update.getDatabaseName());
+		} else if (EntityType.FIELD.name().equals(update.getType())) {
+			return EntityKey.ofHiveField(sourceId, update.getDatabaseName(), update.getTableName(), update.getFieldName());
+		}
+		return EntityKey.ofHive(sourceId, update.getType(), update.getDatabaseName(), update.getTableName(), null);
+	}
+	
+	/**
+	 * Builds the natural key of an entity created by this writer.
+	 * 
+	 * @param type		Entity type (DIRECTORY, FILE, DATABASE, TABLE, VIEW, FIELD)
+	 * @param entity	HDFS or Hive entity
+	 */
+	static EntityKey keyOf(String type, Entity entity) {
+		if (entity instanceof CustomHdfsEntity) {
+			return EntityKey.ofHdfs(entity.getSourceId(), EntityType.valueOf(type), 
+									((CustomHdfsEntity) entity).getFileSystemPath());
+		} else if (entity instanceof CustomHiveDatabase) {
+			return EntityKey.ofHiveDatabase(entity.getSourceId(), ((CustomHiveDatabase) entity).getDatabaseName());
+		} else if (entity instanceof CustomHiveTable) {
+			CustomHiveTable table = (CustomHiveTable) entity;
+			return EntityKey.ofHive(entity.getSourceId(), type, table.getDatabaseName(), table.getTableName(), null);
+		} else if (entity instanceof CustomHiveColumn) {
+			CustomHiveColumn column = (CustomHiveColumn) entity;
+			return EntityKey.ofHiveField(entity.getSourceId(), column.getDatabaseName(), 
+										 column.getTableName(), column.getColumnName());
+		}
+		throw new IllegalArgumentException("Unsupported entity: " + entity.getClass().getName());
+	}
+	
+	/**
+	 * Resolves the identities of all entities in a batch, from the identity cache when possible,
+	 * computed locally when enabled, and otherwise with bulk queries to Navigator.
+	 * Entities which are not found in Navigator, or known not to be in it, are removed from the batch.
+	 * 
+	 * @param batch	Entities by natural key
+	 * @return Returns the keys of the entities not found in Navigator.
+	 */
+	private Set<EntityKey> resolveIdentities(ListMultimap<EntityKey, Entity> batch) {
+		Set<EntityKey> unresolved = Sets.newLinkedHashSet();
+		Set<EntityKey> missing = Sets.newLinkedHashSet();
+		for (EntityKey key : batch.keySet()) {
+			String identity = identityCache.get(key);
+			if (identity != null) {
+				setIdentity(batch.get(key), identity);
+			} else if (isKnownMissing(key)) {
+				missing.add(key);
+			} else {
+				unresolved.add(key);
+			}
+		}
+		
+		if (identityGenerator != null && !unresolved.isEmpty()) {
+			unresolved = resolveLocally(batch, unresolved, missing);
+		}
+		if (!unresolved.isEmpty()) {
+			LOG.info(String.format("Resolves the identities of %d entities.", unresolved.size()));
+			MetaExtractor extractor = newExtractor();
+			Map<EntityKey, String> identities = extractor.getIdentities(unresolved);
+			for (Map.Entry<EntityKey, String> entry : identities.entrySet()) {
+				identityCache.put(entry.getKey(), entry.getValue());
+				setIdentity(batch.get(entry.getKey()), entry.getValue());
+			}
+			
+			for (EntityKey key : Sets.difference(unresolved, identities.keySet())) {
+				identityCache.putNotFound(key);
+				missing.add(key);
+			}
+		}
+		batch.keySet().removeAll(missing);
+		return missing;
+	}
+	
+	/**
+	 * Computes the identities of entities locally with the identity generator. Until the generator
+	 * is trusted, or when missing entities are deferred, all of them are verified against Navigator; 
+	 * afterwards a random sample is. Only the verified identities are cached; on a mismatch, 
+	 * local computation is disabled and the entities of the batch are looked up instead.
+	 * 
+	 * @param batch			Entities by natural key
+	 * @param unresolved	Keys of the entities to resolve
+	 * @param missing		Collects the keys of the verified entities not found in Navigator
+	 * @return Returns the keys of the entities still to look up.
+	 */
+	private Set<EntityKey> resolveLocally(ListMultimap<EntityKey, Entity> batch, 
+										  Set<EntityKey> unresolved, 
+										  Set<EntityKey> missing) {
+		IdentityGenerator generator = identityGenerator;
+		boolean sampled = confirmedIdentities >= TRUSTED_LOCAL_IDENTITIES && !deferMissing;
+		Map<EntityKey, String> local = Maps.newLinkedHashMap();
+		Set<EntityKey> lookup = Sets.newLinkedHashSet();
+		List<EntityKey> verify = Lists.newArrayList();
+		for (EntityKey key : unresolved) {
+			if (key.getSourceId() == null) {
+				lookup.add(key);
+				continue;
+			}
+			local.put(key, generator.generate(batch.get(key).get(0)));
+			if (!sampled || ThreadLocalRandom.current().nextDouble() < verificationRate) {
+				verify.add(key);
+			}
+		}
+		
+		Map<EntityKey, String> computed = ImmutableMap.copyOf(local);
+		Map<EntityKey, String> verified = Collections.emptyMap();
+		if (!verify.isEmpty()) {
+			LOG.info(String.format("Verifies %d of %d locally computed identities.", verify.size(), computed.size()));
+			MetaExtractor extractor = newExtractor();
+			verified = extractor.getIdentities(verify);
+			for (Map.Entry<EntityKey, String> entry : verified.entrySet()) {
+				//Navigator's identities, right whether the local ones match or not
+				identityCache.put(entry.getKey(), entry.getValue());
+				setIdentity(batch.get(entry.getKey()), entry.getValue());
+				local.remove(entry.getKey());
+			}
+			for (EntityKey key : verify) {
+				String identity = verified.get(key);
+				if (identity == null) {
+					identityCache.putNotFound(key);
+					missing.add(key);
+					local.remove(key);
+				} else if (identity.equals(computed.get(key))) {
+					confirmedIdentities++;
+				} else {
+					LOG.error(String.format("The %s identity of %s is %s, but Navigator has %s; " 
+							+ "disables local identities and looks up the %d other identities of the batch.", 
+							generator, key, computed.get(key), identity, local.size()));
+					identityGenerator = null;
+					confirmedIdentities = 0;
+					lookup.addAll(local.keySet());
+					return lookup;
+				}
+			}
+		}
+		
+		//Unverified identities of a trusted generator are used for this batch only, never cached
+		for (Map.Entry<EntityKey, String> entry : local.entrySet()) {
+			setIdentity(batch.get(entry.getKey()), entry.getValue());
+		}
+		LOG.info(String.format("Computed %d identities locally, verified %d.", computed.size(), verified.size()));
+		return lookup;
+	}
+	
+	/**
+	 * Compares the updates of a batch with the current metadata of their entities, fetched from 
+	 * Navigator in bulk, and rebuilds each entity with only the changed metadata. 
+	 * Entities whose metadata is already as requested are removed from the batch and reported unchanged, 
+	 * entities not found in Navigator, or known not to be in it, are removed from the batch. 
+	 * Identities are resolved on the way.
+	 * 
+	 * @param batch		Entities by natural key
+	 * @param updates	Update each entity was built from, by natural key
+	 * @param report	Report of the write
+	 * @return Returns the keys of the entities not found in Navigator.
+	 */
+	private Set<EntityKey> diff(ListMultimap<EntityKey, Entity> batch, 
+								Map<EntityKey, MetadataUpdate> updates, 
+								WriteReport report) {
+		Set<EntityKey> missing = Sets.newLinkedHashSet();
+		Set<EntityKey> keys = Sets.newLinkedHashSet();
+		for (EntityKey key : Sets.intersection(batch.keySet(), updates.keySet())) {
+			if (isKnownMissing(key)) {
+				missing.add(key);
+			} else {
+				keys.add(key);
+			}
+		}
+		if (keys.isEmpty()) {
+			batch.keySet().removeAll(missing);
+			return missing;
+		}
+		LOG.info(String.format("Fetches the current metadata of %d entities.", keys.size()));
+		MetaExtractor extractor = newExtractor();
+		Map<EntityKey, Map<String, Object>> current = extractor.getEntities(keys);
+		
+		int unchanged = 0;
+		for (EntityKey key : keys) {
+			Map<String, Object> document = current.get(key);
+			if (document == null) {
+				continue;
+			}
+			String identity = (String) document.get("identity");
+			identityCache.put(key, identity);
+			
+			MetadataUpdate update = updates.get(key);
+			MetadataUpdate delta = update.diff(document);
+			if (delta == null) {
+				batch.removeAll(key);
+				report.addUnchanged(key);
+				unchanged++;
+			} else if (!delta.hasSameMetadata(update)) {
+				Entity entity = newEntity(delta);
+				entity.setIdentity(identity);
+				batch.replaceValues(key, Lists.newArrayList(entity));
+				report.addReduced(key);
+			} else {
+				setIdentity(batch.get(key), identity);
+			}
+		}
+		LOG.info(String.format("Diff mode avoids %d of %d writes.", unchanged, keys.size()));
+		
+		for (EntityKey key : Sets.difference(keys, current.keySet())) {
+			identityCache.putNotFound(key);
+			missing.add(key);
+		}
+		batch.keySet().removeAll(missing);
+		return missing;
+	}
+	
+	/**
+	 * @return Returns whether an entity is known not to be in Navigator, recently not found 
+	 * or absent from the known entity filter, so it needs no lookup.
+	 */
+	private boolean isKnownMissing(EntityKey key) {
+		return identityCache.isNotFound(key) || (knownEntityFilter != null && !knownEntityFilter.mightExist(key));
+	}
+	
+	private MetaExtractor newExtractor() {
+		MetaExtractor extractor = new MetaExtractor(context);
+		extractor.setLookupBatchSize(lookupBatchSize);
+		extractor.setKnownEntityFilter(knownEntityFilter);
+		return extractor;
+	}
+	
+	private static void setIdentity(Collection<Entity> entities, String identity) {
+		for (Entity entity : entities) {
+			entity.setIdentity(identity);
+		}
+	}
+	
+	/**
+	 * Adds an entity to the batch and flushes the writer when the batch crosses the auto flush limits.
+	 * Entities the auto flush fails to write are reported by the next {@link #flush()}, so an update 
+	 * method never throws a {@link WriteException}.
+	 */
+	private void addEntity(EntityKey key, Entity entity) {
+		entities.put(key, entity);
+		pendingBytes += EntitySizeEstimator.estimate(entity);
+		
+		if ((autoFlushEntities > 0 && entities.size() >= autoFlushEntities) 
+				|| (autoFlushBytes > 0 && pendingBytes >= autoFlushBytes)) {
+			LOG.info(String.format("Batch of %d entities (~%d bytes) crosses the auto flush limits.", 
+								   entities.size(), pendingBytes));
+			WriteReport report = writeBatch();
+			if (!report.getFailed().isEmpty()) {
+				LOG.warn(String.format("The auto flush failed to write %d entities, reported by the next flush.", 
+									   report.getFailed().size()));
+			}
+			autoFlushReport.merge(report);
+		}
+	}
+	
+	/**
+	 * Splits a batch into chunks that respect the per-request entity and byte limits, keeping the order.
+	 */
+	private List<List<Entity>> partition(Collection<Entity> batch) {
+		List<List<Entity>> chunks = Lists.newArrayList();
+		List<Entity> chunk = Lists.newArrayList();
+		long chunkBytes = 0;
+		for (Entity entity : batch) {
+			long size = EntitySizeEstimator.estimate(entity);
+			if (!chunk.isEmpty() && (chunk.size() >= maxRequestEntities || chunkBytes + size > maxRequestBytes)) {
+				chunks.add(chunk);
+				chunk = Lists.newArrayList();
+				chunkBytes = 0;
+			}
+			chunk.add(entity);
+			chunkBytes += size;
+		}
+		if (!chunk.isEmpty()) {
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+	
 	/**
 	 * Flushes the writer. Metadata batch is written to Navigator only after flushing.
+	 * 
+	 * Entities not found in Navigator are not written; they are reported as missing and, 
+	 * if {@link #setDeferMissing(boolean) enabled}, deferred for a later retry.
+	 * 
+	 * The report includes the outcome of the auto flushes since the previous flush.
+	 * 
+	 * @return Returns which entities were written, retried, failed, or were not found.
+	 * @throws WriteException if some entities could not be written; the others are written
 	 */
-	public void flush() {
-		if (CollectionUtils.isNotEmpty(entities)) {
-			LOG.info("Writes metadata to Navigator.");
-			//Write metadata
-			ResultSet results = plugin.write(entities);
+	public WriteReport flush() {
+		WriteReport report = autoFlushReport;
+		autoFlushReport = new WriteReport();
+		report.merge(writeBatch());
+		if (!report.getFailed().isEmpty()) {
+			throw new WriteException(report);
+		}
+		return report;
+	}
+	
+	/**
+	 * Writes the entity batch, defers the missing entities if enabled, and marks the written 
+	 * updates done in the journal.
+	 * 
+	 * @return Returns which entities were written, retried, failed, or were not found.
+	 */
+	private WriteReport writeBatch() {
+		WriteReport report = new WriteReport();
+		if (!entities.isEmpty()) {
+			ListMultimap<EntityKey, Entity> batch = LinkedListMultimap.create(entities);
+			Map<EntityKey, MetadataUpdate> updates = Maps.newHashMap(pendingUpdates);
+			ListMultimap<EntityKey, Long> seqs = LinkedListMultimap.create(pendingSeqs);
 			entities.clear();
-			if (results.hasErrors()) {
-				throw new RuntimeException(results.toString());
+			pendingUpdates.clear();
+			pendingSeqs.clear();
+			pendingBytes = 0;
+			report = write(batch, updates);
+			
+			if (deferMissing) {
+				for (EntityKey key : report.getMissing()) {
+					MetadataUpdate update = updates.get(key);
+					MetadataUpdate earlier = deferred.get(key);
+					deferred.put(key, earlier == null ? update : earlier.merge(update));
+					deferredSeqs.putAll(key, seqs.removeAll(key));
+				}
+				if (!report.getMissing().isEmpty()) {
+					LOG.info(String.format("Deferred the updates of %d missing entities, %d in total.", 
+										   report.getMissing().size(), deferred.size()));
+				}
+			}
+			if (journal != null) {
+				//Failed and deferred updates stay in the journal to be replayed
+				seqs.keySet().removeAll(report.getFailed().keySet());
+				journal.markDone(seqs.values());
 			}
 		}
+		return report;
+	}
+	
+	/**
+	 * Writes a batch to Navigator. Identities of the entities in the batch are resolved at once 
+	 * before writing, then the batch is sent in chunks limited by entity count and estimated size,
+	 * over up to {@link #getParallelism()} concurrent connections.
+	 * A failed request is retried with exponential backoff; when it still fails, it is split in 
+	 * halves until the failing entities are isolated, so only those are reported as failed.
+	 * In diff mode, entities are first compared with their current metadata in Navigator, 
+	 * see {@link #setDiffMode(boolean)}.
+	 * 
+	 * @param batch		Entities by natural key
+	 * @param updates	Update each entity was built from, by natural key
+	 * @return Returns the outcome of the write per entity.
+	 */
+	WriteReport write(ListMultimap<EntityKey, Entity> batch, Map<EntityKey, MetadataUpdate> updates) {
+		final WriteReport report = new WriteReport();
+		if (diffMode) {
+			report.addMissing(diff(batch, updates, report));
+		}
+		report.addMissing(resolveIdentities(batch));
+		
+		final Map<Entity, EntityKey> keys = new IdentityHashMap<Entity, EntityKey>();
+		for (Map.Entry<EntityKey, Entity> entry : batch.entries()) {
+			keys.put(entry.getValue(), entry.getKey());
+		}
+		
+		List<List<Entity>> chunks = partition(batch.values());
+		LOG.info(String.format("Writes metadata of %d entities to Navigator in %d requests.", 
+							   batch.size(), chunks.size()));
+		if (parallelism == 1 || chunks.size() <= 1) {
+			for (List<Entity> chunk : chunks) {
+				writeChunk(chunk, keys, report);
+			}
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, chunks.size()), 
+					new ThreadFactoryBuilder().setNameFormat("meta-writer-%d").setDaemon(true).build());
+			try {
+				List<Future<?>> futures = Lists.newArrayList();
+				for (final List<Entity> chunk : chunks) {
+					futures.add(executor.submit(new Runnable() {
+						@Override
+						public void run() {
+							writeChunk(chunk, keys, report);
+						}
+					}));
+				}
+				for (Future<?> future : futures) {
+					future.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while writing metadata", e);
+			} catch (ExecutionException e) {
+				throw Throwables.propagate(e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		
+		LOG.info(report.toString());
+		LOG.debug(identityCache.toString());
+		return report;
+	}
+	
+	/**
+	 * A write request of some entities of a chunk.
+	 */
+	private static class Attempt {
+		final List<Entity> entities;
+		final int retries; //Retries of these entities so far
+		final boolean isolating; //Whether the entities are part of a failed request split in halves
+		
+		Attempt(List<Entity> entities, int retries, boolean isolating) {
+			this.entities = entities;
+			this.retries = retries;
+			this.isolating = isolating;
+		}
+	}
+	
+	/**
+	 * Writes one chunk, retrying and splitting failed requests, and records the outcome per entity.
+	 */
+	private void writeChunk(List<Entity> chunk, Map<Entity, EntityKey> keys, WriteReport report) {
+		Deque<Attempt> attempts = new ArrayDeque<Attempt>();
+		attempts.push(new Attempt(chunk, 0, false));
+		while (!attempts.isEmpty()) {
+			Attempt attempt = attempts.pop();
+			if (attempt.retries > 0 && !attempt.isolating) {
+				try {
+					Thread.sleep(backoff(attempt.retries));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					for (Attempt remaining : Lists.asList(attempt, attempts.toArray(new Attempt[0]))) {
+						for (Entity entity : remaining.entities) {
+							report.addFailed(keys.get(entity), "Interrupted before retrying");
+						}
+					}
+					return;
+				}
+			}
+			
+			String error = send(attempt.entities);
+			report.addRequest();
+			if (error == null) {
+				for (Entity entity : attempt.entities) {
+					report.addSucceeded(keys.get(entity), attempt.retries > 0 || attempt.isolating);
+				}
+			} else if (!attempt.isolating && attempt.retries < maxRetries) {
+				LOG.warn(String.format("Request of %d entities failed, retry %d of %d: %s", 
+									   attempt.entities.size(), attempt.retries + 1, maxRetries, error));
+				attempts.push(new Attempt(attempt.entities, attempt.retries + 1, false));
+			} else if (attempt.entities.size() > 1) {
+				int half = attempt.entities.size() / 2;
+				LOG.warn(String.format("Request of %d entities failed, splits it to isolate failing entities.", 
+									   attempt.entities.size()));
+				attempts.push(new Attempt(attempt.entities.subList(half, attempt.entities.size()), attempt.retries, true));
+				attempts.push(new Attempt(attempt.entities.subList(0, half), attempt.retries, true));
+			} else {
+				Entity entity = attempt.entities.get(0);
+				LOG.error(String.format("Failed to write %s: %s", keys.get(entity), error));
+				report.addFailed(keys.get(entity), error);
+			}
+		}
+	}
+	
+	/**
+	 * Sends one write request.
+	 * 
+	 * @return Returns the error, or null if the request succeeded.
+	 */
+	private String send(List<Entity> entities) {
+		try {
+			//Write metadata
+			ResultSet results = context.getPlugin().write(entities);
+			return results.hasErrors() ? results.toString() : null;
+		} catch (RuntimeException e) {
+			return e.toString();
+		}
+	}
+	
+	/**
+	 * @return the delay before the given retry, exponential with equal jitter
+	 */
+	private long backoff(int retry) {
+		long delay = Math.min(maxBackoffMs, initialBackoffMs << Math.min(retry - 1, 30));
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
 	}
 
 }
@@ -0,0 +1,451 @@
+package com.cloudera.nav.ext.client.writer;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.collections.MapUtils;
+import org.apache.commons.lang.StringUtils;
+
+import com.cloudera.nav.ext.model.entities.MPChangeSet;
+import com.cloudera.nav.sdk.model.entities.EntityType;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * One call of an update method of {@link MetaWriter}, i.e. the new metadata of one HDFS or Hive
+ * entity. Updates are recorded in the {@link WriteJournal} and replayed from it.
+ */
+public class MetadataUpdate {
+
+	private long seq; //Journal sequence number, 0 if not journaled
+	private String type; //DIRECTORY, FILE, DATABASE, TABLE, VIEW, FIELD
+	private String path; //HDFS path as given by the caller
+	private String databaseName;
+	private String tableName;
+	private String fieldName;
+	private String alias;
+	private String description;
+	private Collection<String> tags;
+	private Map<String, String> properties;
+	private Map<String, Map<String, Object>> customProperties;
+	private boolean override;
+
+	public MetadataUpdate() {
+	}
+
+	/**
+	 * Creates an update of a HDFS directory or file.
+	 */
+	public static MetadataUpdate ofHdfs(EntityType type,
+										String path,
+										String alias,
+										String description,
+										Collection<String> tags,
+										Map<String, String> properties,
+										Map<String, Map<String, Object>> customProperties,
+										boolean override) {
+		MetadataUpdate update = new MetadataUpdate();
+		update.setType(type.name());
+		update.setPath(path);
+		update.setMetadata(alias, description, tags, properties, customProperties, override);
+		return update;
+	}
+
+	/**
+	 * Creates an update of a Hive database, table, view or field.
+	 */
+	public static MetadataUpdate ofHive(String type,
+										String databaseName,
+										String tableName,
+										String fieldName,
+										String alias,
+										String description,
+										Collection<String> tags,
+										Map<String, String> properties,
+										Map<String, Map<String, Object>> customProperties,
+										boolean override) {
+		MetadataUpdate update = new MetadataUpdate();
+		update.setType(type);
+		update.setDatabaseName(databaseName);
+		update.setTableName(tableName);
+		update.setFieldName(fieldName);
+		update.setMetadata(alias, description, tags, properties, customProperties, override);
+		return update;
+	}
+
+	private void setMetadata(String alias,
+							 String description,
+							 Collection<String> tags,
+							 Map<String, String> properties,
+							 Map<String, Map<String, Object>> customProperties,
+							 boolean override) {
+		this.alias = alias;
+		this.description = description;
+		this.tags = tags;
+		this.properties = properties;
+		this.customProperties = customProperties;
+		this.override = override;
+	}
+
+	/**
+	 * @return whether the update targets a HDFS entity
+	 */
+	@JsonIgnore
+	public boolean isHdfs() {
+		return EntityType.DIRECTORY.name().equals(type) || EntityType.FILE.name().equals(type);
+	}
+
+	/**
+	 * @return the entity targeted by the update, like: FILE:/user/user1/fileA or TABLE:/default/metrics
+	 */
+	@JsonIgnore
+	public String getTarget() {
+		if (isHdfs()) {
+			return type + ":" + path;
+		}
+		StringBuilder target = new StringBuilder(type).append(":/").append(databaseName);
+		if (tableName != null) {
+			target.append("/").append(tableName);
+		}
+		if (fieldName != null) {
+			target.append("/").append(fieldName);
+		}
+		return target.toString();
+	}
+
+	/**
+	 * Tells whether this update makes an earlier update of the same entity obsolete,
+	 * i.e. applying both has the same effect as applying only this one: either both carry the
+	 * same metadata, or this one overrides everything the earlier one sets.
+	 *
+	 * @param earlier	An earlier update
+	 */
+	public boolean supersedes(MetadataUpdate earlier) {
+		if (!getTarget().equals(earlier.getTarget())) {
+			return false;
+		}
+		if (hasSameMetadata(earlier)) {
+			return true;
+		}
+		return override
+				&& (StringUtils.isNotEmpty(alias) || StringUtils.isEmpty(earlier.alias))
+				&& (StringUtils.isNotEmpty(description) || StringUtils.isEmpty(earlier.description))
+				&& (MapUtils.isNotEmpty(customProperties) || MapUtils.isEmpty(earlier.customProperties));
+	}
+
+	/**
+	 * Merges this update with a later update of the same entity into one update with the same
+	 * effect as applying both in order. The alias and description of the later update win when set.
+	 * Tags and properties of the later update replace the earlier ones when it overrides, 
+	 * and are added to them otherwise. Managed custom properties are combined through a {@link MPChangeSet}.
+	 *
+	 * @param later	A later update of the same entity
+	 * @return Returns the merged update, with the sequence number of the later update.
+	 */
+	public MetadataUpdate merge(MetadataUpdate later) {
+		Preconditions.checkArgument(getTarget().equals(later.getTarget()), 
+				"Cannot merge updates of different entities: %s and %s", getTarget(), later.getTarget());
+		MetadataUpdate merged = new MetadataUpdate();
+		merged.seq = later.seq;
+		merged.type = later.type;
+		merged.path = later.path;
+		merged.databaseName = later.databaseName;
+		merged.tableName = later.tableName;
+		merged.fieldName = later.fieldName;
+		merged.alias = StringUtils.isNotEmpty(later.alias) ? later.alias : alias;
+		merged.description = StringUtils.isNotEmpty(later.description) ? later.description : description;
+		
+		if (later.override) {
+			merged.override = true;
+			merged.tags = later.tags;
+			merged.properties = later.properties;
+		} else {
+			merged.override = override;
+			Set<String> mergedTags = Sets.newLinkedHashSet();
+			if (tags != null) {
+				mergedTags.addAll(tags);
+			}
+			if (later.tags != null) {
+				mergedTags.addAll(later.tags);
+			}
+			merged.tags = tags == null && later.tags == null ? null : mergedTags;
+			Map<String, String> mergedProperties = Maps.newLinkedHashMap();
+			if (properties != null) {
+				mergedProperties.putAll(properties);
+			}
+			if (later.properties != null) {
+				mergedProperties.putAll(later.properties);
+			}
+			merged.properties = properties == null && later.properties == null ? null : mergedProperties;
+		}
+		
+		MPChangeSet changes = new MPChangeSet();
+		applyCustomProperties(changes);
+		later.applyCustomProperties(changes);
+		Map<String, Map<String, Object>> mergedCustomProperties = Maps.newLinkedHashMap();
+		if (changes.hasOverrides()) {
+			putAll(mergedCustomProperties, changes.getOverrideCustomProperties());
+		}
+		putAll(mergedCustomProperties, changes.getNewCustomProperties());
+		merged.customProperties = mergedCustomProperties.isEmpty() ? null : mergedCustomProperties;
+		return merged;
+	}
+	
+	/**
+	 * Records the managed custom properties of this update in a change set: an overriding update
+	 * replaces the properties recorded so far, another update adds to them.
+	 */
+	private void applyCustomProperties(MPChangeSet changes) {
+		if (MapUtils.isEmpty(customProperties)) {
+			return;
+		}
+		Map<String, Map<String, Object>> copy = Maps.newLinkedHashMap();
+		putAll(copy, customProperties);
+		if (override) {
+			changes.reset();
+			changes.setCustomProperties(copy);
+		} else {
+			changes.addCustomProperties(copy);
+		}
+	}
+	
+	private static void putAll(Map<String, Map<String, Object>> target, Map<String, Map<String, Object>> source) {
+		for (Map.Entry<String, Map<String, Object>> namespace : source.entrySet()) {
+			if (namespace.getValue() == null || namespace.getValue().isEmpty()) {
+				continue;
+			}
+			Map<String, Object> properties = target.get(namespace.getKey());
+			if (properties == null) {
+				properties = Maps.newLinkedHashMap();
+				target.put(namespace.getKey(), properties);
+			}
+			properties.putAll(namespace.getValue());
+		}
+	}
+
+	/**
+	 * Compares this update with the current metadata of its entity, as extracted from Navigator,
+	 * and keeps only what would change. Tags, properties and managed custom properties already 
+	 * in Navigator are left out; an overriding update whose tags and properties only add to the
+	 * current ones is turned into a non-overriding update of the additions.
+	 *
+	 * @param current	Current entity document, with name, description, tags, properties and customProperties
+	 * @return Returns the reduced update, or null if the update would not change anything.
+	 */
+	@SuppressWarnings("unchecked")
+	public MetadataUpdate diff(Map<String, Object> current) {
+		MetadataUpdate delta = new MetadataUpdate();
+		delta.seq = seq;
+		delta.type = type;
+		delta.path = path;
+		delta.databaseName = databaseName;
+		delta.tableName = tableName;
+		delta.fieldName = fieldName;
+		
+		if (StringUtils.isNotEmpty(alias) && !alias.equals(current.get("name"))) {
+			delta.alias = alias;
+		}
+		if (StringUtils.isNotEmpty(description) && !description.equals(current.get("description"))) {
+			delta.description = description;
+		}
+		
+		Set<String> currentTags = Sets.newHashSet();
+		if (current.get("tags") instanceof Collection) {
+			for (Object tag : (Collection<Object>) current.get("tags")) {
+				currentTags.add(String.valueOf(tag));
+			}
+		}
+		Map<String, String> currentProperties = Maps.newHashMap();
+		if (current.get("properties") instanceof Map) {
+			for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) current.get("properties")).entrySet()) {
+				currentProperties.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+			}
+		}
+		Set<String> requestedTags = tags == null ? Sets.<String>newHashSet() : Sets.newHashSet(tags);
+		Map<String, String> requestedProperties = properties == null ? Maps.<String, String>newHashMap() : properties;
+		
+		if (override && !(requestedTags.containsAll(currentTags) 
+				&& requestedProperties.keySet().containsAll(currentProperties.keySet()))) {
+			//Removes tags or properties, cannot be expressed as additions
+			delta.override = true;
+			delta.tags = tags;
+			delta.properties = properties;
+		} else {
+			Set<String> addedTags = Sets.newLinkedHashSet(requestedTags);
+			addedTags.removeAll(currentTags);
+			delta.tags = addedTags.isEmpty() ? null : addedTags;
+			Map<String, String> changedProperties = Maps.newLinkedHashMap();
+			for (Map.Entry<String, String> entry : requestedProperties.entrySet()) {
+				if (!Objects.equal(entry.getValue(), currentProperties.get(entry.getKey()))) {
+					changedProperties.put(entry.getKey(), entry.getValue());
+				}
+			}
+			delta.properties = changedProperties.isEmpty() ? null : changedProperties;
+		}
+		
+		if (MapUtils.isNotEmpty(customProperties)) {
+			Map<String, Object> currentCustom = current.get("customProperties") instanceof Map
+					? (Map<String, Object>) current.get("customProperties") : Maps.<String, Object>newHashMap();
+			Map<String, Map<String, Object>> changedCustom = Maps.newLinkedHashMap();
+			for (Map.Entry<String, Map<String, Object>> namespace : customProperties.entrySet()) {
+				Object currentNamespace = currentCustom.get(namespace.getKey());
+				for (Map.Entry<String, Object> property : namespace.getValue().entrySet()) {
+					Object currentValue = currentNamespace instanceof Map 
+							? ((Map<String, Object>) currentNamespace).get(property.getKey()) : null;
+					if (!Objects.equal(normalize(property.getValue()), normalize(currentValue))) {
+						Map<String, Object> changed = changedCustom.get(namespace.getKey());
+						if (changed == null) {
+							changed = Maps.newLinkedHashMap();
+							changedCustom.put(namespace.getKey(), changed);
+						}
+						changed.put(property.getKey(), property.getValue());
+					}
+				}
+			}
+			delta.customProperties = changedCustom.isEmpty() ? null : changedCustom;
+		}
+		
+		boolean unchanged = delta.alias == null && delta.description == null && !delta.override
+				&& delta.tags == null && delta.properties == null && delta.customProperties == null;
+		return unchanged ? null : delta;
+	}
+	
+	/**
+	 * Normalizes a property value for comparison: multiple values as a set of strings, 
+	 * a single value as a string.
+	 */
+	private static Object normalize(Object value) {
+		if (value == null) {
+			return null;
+		} else if (value instanceof Collection) {
+			Set<String> values = Sets.newHashSet();
+			for (Object v : (Collection<?>) value) {
+				values.add(String.valueOf(v));
+			}
+			return values;
+		} else if (value instanceof Object[]) {
+			Set<String> values = Sets.newHashSet();
+			for (Object v : (Object[]) value) {
+				values.add(String.valueOf(v));
+			}
+			return values;
+		}
+		return String.valueOf(value);
+	}
+
+	boolean hasSameMetadata(MetadataUpdate other) {
+		return override == other.override
+				&& Objects.equal(alias, other.alias)
+				&& Objects.equal(description, other.description)
+				&& Objects.equal(tags == null ? null : Sets.newHashSet(tags),
+								 other.tags == null ? null : Sets.newHashSet(other.tags))
+				&& Objects.equal(properties, other.properties)
+				&& Objects.equal(customProperties, other.customProperties);
+	}
+
+	public long getSeq() {
+		return seq;
+	}
+
+	public void setSeq(long seq) {
+		this.seq = seq;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	public String getDatabaseName() {
+		return databaseName;
+	}
+
+	public void setDatabaseName(String databaseName) {
+		this.databaseName = databaseName;
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public void setTableName(String tableName) {
+		this.tableName = tableName;
+	}
+
+	public String getFieldName() {
+		return fieldName;
+	}
+
+	public void setFieldName(String fieldName) {
+		this.fieldName = fieldName;
+	}
+
+	public String getAlias() {
+		return alias;
+	}
+
+	public void setAlias(String alias) {
+		this.alias = alias;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public void setDescription(String description) {
+		this.description = description;
+	}
+
+	public Collection<String> getTags() {
+		return tags;
+	}
+
+	public void setTags(Collection<String> tags) {
+		this.tags = tags;
+	}
+
+	public Map<String, String> getProperties() {
+		return properties;
+	}
+
+	public void setProperties(Map<String, String> properties) {
+		this.properties = properties;
+	}
+
+	public Map<String, Map<String, Object>> getCustomProperties() {
+		return customProperties;
+	}
+
+	public void setCustomProperties(Map<String, Map<String, Object>> customProperties) {
+		this.customProperties = customProperties;
+	}
+
+	public boolean isOverride() {
+		return override;
+	}
+
+	public void setOverride(boolean override) {
+		this.override = override;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("MetadataUpdate[seq=%d, %s]", seq, getTarget());
+	}
+
+}
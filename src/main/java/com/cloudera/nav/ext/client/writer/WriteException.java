@@ -0,0 +1,22 @@
+package com.cloudera.nav.ext.client.writer;
+
+/**
+ * Thrown when some entities of a batch could not be written to Navigator.
+ * The report tells which entities were written and which were not.
+ */
+public class WriteException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final WriteReport report;
+
+	public WriteException(WriteReport report) {
+		super(report.toString());
+		this.report = report;
+	}
+
+	public WriteReport getReport() {
+		return report;
+	}
+
+}
@@ -0,0 +1,466 @@
+package com.cloudera.nav.ext.client.writer;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Durable write-ahead journal of metadata updates. Updates are appended to segment files
+ * (one JSON document per line, named after the first sequence number they hold) before they
+ * are acknowledged, and marked done once written to Navigator. Updates not marked done survive
+ * a restart and are replayed in order, see {@link MetaWriter#replayJournal()}.
+ * <p>
+ * Progress is kept in a checkpoint file, replaced atomically: the watermark below which all
+ * updates are done, and the updates done above it. Segments below the watermark are deleted, and
+ * segments mostly made of done updates are rewritten by {@link #compact()}.
+ * Instances are thread-safe within one JVM; a journal directory must not be shared by several writers.
+ */
+public class WriteJournal implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(WriteJournal.class);
+
+	public static final long DEFAULT_MAX_SEGMENT_BYTES = 64L * 1024 * 1024;
+	public static final long DEFAULT_FSYNC_INTERVAL_MS = 1000L;
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String CHECKPOINT_FILE = "checkpoint.json";
+	private static final double COMPACTION_RATIO = 0.5; //Done share above which a segment is rewritten
+
+	/**
+	 * When appended updates are forced to disk.
+	 */
+	public enum FsyncPolicy {
+		ALWAYS,		//After every update, nothing acknowledged is lost on a crash
+		INTERVAL,	//Once per interval by a background thread, updates of the last interval may be lost on a power failure
+		NEVER		//Left to the operating system
+	}
+
+	/**
+	 * Content of the checkpoint file.
+	 */
+	static class Checkpoint {
+		public long watermark;
+		public List<Long> done = Lists.newArrayList();
+	}
+
+	private final Path directory;
+	private final long maxSegmentBytes;
+	private final FsyncPolicy fsyncPolicy;
+	private final long fsyncIntervalMs;
+	private final ObjectMapper mapper;
+
+	private final NavigableMap<Long, Path> segments = Maps.newTreeMap(); //Segment files by first sequence number
+	private final NavigableSet<Long> live = Sets.newTreeSet(); //Updates appended and not done yet
+	private final NavigableSet<Long> done = Sets.newTreeSet(); //Updates done above the watermark
+	private long watermark; //All updates up to it are done
+	private long lastSeq; //Last sequence number appended
+
+	private FileChannel active; //Segment appended to
+	private long activeBytes;
+	private boolean unsynced; //Whether updates were appended since the active segment was last forced
+	private final ScheduledExecutorService fsyncTimer; //Forces the active segment with the INTERVAL policy, else null
+
+	/**
+	 * Opens a journal with 64 MB segments forced to disk after every update.
+	 *
+	 * @param directory	Journal directory, created if it does not exist
+	 */
+	public WriteJournal(File directory) throws IOException {
+		this(directory, DEFAULT_MAX_SEGMENT_BYTES, FsyncPolicy.ALWAYS, DEFAULT_FSYNC_INTERVAL_MS);
+	}
+
+	/**
+	 * Opens a journal, recovering the updates not done from a previous run.
+	 *
+	 * @param directory			Journal directory, created if it does not exist
+	 * @param maxSegmentBytes	Size above which a new segment file is started
+	 * @param fsyncPolicy		When appended updates are forced to disk
+	 * @param fsyncIntervalMs	Interval of the {@link FsyncPolicy#INTERVAL} policy
+	 */
+	public WriteJournal(File directory, long maxSegmentBytes, FsyncPolicy fsyncPolicy, long fsyncIntervalMs)
+			throws IOException {
+		Preconditions.checkArgument(directory != null, "Argument directory cannot be null");
+		Preconditions.checkArgument(fsyncPolicy != null, "Argument fsyncPolicy cannot be null");
+		Preconditions.checkArgument(maxSegmentBytes > 0, "Argument maxSegmentBytes must be positive");
+		Preconditions.checkArgument(fsyncPolicy != FsyncPolicy.INTERVAL || fsyncIntervalMs > 0, 
+				"Argument fsyncIntervalMs must be positive");
+		this.directory = directory.toPath();
+		this.maxSegmentBytes = maxSegmentBytes;
+		this.fsyncPolicy = fsyncPolicy;
+		this.fsyncIntervalMs = fsyncIntervalMs;
+		this.mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		Files.createDirectories(this.directory);
+		recover();
+		
+		if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+			this.fsyncTimer = Executors.newSingleThreadScheduledExecutor(
+					new ThreadFactoryBuilder().setNameFormat("write-journal-fsync").setDaemon(true).build());
+			fsyncTimer.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						sync();
+					} catch (RuntimeException e) {
+						LOG.warn("Failed to force the journal to disk.", e);
+					}
+				}
+			}, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+		} else {
+			this.fsyncTimer = null;
+		}
+	}
+
+	private void recover() throws IOException {
+		Path checkpointFile = directory.resolve(CHECKPOINT_FILE);
+		if (Files.exists(checkpointFile)) {
+			Checkpoint checkpoint = mapper.readValue(checkpointFile.toFile(), Checkpoint.class);
+			watermark = checkpoint.watermark;
+			done.addAll(checkpoint.done);
+		}
+		lastSeq = watermark;
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+			}
+		}
+		for (Path segment : segments.values()) {
+			for (MetadataUpdate update : read(segment)) {
+				lastSeq = Math.max(lastSeq, update.getSeq());
+				if (update.getSeq() > watermark && !done.contains(update.getSeq())) {
+					live.add(update.getSeq());
+				}
+			}
+		}
+		LOG.info(String.format("Opened the journal %s: %d segments, %d pending updates, watermark %d.",
+							   directory, segments.size(), live.size(), watermark));
+	}
+
+	/**
+	 * Appends an update to the journal and assigns its sequence number.
+	 * The update is on disk according to the fsync policy when the method returns.
+	 *
+	 * @param update	Update to persist
+	 * @return Returns the sequence number of the update.
+	 */
+	public synchronized long append(MetadataUpdate update) {
+		Preconditions.checkArgument(update != null, "Argument update cannot be null");
+		long seq = lastSeq + 1;
+		update.setSeq(seq);
+		try {
+			byte[] line = (mapper.writeValueAsString(update) + "\n").getBytes(StandardCharsets.UTF_8);
+			if (active == null || activeBytes >= maxSegmentBytes) {
+				roll(seq);
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(line);
+			while (buffer.hasRemaining()) {
+				active.write(buffer);
+			}
+			activeBytes += line.length;
+
+			if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+				active.force(false);
+			} else {
+				unsynced = true;
+			}
+		} catch (IOException e) {
+			update.setSeq(0);
+			throw new IllegalStateException("Failed to append to the journal " + directory, e);
+		}
+		lastSeq = seq;
+		live.add(seq);
+		return seq;
+	}
+
+	/**
+	 * Forces the updates appended so far to disk, whatever the fsync policy.
+	 */
+	public synchronized void sync() {
+		if (active == null || !unsynced) {
+			return;
+		}
+		try {
+			active.force(false);
+			unsynced = false;
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to force the journal " + directory, e);
+		}
+	}
+
+	/**
+	 * Starts a new segment file at the given sequence number.
+	 */
+	private void roll(long firstSeq) throws IOException {
+		closeActive();
+		Path segment = directory.resolve(segmentName(firstSeq));
+		active = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		activeBytes = active.size();
+		segments.put(firstSeq, segment);
+		LOG.debug(String.format("Starts the journal segment %s.", segment));
+	}
+
+	private void closeActive() throws IOException {
+		if (active != null) {
+			active.force(false);
+			active.close();
+			active = null;
+			unsynced = false;
+		}
+	}
+
+	/**
+	 * Marks updates as written to Navigator, so they are not replayed, and checkpoints the progress.
+	 *
+	 * @param seqs	Sequence numbers of the updates
+	 */
+	public synchronized void markDone(Collection<Long> seqs) {
+		boolean changed = false;
+		for (Long seq : seqs) {
+			if (live.remove(seq)) {
+				done.add(seq);
+				changed = true;
+			}
+		}
+		if (changed) {
+			checkpoint();
+		}
+	}
+
+	/**
+	 * Advances the watermark, writes the checkpoint file atomically and deletes the segments below
+	 * the watermark.
+	 */
+	private void checkpoint() {
+		watermark = live.isEmpty() ? lastSeq : live.first() - 1;
+		done.headSet(watermark, true).clear();
+
+		Checkpoint checkpoint = new Checkpoint();
+		checkpoint.watermark = watermark;
+		checkpoint.done.addAll(done);
+		Path file = directory.resolve(CHECKPOINT_FILE);
+		Path temp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				channel.write(ByteBuffer.wrap(mapper.writeValueAsBytes(checkpoint)));
+				channel.force(true);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			//Deletes the segments whose updates are all below the watermark
+			Iterator<Map.Entry<Long, Path>> it = segments.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<Long, Path> segment = it.next();
+				Long next = segments.higherKey(segment.getKey());
+				if (next == null || next - 1 > watermark) {
+					break;
+				}
+				Files.deleteIfExists(segment.getValue());
+				it.remove();
+				LOG.debug(String.format("Deleted the journal segment %s.", segment.getValue()));
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to checkpoint the journal " + directory, e);
+		}
+	}
+
+	/**
+	 * Reads the updates not done yet, in order. Duplicate updates of the same entity are coalesced:
+	 * an update superseded by a later one (see {@link MetadataUpdate#supersedes(MetadataUpdate)})
+	 * is left out and marked done.
+	 *
+	 * @return Returns the pending updates, ordered by sequence number.
+	 */
+	public synchronized List<MetadataUpdate> readPending() {
+		List<MetadataUpdate> pending = Lists.newArrayList();
+		try {
+			if (active != null) {
+				active.force(false);
+			}
+			for (Path segment : segments.values()) {
+				for (MetadataUpdate update : read(segment)) {
+					if (live.contains(update.getSeq())) {
+						pending.add(update);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to read the journal " + directory, e);
+		}
+
+		//Coalesces from the newest update backwards
+		Map<String, List<MetadataUpdate>> later = Maps.newHashMap();
+		List<Long> superseded = Lists.newArrayList();
+		for (MetadataUpdate update : Lists.reverse(pending)) {
+			List<MetadataUpdate> sameTarget = later.get(update.getTarget());
+			if (sameTarget == null) {
+				sameTarget = Lists.newArrayList();
+				later.put(update.getTarget(), sameTarget);
+			}
+			boolean obsolete = false;
+			for (MetadataUpdate newer : sameTarget) {
+				if (newer.supersedes(update)) {
+					obsolete = true;
+					break;
+				}
+			}
+			if (obsolete) {
+				superseded.add(update.getSeq());
+			} else {
+				sameTarget.add(update);
+			}
+		}
+		if (!superseded.isEmpty()) {
+			LOG.info(String.format("Coalesced %d superseded updates of the journal.", superseded.size()));
+			markDone(superseded);
+			Iterator<MetadataUpdate> it = pending.iterator();
+			while (it.hasNext()) {
+				if (!live.contains(it.next().getSeq())) {
+					it.remove();
+				}
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * Rewrites the closed segments mostly made of done updates with only their pending updates.
+	 * Each segment is replaced atomically, so a crash during compaction loses nothing.
+	 */
+	public synchronized void compact() {
+		try {
+			for (Map.Entry<Long, Path> segment : Lists.newArrayList(segments.entrySet())) {
+				Long next = segments.higherKey(segment.getKey());
+				if (next == null) {
+					break; //Active segment
+				}
+				List<MetadataUpdate> updates = read(segment.getValue());
+				List<MetadataUpdate> pending = Lists.newArrayList();
+				for (MetadataUpdate update : updates) {
+					if (live.contains(update.getSeq())) {
+						pending.add(update);
+					}
+				}
+				if (updates.isEmpty() || pending.size() > updates.size() * (1 - COMPACTION_RATIO)) {
+					continue;
+				}
+
+				Path temp = directory.resolve(segment.getValue().getFileName() + ".tmp");
+				try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+					for (MetadataUpdate update : pending) {
+						channel.write(ByteBuffer.wrap((mapper.writeValueAsString(update) + "\n").getBytes(StandardCharsets.UTF_8)));
+					}
+					channel.force(true);
+				}
+				Files.move(temp, segment.getValue(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				for (MetadataUpdate update : updates) {
+					if (!live.contains(update.getSeq())) {
+						done.remove(update.getSeq());
+					}
+				}
+				LOG.info(String.format("Compacted the journal segment %s from %d to %d updates.",
+									   segment.getValue(), updates.size(), pending.size()));
+			}
+			checkpoint();
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to compact the journal " + directory, e);
+		}
+	}
+
+	/**
+	 * Reads the updates of a segment. A line which cannot be parsed, e.g. torn by a crash
+	 * while appending, is skipped.
+	 */
+	private List<MetadataUpdate> read(Path segment) throws IOException {
+		List<MetadataUpdate> updates = Lists.newArrayList();
+		try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				try {
+					updates.add(mapper.readValue(line, MetadataUpdate.class));
+				} catch (IOException e) {
+					LOG.warn(String.format("Skips an unreadable update in the journal segment %s: %s", segment, e));
+				}
+			}
+		}
+		return updates;
+	}
+
+	private static String segmentName(long firstSeq) {
+		return String.format("%s%020d%s", SEGMENT_PREFIX, firstSeq, SEGMENT_SUFFIX);
+	}
+
+	/**
+	 * @return the number of updates appended and not done yet
+	 */
+	public synchronized int getPendingCount() {
+		return live.size();
+	}
+
+	/**
+	 * @return the sequence number up to which all updates are done
+	 */
+	public synchronized long getWatermark() {
+		return watermark;
+	}
+
+	/**
+	 * @return the sequence number of the last appended update
+	 */
+	public synchronized long getLastSeq() {
+		return lastSeq;
+	}
+
+	/**
+	 * Forces the active segment to disk and closes it.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (fsyncTimer != null) {
+			fsyncTimer.shutdownNow();
+		}
+		closeActive();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("WriteJournal[%s, segments=%d, pending=%d, watermark=%d, last=%d]",
+							 directory, segments.size(), live.size(), watermark, lastSeq);
+	}
+
+}
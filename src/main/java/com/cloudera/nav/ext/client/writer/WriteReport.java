@@ -0,0 +1,157 @@
+package com.cloudera.nav.ext.client.writer;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import com.cloudera.nav.ext.model.EntityKey;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Outcome of writing a batch to Navigator, per entity: written (possibly after retries),
+ * permanently failed with the last error, or not found in Navigator.
+ * Instances are thread-safe.
+ */
+public class WriteReport {
+
+	private final Set<EntityKey> succeeded = Sets.newLinkedHashSet();
+	private final Set<EntityKey> retried = Sets.newLinkedHashSet();
+	private final Map<EntityKey, String> failed = Maps.newLinkedHashMap();
+	private final Set<EntityKey> missing = Sets.newLinkedHashSet();
+	private final Set<EntityKey> unchanged = Sets.newLinkedHashSet();
+	private final Set<EntityKey> reduced = Sets.newLinkedHashSet();
+	private int requestCount;
+
+	synchronized void addSucceeded(EntityKey key, boolean afterRetry) {
+		succeeded.add(key);
+		if (afterRetry) {
+			retried.add(key);
+		}
+	}
+
+	synchronized void addFailed(EntityKey key, String error) {
+		failed.put(key, error);
+	}
+
+	synchronized void addMissing(Collection<EntityKey> keys) {
+		missing.addAll(keys);
+	}
+
+	synchronized void addUnchanged(EntityKey key) {
+		unchanged.add(key);
+	}
+
+	synchronized void addReduced(EntityKey key) {
+		reduced.add(key);
+	}
+
+	synchronized void addRequest() {
+		requestCount++;
+	}
+
+	/**
+	 * Adds the outcomes of another report, e.g. of an earlier flush.
+	 *
+	 * @param other	Report to merge into this one
+	 */
+	public synchronized void merge(WriteReport other) {
+		synchronized (other) {
+			succeeded.addAll(other.succeeded);
+			retried.addAll(other.retried);
+			failed.putAll(other.failed);
+			missing.addAll(other.missing);
+			unchanged.addAll(other.unchanged);
+			reduced.addAll(other.reduced);
+			requestCount += other.requestCount;
+		}
+	}
+
+	/**
+	 * @return the entities written to Navigator, including those written after retries
+	 */
+	public synchronized Set<EntityKey> getSucceeded() {
+		return ImmutableSet.copyOf(succeeded);
+	}
+
+	/**
+	 * @return the entities written to Navigator only after one or more retries
+	 */
+	public synchronized Set<EntityKey> getRetried() {
+		return ImmutableSet.copyOf(retried);
+	}
+
+	/**
+	 * @return the entities which could not be written, with the last error
+	 */
+	public synchronized Map<EntityKey, String> getFailed() {
+		return ImmutableMap.copyOf(failed);
+	}
+
+	/**
+	 * @return the entities not found in Navigator, which were not written
+	 */
+	public synchronized Set<EntityKey> getMissing() {
+		return ImmutableSet.copyOf(missing);
+	}
+
+	/**
+	 * @return the entities not written because their metadata in Navigator is already as requested, 
+	 * i.e. the writes avoided in diff mode
+	 */
+	public synchronized Set<EntityKey> getUnchanged() {
+		return ImmutableSet.copyOf(unchanged);
+	}
+
+	/**
+	 * @return the entities written with only the metadata that differs from Navigator, in diff mode
+	 */
+	public synchronized Set<EntityKey> getReduced() {
+		return ImmutableSet.copyOf(reduced);
+	}
+
+	/**
+	 * @return the number of write requests sent, including retries
+	 */
+	public synchronized int getRequestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * @return whether some entities were not written
+	 */
+	public synchronized boolean hasErrors() {
+		return !failed.isEmpty() || !missing.isEmpty();
+	}
+
+	/**
+	 * @param key	Natural key of an entity of the batch
+	 * @return Returns why the entity was not written, or null if it was written.
+	 */
+	public synchronized String getError(EntityKey key) {
+		if (failed.containsKey(key)) {
+			return failed.get(key);
+		} else if (missing.contains(key)) {
+			return "Entity not found in Navigator: " + key;
+		}
+		return null;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder(String.format(
+				"WriteReport[requests=%d, succeeded=%d, retried=%d, failed=%d, missing=%d, unchanged=%d, reduced=%d]",
+				requestCount, succeeded.size(), retried.size(), failed.size(), missing.size(), 
+				unchanged.size(), reduced.size()));
+		for (Map.Entry<EntityKey, String> entry : failed.entrySet()) {
+			sb.append("\nFailed ").append(entry.getKey()).append(": ").append(entry.getValue());
+		}
+		if (!missing.isEmpty()) {
+			sb.append("\nNot found in Navigator: ").append(missing);
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,215 @@
+package com.cloudera.nav.ext.model;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.cloudera.nav.sdk.model.SourceType;
+import com.cloudera.nav.sdk.model.entities.EntityType;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The natural key of an entity, i.e. the attributes that uniquely identify an entity
+ * inside a source without knowing its Navigator identity:
+ * HDFS entities are identified by the file system path, Hive entities by
+ * database name, table (or view) name and column name.
+ */
+public final class EntityKey {
+
+	private final SourceType sourceType; //HDFS or HIVE
+	private final String sourceId; //Source identity, null matches any source
+	private final String entityType; //DATABASE, TABLE, VIEW, FIELD, DIRECTORY or FILE
+	private final List<String> names; //Natural key components
+
+	private EntityKey(SourceType sourceType, String sourceId, String entityType, List<String> names) {
+		Preconditions.checkArgument(sourceType != null, "Argument sourceType cannot be null");
+		Preconditions.checkArgument(StringUtils.isNotEmpty(entityType), "Argument entityType cannot be null");
+		Preconditions.checkArgument(names != null && !names.isEmpty(), "Argument names cannot be empty");
+		for (String name : names) {
+			Preconditions.checkArgument(StringUtils.isNotEmpty(name), "Natural key component cannot be empty");
+		}
+		this.sourceType = sourceType;
+		this.sourceId = sourceId;
+		this.entityType = entityType;
+		this.names = ImmutableList.copyOf(names);
+	}
+
+	/**
+	 * Creates the key of a HDFS directory or file.
+	 *
+	 * @param sourceId	HDFS source identity (may be null)
+	 * @param type		Entity type (DIRECTORY or FILE)
+	 * @param path		File system path, like: /user/user1/fileA
+	 */
+	public static EntityKey ofHdfs(String sourceId, EntityType type, String path) {
+		return new EntityKey(SourceType.HDFS, sourceId, type.name(), ImmutableList.of(path));
+	}
+
+	/**
+	 * Creates the key of a Hive database.
+	 *
+	 * @param sourceId		Hive source identity (may be null)
+	 * @param databaseName	Database name
+	 */
+	public static EntityKey ofHiveDatabase(String sourceId, String databaseName) {
+		return new EntityKey(SourceType.HIVE, sourceId, EntityType.DATABASE.name(),
+							 ImmutableList.of(databaseName));
+	}
+
+	/**
+	 * Creates the key of a Hive table.
+	 *
+	 * @param sourceId		Hive source identity (may be null)
+	 * @param databaseName	Database name
+	 * @param tableName		Table name
+	 */
+	public static EntityKey ofHiveTable(String sourceId, String databaseName, String tableName) {
+		return new EntityKey(SourceType.HIVE, sourceId, EntityType.TABLE.name(),
+							 ImmutableList.of(databaseName, tableName));
+	}
+
+	/**
+	 * Creates the key of a Hive view.
+	 *
+	 * @param sourceId		Hive source identity (may be null)
+	 * @param databaseName	Database name
+	 * @param viewName		View name
+	 */
+	public static EntityKey ofHiveView(String sourceId, String databaseName, String viewName) {
+		return new EntityKey(SourceType.HIVE, sourceId, "VIEW",
+							 ImmutableList.of(databaseName, viewName));
+	}
+
+	/**
+	 * Creates the key of a Hive field.
+	 *
+	 * @param sourceId		Hive source identity (may be null)
+	 * @param databaseName	Database name
+	 * @param tableName		Table name
+	 * @param fieldName		Column name
+	 */
+	public static EntityKey ofHiveField(String sourceId, String databaseName, String tableName, String fieldName) {
+		return new EntityKey(SourceType.HIVE, sourceId, EntityType.FIELD.name(),
+							 ImmutableList.of(databaseName, tableName, fieldName));
+	}
+
+	/**
+	 * Creates the key of a Hive entity from its type name.
+	 *
+	 * @param sourceId		Hive source identity (may be null)
+	 * @param type			Entity type (DATABASE, TABLE, VIEW, FIELD)
+	 * @param databaseName	Database name
+	 * @param tableName		Table or view name, ignored for databases
+	 * @param fieldName		Column name, ignored for databases, tables and views
+	 */
+	public static EntityKey ofHive(String sourceId, String type, String databaseName, String tableName, String fieldName) {
+		if (EntityType.DATABASE.name().equals(type)) {
+			return ofHiveDatabase(sourceId, databaseName);
+		} else if (EntityType.TABLE.name().equals(type)) {
+			return ofHiveTable(sourceId, databaseName, tableName);
+		} else if ("VIEW".equals(type)) {
+			return ofHiveView(sourceId, databaseName, tableName);
+		} else if (EntityType.FIELD.name().equals(type)) {
+			return ofHiveField(sourceId, databaseName, tableName, fieldName);
+		}
+		throw new IllegalArgumentException("Unsupported Hive entity type: " + type);
+	}
+
+	/**
+	 * Returns a copy of this key bound to the given source.
+	 *
+	 * @param sourceId	Source identity (may be null)
+	 */
+	public EntityKey withSourceId(String sourceId) {
+		return new EntityKey(sourceType, sourceId, entityType, names);
+	}
+
+	public SourceType getSourceType() {
+		return sourceType;
+	}
+
+	public String getSourceId() {
+		return sourceId;
+	}
+
+	public String getEntityType() {
+		return entityType;
+	}
+
+	public List<String> getNames() {
+		return names;
+	}
+
+	/**
+	 * @return the original name of the entity, i.e. the last natural key component.
+	 * For HDFS entities this is the full file system path.
+	 */
+	public String getName() {
+		return names.get(names.size() - 1);
+	}
+
+	/**
+	 * @return the path of the entity: the file system path for HDFS entities and
+	 * /database/table/column for Hive entities
+	 */
+	public String getPath() {
+		if (SourceType.HDFS.equals(sourceType)) {
+			return names.get(0);
+		}
+		return "/" + Joiner.on("/").join(names);
+	}
+
+	/**
+	 * @return the parent path of the entity as indexed by Navigator,
+	 * null for Hive databases
+	 */
+	public String getParentPath() {
+		String path = getPath();
+		if (SourceType.HIVE.equals(sourceType) && names.size() == 1) {
+			return null;
+		}
+		String parentPath = path.substring(0, path.lastIndexOf("/"));
+		return StringUtils.isEmpty(parentPath) ? "/" : parentPath;
+	}
+
+	/**
+	 * @return the parent path components, empty for HDFS entities and Hive databases
+	 */
+	public List<String> getParentNames() {
+		if (SourceType.HDFS.equals(sourceType)) {
+			return Collections.emptyList();
+		}
+		return names.subList(0, names.size() - 1);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof EntityKey)) {
+			return false;
+		}
+		EntityKey other = (EntityKey) obj;
+		return Objects.equal(sourceType, other.sourceType)
+				&& Objects.equal(sourceId, other.sourceId)
+				&& Objects.equal(entityType, other.entityType)
+				&& Objects.equal(names, other.names);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(sourceType, sourceId, entityType, names);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s:%s:%s%s", sourceType, entityType, getPath(),
+							 sourceId == null ? "" : "@" + sourceId);
+	}
+
+}
@@ -0,0 +1,86 @@
+package com.cloudera.nav.ext.model;
+
+import java.util.Map;
+
+import com.cloudera.nav.sdk.model.entities.EntityType;
+import com.google.common.base.Objects;
+
+/**
+ * A lightweight reference to a HDFS directory or file extracted from Navigator:
+ * only its identity, source and path, without the rest of the metadata.
+ */
+public final class HdfsEntityRef {
+
+	private final String identity;
+	private final String sourceId;
+	private final EntityType type; //DIRECTORY or FILE
+	private final String fileSystemPath;
+
+	public HdfsEntityRef(String identity, String sourceId, EntityType type, String fileSystemPath) {
+		this.identity = identity;
+		this.sourceId = sourceId;
+		this.type = type;
+		this.fileSystemPath = fileSystemPath;
+	}
+
+	/**
+	 * Builds a reference from an extracted HDFS entity.
+	 *
+	 * @param entity	Extracted entity, with at least the fields identity, sourceId, type and fileSystemPath
+	 */
+	public static HdfsEntityRef of(Map<String, Object> entity) {
+		return new HdfsEntityRef((String) entity.get("identity"),
+								 (String) entity.get("sourceId"),
+								 EntityType.valueOf((String) entity.get("type")),
+								 (String) entity.get("fileSystemPath"));
+	}
+
+	public String getIdentity() {
+		return identity;
+	}
+
+	public String getSourceId() {
+		return sourceId;
+	}
+
+	public EntityType getType() {
+		return type;
+	}
+
+	public String getFileSystemPath() {
+		return fileSystemPath;
+	}
+
+	/**
+	 * @return the natural key of the referenced entity
+	 */
+	public EntityKey toEntityKey() {
+		return EntityKey.ofHdfs(sourceId, type, fileSystemPath);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof HdfsEntityRef)) {
+			return false;
+		}
+		HdfsEntityRef other = (HdfsEntityRef) obj;
+		return Objects.equal(identity, other.identity)
+				&& Objects.equal(sourceId, other.sourceId)
+				&& Objects.equal(type, other.type)
+				&& Objects.equal(fileSystemPath, other.fileSystemPath);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(identity, sourceId, type, fileSystemPath);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s:%s[%s]", type, fileSystemPath, identity);
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.cloudera.nav.ext.model;
+
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.base.Objects;
+
+/**
+ * A lightweight reference to a Hive table or view extracted from Navigator:
+ * only its identity, source, database and name, without the rest of the metadata.
+ */
+public final class HiveTableRef {
+
+	private final String identity;
+	private final String sourceId;
+	private final String databaseName;
+	private final String tableName;
+	private final boolean view;
+
+	public HiveTableRef(String identity, String sourceId, String databaseName, String tableName, boolean view) {
+		this.identity = identity;
+		this.sourceId = sourceId;
+		this.databaseName = databaseName;
+		this.tableName = tableName;
+		this.view = view;
+	}
+
+	/**
+	 * Builds a reference from an extracted Hive table or view, whose parent path is /database.
+	 *
+	 * @param entity	Extracted entity, with at least the fields identity, sourceId, type, originalName and parentPath
+	 */
+	public static HiveTableRef of(Map<String, Object> entity) {
+		return new HiveTableRef((String) entity.get("identity"),
+								(String) entity.get("sourceId"),
+								StringUtils.removeStart((String) entity.get("parentPath"), "/"),
+								(String) entity.get("originalName"),
+								"VIEW".equals(entity.get("type")));
+	}
+
+	public String getIdentity() {
+		return identity;
+	}
+
+	public String getSourceId() {
+		return sourceId;
+	}
+
+	public String getDatabaseName() {
+		return databaseName;
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public boolean isView() {
+		return view;
+	}
+
+	/**
+	 * @return the natural key of the referenced table or view
+	 */
+	public EntityKey toEntityKey() {
+		return view ? EntityKey.ofHiveView(sourceId, databaseName, tableName)
+				: EntityKey.ofHiveTable(sourceId, databaseName, tableName);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof HiveTableRef)) {
+			return false;
+		}
+		HiveTableRef other = (HiveTableRef) obj;
+		return Objects.equal(identity, other.identity)
+				&& Objects.equal(sourceId, other.sourceId)
+				&& Objects.equal(databaseName, other.databaseName)
+				&& Objects.equal(tableName, other.tableName)
+				&& view == other.view;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(identity, sourceId, databaseName, tableName, view);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s:%s.%s[%s]", view ? "VIEW" : "TABLE", databaseName, tableName, identity);
+	}
+
+}
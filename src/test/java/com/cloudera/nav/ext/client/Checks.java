@@ -0,0 +1,47 @@
+package com.cloudera.nav.ext.client;
+
+import java.util.Objects;
+
+/**
+ * Assertions of the test drivers, which fail with an AssertionError whatever the JVM flags.
+ */
+public final class Checks {
+
+	private Checks() {
+	}
+
+	/**
+	 * Code expected to throw.
+	 */
+	public interface Block {
+		void run() throws Exception;
+	}
+
+	public static void check(boolean condition, String message, Object... args) {
+		if (!condition) {
+			throw new AssertionError(String.format(message, args));
+		}
+	}
+
+	public static void checkEquals(Object expected, Object actual) {
+		if (!Objects.equals(expected, actual)) {
+			throw new AssertionError(String.format("Expected <%s> but was <%s>", expected, actual));
+		}
+	}
+
+	/**
+	 * @return Returns the exception thrown by the block, which must be of the given type.
+	 */
+	public static <T extends Throwable> T checkThrows(Class<T> type, Block block) {
+		try {
+			block.run();
+		} catch (Throwable t) {
+			if (type.isInstance(t)) {
+				return type.cast(t);
+			}
+			throw new AssertionError(String.format("Expected %s but was %s", type.getName(), t), t);
+		}
+		throw new AssertionError(String.format("Expected %s but nothing was thrown", type.getName()));
+	}
+
+}
@@ -0,0 +1,191 @@
+package com.cloudera.nav.ext.client;
+
+import static com.cloudera.nav.ext.client.Checks.check;
+import static com.cloudera.nav.ext.client.Checks.checkEquals;
+import static com.cloudera.nav.ext.client.Checks.checkThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.net.util.Base64;
+
+import com.cloudera.nav.ext.client.Checks.Block;
+import com.cloudera.nav.ext.client.HttpTransport.Response;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Sends requests to a local HTTP server: no Navigator server is needed.
+ */
+public class PooledHttpTransportTest {
+
+	private static final String JSON = "[{\"name\":\"model1\"}]";
+
+	private static final List<Integer> clientPorts = Lists.newCopyOnWriteArrayList(); //Remote port of each request
+
+	public static void main(String[] args) throws Exception {
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		ExecutorService handlers = Executors.newCachedThreadPool();
+		server.setExecutor(handlers);
+		server.createContext("/plain", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				clientPorts.add(exchange.getRemoteAddress().getPort());
+				String expected = "Basic " + new String(Base64.encodeBase64(
+						"user1:secret".getBytes(StandardCharsets.UTF_8)), StandardCharsets.US_ASCII);
+				int status = expected.equals(exchange.getRequestHeaders().getFirst("Authorization")) ? 200 : 401;
+				if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					status = 304;
+				}
+				exchange.getResponseHeaders().set("ETag", "\"v1\"");
+				respond(exchange, status, status == 304 ? new byte[0] : JSON.getBytes(StandardCharsets.UTF_8));
+			}
+		});
+		server.createContext("/gzip", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				check("gzip".equals(exchange.getRequestHeaders().getFirst("Accept-Encoding")), "gzip is accepted");
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+					out.write(JSON.getBytes(StandardCharsets.UTF_8));
+				}
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				respond(exchange, 200, compressed.toByteArray());
+			}
+		});
+		server.createContext("/slow", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				sleep(2000);
+				respond(exchange, 200, JSON.getBytes(StandardCharsets.UTF_8));
+			}
+		});
+		server.createContext("/trickle", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(200, 0);
+				try (OutputStream out = exchange.getResponseBody()) {
+					for (int i = 0; i < 30; i++) {
+						out.write(' ');
+						out.flush();
+						sleep(100);
+					}
+				} catch (IOException e) {
+					//The client aborted
+				}
+			}
+		});
+		server.start();
+		String base = "http://127.0.0.1:" + server.getAddress().getPort();
+		try {
+			testPlain(base);
+			testGzip(base);
+			testReadTimeout(base);
+			testRequestTimeout(base);
+			testUnsupportedMethod(base);
+		} finally {
+			server.stop(0);
+			handlers.shutdownNow();
+		}
+		System.out.println("PooledHttpTransportTest passed");
+	}
+
+	private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Sends the credentials and the headers, and reuses the connection of a closed response.
+	 */
+	private static void testPlain(String base) throws Exception {
+		try (PooledHttpTransport transport = new PooledHttpTransport("user1", "secret", 2)) {
+			try (Response response = transport.execute("GET", base + "/plain", null)) {
+				checkEquals(200, response.getStatusCode());
+				checkEquals("\"v1\"", response.getHeader("ETag"));
+				checkEquals(JSON, IOUtils.toString(response.getBody(), StandardCharsets.UTF_8));
+			}
+			try (Response response = transport.execute("GET", base + "/plain", null, ImmutableMap.of("If-None-Match", "\"v1\""))) {
+				checkEquals(304, response.getStatusCode());
+				checkEquals("", IOUtils.toString(response.getBody(), StandardCharsets.UTF_8));
+			}
+			checkEquals(2, clientPorts.size());
+			checkEquals(clientPorts.get(0), clientPorts.get(1));
+		}
+	}
+
+	private static void testGzip(String base) throws Exception {
+		try (PooledHttpTransport transport = new PooledHttpTransport("user1", "secret", 2);
+				Response response = transport.execute("GET", base + "/gzip", null)) {
+			checkEquals(200, response.getStatusCode());
+			checkEquals(JSON, IOUtils.toString(response.getBody(), StandardCharsets.UTF_8));
+		}
+	}
+
+	private static void testReadTimeout(final String base) throws Exception {
+		try (final PooledHttpTransport transport = new PooledHttpTransport("user1", "secret", 2)) {
+			transport.setReadTimeoutMs(200);
+			long start = System.currentTimeMillis();
+			checkThrows(IOException.class, new Block() {
+				@Override
+				public void run() throws Exception {
+					transport.execute("GET", base + "/slow", null).close();
+				}
+			});
+			check(System.currentTimeMillis() - start < 1500, "The read timed out");
+		}
+	}
+
+	/**
+	 * A response trickling in faster than the read timeout is aborted at the request timeout:
+	 * reading its body fails, or ends early.
+	 */
+	private static void testRequestTimeout(String base) throws Exception {
+		try (PooledHttpTransport transport = new PooledHttpTransport("user1", "secret", 2)) {
+			transport.setReadTimeoutMs(1000);
+			transport.setRequestTimeoutMs(500);
+			long start = System.currentTimeMillis();
+			String body = null;
+			try (Response response = transport.execute("GET", base + "/trickle", null)) {
+				body = IOUtils.toString(response.getBody(), StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				//Aborted
+			}
+			check(System.currentTimeMillis() - start < 2500, "The request was aborted");
+			check(body == null || body.length() < 30, "The body was cut: %s", body);
+		}
+	}
+
+	private static void testUnsupportedMethod(final String base) throws Exception {
+		try (final PooledHttpTransport transport = new PooledHttpTransport("user1", "secret", 2)) {
+			checkThrows(IllegalArgumentException.class, new Block() {
+				@Override
+				public void run() throws Exception {
+					transport.execute("PATCH", base + "/plain", null);
+				}
+			});
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+package com.cloudera.nav.ext.client.extraction;
+
+import static com.cloudera.nav.ext.client.Checks.check;
+import static com.cloudera.nav.ext.client.Checks.checkEquals;
+import static com.cloudera.nav.ext.client.Checks.checkThrows;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.cloudera.nav.ext.client.Checks.Block;
+import com.cloudera.nav.sdk.client.MetadataExtractor;
+import com.cloudera.nav.sdk.client.MetadataResultSet;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Walks fake directory trees: no Navigator server is needed.
+ */
+public class HdfsSubtreeScanTest {
+
+	/**
+	 * Lists the children of directories from a map; listing a directory named fail throws.
+	 */
+	private static class FakeExtractor extends MetadataExtractor {
+		private final Map<String, List<Map<String, Object>>> children = Maps.newHashMap();
+
+		FakeExtractor() {
+			super(null, null);
+		}
+
+		FakeExtractor add(String parent, String name, boolean directory) {
+			List<Map<String, Object>> list = children.get(parent);
+			if (list == null) {
+				list = Lists.newArrayList();
+				children.put(parent, list);
+			}
+			list.add(ImmutableMap.<String, Object>of("fileSystemPath", parent + "/" + name,
+					"type", directory ? "DIRECTORY" : "FILE"));
+			return this;
+		}
+
+		@Override
+		public MetadataResultSet extractMetadata(String startMarker, String endMarker,
+												 String entitiesQuery, String relationsQuery) {
+			String path = entitiesQuery.substring(entitiesQuery.indexOf("parentPath:\"") + 12, entitiesQuery.length() - 1);
+			if (path.endsWith("/fail")) {
+				throw new IllegalStateException("Listing failed: " + path);
+			}
+			List<Map<String, Object>> list = children.get(path);
+			return new MetadataResultSet(null, list == null ? Collections.<Map<String, Object>>emptyList() : list,
+										 Collections.<Map<String, Object>>emptyList());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		testWalk();
+		testDepthLimit();
+		testFailureWithFullQueue();
+		testClose();
+		System.out.println("HdfsSubtreeScanTest passed");
+	}
+
+	private static void testWalk() throws Exception {
+		FakeExtractor extractor = new FakeExtractor()
+				.add("/root", "a", true).add("/root", "f1", false)
+				.add("/root/a", "b", true).add("/root/a", "f2", false)
+				.add("/root/a/b", "f3", false);
+		HdfsSubtreeScan scan = new HdfsSubtreeScan(extractor, "/root", 0, null, 2, 2);
+		List<Object> paths = Lists.newArrayList();
+		while (scan.hasNext()) {
+			paths.add(scan.next().get("fileSystemPath"));
+		}
+		checkEquals(5, paths.size());
+		check(paths.contains("/root/a/b/f3"), "Missing the deepest file: %s", paths);
+		checkEquals(3L, scan.getDirectoryCount());
+		awaitTermination(scan);
+	}
+
+	private static void testDepthLimit() throws Exception {
+		FakeExtractor extractor = new FakeExtractor()
+				.add("/root", "a", true).add("/root/a", "f2", false);
+		HdfsSubtreeScan scan = new HdfsSubtreeScan(extractor, "/root", 1, null, 2, 2);
+		checkEquals(1L, scan.stream().count());
+		checkEquals(1L, scan.getDirectoryCount());
+	}
+
+	/**
+	 * A failing directory among siblings which keep filling a small queue must surface as an
+	 * error, not hang the consumer.
+	 */
+	private static void testFailureWithFullQueue() throws Exception {
+		FakeExtractor extractor = new FakeExtractor();
+		for (int i = 0; i < 20; i++) {
+			extractor.add("/root", "d" + i, true);
+			for (int j = 0; j < 50; j++) {
+				extractor.add("/root/d" + i, "f" + j, false);
+			}
+		}
+		extractor.add("/root", "fail", true);
+		final HdfsSubtreeScan scan = new HdfsSubtreeScan(extractor, "/root", 0, null, 4, 1);
+		//Lets the siblings fill the queue before consuming
+		Thread.sleep(200);
+		ExecutorService consumer = Executors.newSingleThreadExecutor();
+		try {
+			Future<IllegalStateException> error = consumer.submit(new Callable<IllegalStateException>() {
+				@Override
+				public IllegalStateException call() {
+					return checkThrows(IllegalStateException.class, new Block() {
+						@Override
+						public void run() {
+							while (scan.hasNext()) {
+								scan.next();
+							}
+						}
+					});
+				}
+			});
+			check(error.get(10, TimeUnit.SECONDS).getMessage().contains("/root/fail"), "Unexpected error");
+		} finally {
+			consumer.shutdownNow();
+		}
+		check(!scan.hasNext(), "The scan goes on after its failure");
+		awaitTermination(scan);
+	}
+
+	private static void testClose() throws Exception {
+		FakeExtractor extractor = new FakeExtractor();
+		for (int i = 0; i < 100; i++) {
+			extractor.add("/root", "f" + i, false);
+		}
+		HdfsSubtreeScan scan = new HdfsSubtreeScan(extractor, "/root", 0, null, 2, 1);
+		check(scan.hasNext(), "Expected an entity");
+		scan.next();
+		scan.close();
+		check(!scan.hasNext(), "The scan goes on after close");
+		awaitTermination(scan);
+	}
+
+	private static void awaitTermination(HdfsSubtreeScan scan) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!scan.isTerminated() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		check(scan.isTerminated(), "The pool of the scan is still running");
+	}
+
+}
@@ -0,0 +1,135 @@
+package com.cloudera.nav.ext.client.extraction;
+
+import static com.cloudera.nav.ext.client.Checks.check;
+import static com.cloudera.nav.ext.client.Checks.checkEquals;
+import static com.cloudera.nav.ext.client.Checks.checkThrows;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.cloudera.nav.ext.client.Checks.Block;
+import com.cloudera.nav.ext.client.extraction.MetaExtractor.PageHandler;
+import com.cloudera.nav.sdk.client.MetadataExtractor;
+import com.cloudera.nav.sdk.client.MetadataResultSet;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Interrupts and resumes incremental extractions of a fake extractor: no Navigator server is needed.
+ */
+public class IncrementalExtractionTest {
+
+	/**
+	 * Extracts e0 to e9 up to the marker m1, in reverse order on every other call, and e10 since m1.
+	 */
+	private static class FakeExtractor extends MetadataExtractor {
+		int calls;
+
+		FakeExtractor() {
+			super(null, null);
+		}
+
+		@Override
+		public MetadataResultSet extractMetadata(String startMarker, String endMarker,
+												 String entitiesQuery, String relationsQuery) {
+			List<Map<String, Object>> entities = Lists.newArrayList();
+			if ("m1".equals(startMarker)) {
+				entities.add(entity("e10"));
+				return new MetadataResultSet("m2", entities, Collections.<Map<String, Object>>emptyList());
+			}
+			for (int i = 0; i < 10; i++) {
+				entities.add(entity("e" + i));
+			}
+			if (calls++ % 2 == 1) {
+				Collections.reverse(entities);
+			}
+			return new MetadataResultSet("m1", entities, Collections.<Map<String, Object>>emptyList());
+		}
+	}
+
+	/**
+	 * Records the handled entities, and fails on the page number {@link #failAt} (from 1).
+	 */
+	private static class RecordingHandler implements PageHandler {
+		final List<String> handled = Lists.newArrayList();
+		int pages;
+		int failAt;
+
+		@Override
+		public void handle(List<Map<String, Object>> entities) {
+			if (++pages == failAt) {
+				throw new IllegalStateException("Handler failed");
+			}
+			for (Map<String, Object> entity : entities) {
+				handled.add((String) entity.get("identity"));
+			}
+		}
+	}
+
+	private static Map<String, Object> entity(String identity) {
+		return ImmutableMap.<String, Object>of("identity", identity);
+	}
+
+	public static void main(String[] args) throws Exception {
+		testResumeInOtherOrder();
+		testTornHandledFile();
+		System.out.println("IncrementalExtractionTest passed");
+	}
+
+	/**
+	 * A run interrupted after one page resumes with the entities in another order: every entity
+	 * is handled once, then the next run starts from the end marker.
+	 */
+	private static void testResumeInOtherOrder() throws Exception {
+		final File checkpointFile = new File(Files.createTempDirectory("checkpoint").toFile(), "run.json");
+		final FakeExtractor extractor = new FakeExtractor();
+		final RecordingHandler handler = new RecordingHandler();
+		handler.failAt = 2;
+		checkThrows(IllegalStateException.class, new Block() {
+			@Override
+			public void run() throws Exception {
+				MetaExtractor.extractIncrementally(extractor, 3, "query", checkpointFile, handler);
+			}
+		});
+		checkEquals(Lists.newArrayList("e0", "e1", "e2"), handler.handled);
+		ExtractionCheckpoint checkpoint = ExtractionCheckpoint.load(checkpointFile);
+		check(checkpoint.isInProgress(), "The interrupted run is in progress");
+		checkEquals("m1", checkpoint.getEndMarker());
+		checkEquals(ImmutableSet.of("e0", "e1", "e2"), ExtractionCheckpoint.loadHandled(checkpointFile));
+
+		handler.failAt = 0;
+		checkEquals(7L, MetaExtractor.extractIncrementally(extractor, 3, "query", checkpointFile, handler));
+		checkEquals(10, handler.handled.size());
+		checkEquals(10, Sets.newHashSet(handler.handled).size());
+		checkEquals("e9", handler.handled.get(3));
+		checkpoint = ExtractionCheckpoint.load(checkpointFile);
+		check(!checkpoint.isInProgress(), "The resumed run completed");
+		checkEquals("m1", checkpoint.getStartMarker());
+		check(!ExtractionCheckpoint.handledFile(checkpointFile).exists(), "The handled identities are forgotten");
+
+		checkEquals(1L, MetaExtractor.extractIncrementally(extractor, 3, "query", checkpointFile, handler));
+		checkEquals("e10", handler.handled.get(10));
+		checkEquals("m2", ExtractionCheckpoint.load(checkpointFile).getStartMarker());
+	}
+
+	/**
+	 * A line torn by a crash while appending is not taken as a handled identity.
+	 */
+	private static void testTornHandledFile() throws Exception {
+		File checkpointFile = new File(Files.createTempDirectory("checkpoint").toFile(), "run.json");
+		ExtractionCheckpoint.appendHandled(checkpointFile, Lists.newArrayList("e0", "e1"));
+		Files.write(ExtractionCheckpoint.handledFile(checkpointFile).toPath(), "e2".getBytes(StandardCharsets.UTF_8),
+					StandardOpenOption.APPEND);
+		checkEquals(ImmutableSet.of("e0", "e1"), ExtractionCheckpoint.loadHandled(checkpointFile));
+		ExtractionCheckpoint.deleteHandled(checkpointFile);
+		checkEquals(ImmutableSet.of(), ExtractionCheckpoint.loadHandled(checkpointFile));
+	}
+
+}
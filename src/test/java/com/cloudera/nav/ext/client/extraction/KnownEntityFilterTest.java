@@ -0,0 +1,68 @@
+package com.cloudera.nav.ext.client.extraction;
+
+import static com.cloudera.nav.ext.client.Checks.check;
+import static com.cloudera.nav.ext.client.Checks.checkEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+import com.cloudera.nav.ext.model.EntityKey;
+import com.cloudera.nav.sdk.model.entities.EntityType;
+import com.google.common.collect.ImmutableMap;
+
+public class KnownEntityFilterTest {
+
+	public static void main(String[] args) throws Exception {
+		testMixedEntities();
+		testSaveLoad();
+		System.out.println("KnownEntityFilterTest passed");
+	}
+
+	private static Map<String, Object> hive(String type, String parentPath, String name) {
+		return ImmutableMap.<String, Object>of("sourceType", "HIVE", "type", type, 
+											   "parentPath", parentPath, "originalName", name);
+	}
+
+	private static Map<String, Object> hdfs(String type, String path) {
+		return ImmutableMap.<String, Object>of("sourceType", "HDFS", "type", type, "fileSystemPath", path);
+	}
+
+	/**
+	 * A result set of the old default query also holds entities without natural key, which are skipped.
+	 */
+	private static void testMixedEntities() {
+		KnownEntityFilter filter = new KnownEntityFilter(KnownEntityFilter.DEFAULT_ENTITIES_QUERY, 1000, 0.001);
+		check(filter.put(hdfs("FILE", "/user/a/file1")), "HDFS file not added");
+		check(filter.put(hdfs("DIRECTORY", "/user/a")), "HDFS directory not added");
+		check(filter.put(hive("DATABASE", "", "sales")), "Hive database not added");
+		check(filter.put(hive("TABLE", "/sales", "orders")), "Hive table not added");
+		check(filter.put(hive("FIELD", "/sales/orders", "amount")), "Hive field not added");
+		check(!filter.put(hive("PARTITION", "/sales/orders", "day=1")), "Hive partition added");
+		check(!filter.put(hive("OPERATION", "", "select_1")), "Hive operation added");
+		check(!filter.put(hdfs("DATASET", "/user/a/set")), "HDFS dataset added");
+		check(!filter.put(ImmutableMap.<String, Object>of("sourceType", "PIG", "type", "OPERATION")), "Pig operation added");
+		checkEquals(5L, filter.getCount());
+
+		check(filter.mightExist(EntityKey.ofHdfs(null, EntityType.FILE, "/user/a/file1")), "File not found");
+		check(filter.mightExist(EntityKey.ofHiveField("source1", "sales", "orders", "amount")), 
+			  "Field with source not found");
+		check(!filter.mightExist(EntityKey.ofHiveTable(null, "sales", "customers")), "Unknown table found");
+	}
+
+	private static void testSaveLoad() throws Exception {
+		KnownEntityFilter filter = new KnownEntityFilter("sourceType:HDFS", 100, 0.01);
+		filter.put(EntityKey.ofHdfs(null, EntityType.DIRECTORY, "/tmp"));
+		filter.setMarker("marker1");
+		File file = new File(Files.createTempDirectory("filter").toFile(), "known.bloom");
+		filter.save(file);
+
+		KnownEntityFilter loaded = KnownEntityFilter.load(file);
+		checkEquals("sourceType:HDFS", loaded.getEntitiesQuery());
+		checkEquals("marker1", loaded.getMarker());
+		checkEquals(1L, loaded.getCount());
+		check(loaded.mightExist(EntityKey.ofHdfs(null, EntityType.DIRECTORY, "/tmp")), "Directory lost");
+		check(KnownEntityFilter.load(new File(file.getParentFile(), "missing")) == null, "Missing file loaded");
+	}
+
+}
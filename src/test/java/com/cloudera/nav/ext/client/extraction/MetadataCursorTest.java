@@ -0,0 +1,132 @@
+package com.cloudera.nav.ext.client.extraction;
+
+import static com.cloudera.nav.ext.client.Checks.check;
+import static com.cloudera.nav.ext.client.Checks.checkEquals;
+import static com.cloudera.nav.ext.client.Checks.checkThrows;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.cloudera.nav.ext.client.Checks.Block;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ * Iterates fake sources: no Navigator server is needed.
+ */
+public class MetadataCursorTest {
+
+	private static final Function<Map<String, Object>, Integer> ID = new Function<Map<String, Object>, Integer>() {
+		@Override
+		public Integer apply(Map<String, Object> entity) {
+			return (Integer) entity.get("id");
+		}
+	};
+
+	/**
+	 * Source of the entities 1 to size, which fails after failAfter entities if positive.
+	 * Fetching an entity takes a millisecond and swallows interruptions.
+	 */
+	private static Iterable<Map<String, Object>> source(final int size, final int failAfter) {
+		return new Iterable<Map<String, Object>>() {
+			@Override
+			public Iterator<Map<String, Object>> iterator() {
+				return new Iterator<Map<String, Object>>() {
+					private int id;
+
+					@Override
+					public boolean hasNext() {
+						return id < size;
+					}
+
+					@Override
+					public Map<String, Object> next() {
+						try {
+							Thread.sleep(1);
+						} catch (InterruptedException e) {
+							//Swallowed, like a blocking client may do
+						}
+						if (failAfter > 0 && id == failAfter) {
+							throw new IllegalStateException("Fetch failed");
+						}
+						return ImmutableMap.<String, Object>of("id", ++id);
+					}
+				};
+			}
+		};
+	}
+
+	public static void main(String[] args) throws Exception {
+		testOnDemand();
+		testPrefetch();
+		testErrorAfterPages();
+		testCloseWithSwallowedInterrupt();
+		System.out.println("MetadataCursorTest passed");
+	}
+
+	private static List<Integer> drain(MetadataCursor<Integer> cursor, List<Integer> results) {
+		while (cursor.hasNext()) {
+			results.add(cursor.next());
+		}
+		return results;
+	}
+
+	private static List<Integer> range(int size) {
+		List<Integer> ids = Lists.newArrayList();
+		for (int id = 1; id <= size; id++) {
+			ids.add(id);
+		}
+		return ids;
+	}
+
+	private static void testOnDemand() {
+		MetadataCursor<Integer> cursor = new MetadataCursor<Integer>(source(5, 0), ID, 2, 0);
+		checkEquals(range(5), drain(cursor, Lists.<Integer>newArrayList()));
+		checkEquals(5L, cursor.getCount());
+		check(!cursor.isFetching(), "No fetcher without prefetching");
+	}
+
+	private static void testPrefetch() {
+		MetadataCursor<Integer> cursor = new MetadataCursor<Integer>(source(10, 0), ID, 3, 2);
+		checkEquals(range(10), drain(cursor, Lists.<Integer>newArrayList()));
+		checkEquals(10L, cursor.getCount());
+		cursor.close();
+	}
+
+	/**
+	 * The pages fetched before a failure, including the partial one, are consumed before the error.
+	 */
+	private static void testErrorAfterPages() throws Exception {
+		final MetadataCursor<Integer> cursor = new MetadataCursor<Integer>(source(20, 7), ID, 3, 1);
+		//Lets the fetcher fail while the queue is full
+		Thread.sleep(100);
+		final List<Integer> results = Lists.newArrayList();
+		IllegalStateException e = checkThrows(IllegalStateException.class, new Block() {
+			@Override
+			public void run() {
+				drain(cursor, results);
+			}
+		});
+		checkEquals("Fetch failed", e.getMessage());
+		checkEquals(range(7), results);
+		check(!cursor.hasNext(), "The cursor ends after the error");
+	}
+
+	/**
+	 * Closing stops a fetcher blocked on a full queue even when the source swallows the interruption.
+	 */
+	private static void testCloseWithSwallowedInterrupt() throws Exception {
+		MetadataCursor<Integer> cursor = new MetadataCursor<Integer>(source(Integer.MAX_VALUE, 0), ID, 2, 1);
+		checkEquals(1, cursor.next());
+		cursor.close();
+		check(!cursor.hasNext(), "A closed cursor has no next entity");
+		long deadline = System.currentTimeMillis() + 5000;
+		while (cursor.isFetching() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		check(!cursor.isFetching(), "The fetcher is still running after close");
+	}
+
+}
@@ -0,0 +1,169 @@
+package com.cloudera.nav.ext.client.extraction;
+
+import static com.cloudera.nav.ext.client.Checks.check;
+import static com.cloudera.nav.ext.client.Checks.checkEquals;
+import static com.cloudera.nav.ext.client.Checks.checkThrows;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.cloudera.nav.ext.client.Checks.Block;
+import com.cloudera.nav.sdk.client.MetadataExtractor;
+import com.cloudera.nav.sdk.client.MetadataResultSet;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ * Scans fake partitions: no Navigator server is needed.
+ */
+public class ParallelScanTest {
+
+	private static final Function<Map<String, Object>, String> ID = new Function<Map<String, Object>, String>() {
+		@Override
+		public String apply(Map<String, Object> entity) {
+			return (String) entity.get("identity");
+		}
+	};
+
+	/**
+	 * Extracts size entities for the query name:size, named name-0 to name-(size-1); the query
+	 * fail throws. Fetching an entity takes a millisecond and swallows interruptions.
+	 */
+	private static class FakeExtractor extends MetadataExtractor {
+
+		FakeExtractor() {
+			super(null, null);
+		}
+
+		@Override
+		public MetadataResultSet extractMetadata(String startMarker, String endMarker,
+												 String entitiesQuery, String relationsQuery) {
+			if ("fail".equals(entitiesQuery)) {
+				throw new IllegalStateException("Query failed");
+			}
+			final String name = entitiesQuery.substring(0, entitiesQuery.indexOf(':'));
+			final int size = Integer.parseInt(entitiesQuery.substring(entitiesQuery.indexOf(':') + 1));
+			Iterable<Map<String, Object>> entities = new Iterable<Map<String, Object>>() {
+				@Override
+				public Iterator<Map<String, Object>> iterator() {
+					return new Iterator<Map<String, Object>>() {
+						private int next;
+
+						@Override
+						public boolean hasNext() {
+							return next < size;
+						}
+
+						@Override
+						public Map<String, Object> next() {
+							try {
+								Thread.sleep(1);
+							} catch (InterruptedException e) {
+								//Swallowed, like a blocking client may do
+							}
+							return ImmutableMap.<String, Object>of("identity", name + "-" + next++);
+						}
+					};
+				}
+			};
+			return new MetadataResultSet(null, entities, Collections.<Map<String, Object>>emptyList());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		testUnordered();
+		testByPartition();
+		testFailure();
+		testClose();
+		System.out.println("ParallelScanTest passed");
+	}
+
+	private static ParallelScan<String> newScan(String... queries) {
+		List<ScanPartition> partitions = Lists.newArrayList();
+		for (String query : queries) {
+			partitions.add(new ScanPartition(query, query));
+		}
+		return new ParallelScan<String>(new FakeExtractor(), partitions, ID, 2);
+	}
+
+	private static List<String> expected(String name, int size) {
+		List<String> ids = Lists.newArrayList();
+		for (int i = 0; i < size; i++) {
+			ids.add(name + "-" + i);
+		}
+		return ids;
+	}
+
+	private static void testUnordered() {
+		ParallelScan<String> scan = newScan("a:5", "b:0", "c:7").setParallelism(2);
+		List<String> results = Lists.newArrayList(scan);
+		checkEquals(12, results.size());
+		List<String> expected = Lists.newArrayList(expected("a", 5));
+		expected.addAll(expected("c", 7));
+		Collections.sort(results);
+		checkEquals(expected, results);
+		for (ParallelScan.Progress progress : scan.getProgress()) {
+			checkEquals(ParallelScan.State.DONE, progress.getState());
+		}
+		checkEquals(5L, scan.getProgress().get(0).getEntities());
+		checkEquals(3, scan.getProgress().get(0).getPages());
+		scan.close();
+	}
+
+	private static void testByPartition() {
+		ParallelScan<String> scan = newScan("a:5", "b:3", "c:4").setParallelism(3)
+				.setOrdering(ParallelScan.Ordering.BY_PARTITION).setQueuePages(1);
+		List<String> expected = Lists.newArrayList(expected("a", 5));
+		expected.addAll(expected("b", 3));
+		expected.addAll(expected("c", 4));
+		checkEquals(expected, ImmutableList.copyOf(scan));
+		scan.close();
+	}
+
+	/**
+	 * The failure of a partition stops the scan and is thrown to the consumer.
+	 */
+	private static void testFailure() throws Exception {
+		final ParallelScan<String> scan = newScan("a:1000", "fail").setParallelism(2).setQueuePages(1);
+		IllegalStateException e = checkThrows(IllegalStateException.class, new Block() {
+			@Override
+			public void run() {
+				while (scan.hasNext()) {
+					scan.next();
+				}
+			}
+		});
+		checkEquals("Query failed", e.getMessage());
+		checkEquals(ParallelScan.State.FAILED, scan.getProgress().get(1).getState());
+		check(!scan.hasNext(), "A failed scan has no next result");
+		waitTerminated(scan);
+		checkEquals(ParallelScan.State.CANCELLED, scan.getProgress().get(0).getState());
+	}
+
+	/**
+	 * Closing stops the workers blocked on full queues, even when the extractor swallows the interruption.
+	 */
+	private static void testClose() throws Exception {
+		ParallelScan<String> scan = newScan("a:100000", "b:100000", "c:100000").setParallelism(2).setQueuePages(1);
+		check(scan.hasNext(), "The scan has results");
+		scan.next();
+		scan.close();
+		check(!scan.hasNext(), "A closed scan has no next result");
+		waitTerminated(scan);
+		checkEquals(ParallelScan.State.CANCELLED, scan.getProgress().get(0).getState());
+		checkEquals(ParallelScan.State.CANCELLED, scan.getProgress().get(2).getState());
+	}
+
+	private static void waitTerminated(ParallelScan<?> scan) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!scan.isTerminated() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		check(scan.isTerminated(), "The workers are still running");
+	}
+
+}
@@ -0,0 +1,164 @@
+package com.cloudera.nav.ext.client.registry;
+
+import static com.cloudera.nav.ext.client.Checks.check;
+import static com.cloudera.nav.ext.client.Checks.checkEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import com.cloudera.nav.ext.client.registry.ModelPlan.Action;
+import com.cloudera.nav.ext.client.registry.ModelPlan.ActionType;
+import com.cloudera.nav.ext.client.registry.ModelReconciler.CurrentModel;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class ModelReconcilerTest {
+
+	private static final String DESIRED =
+			"{" +
+			"  \"packages\": [" +
+			"    {\"name\": \"nav\", \"classes\": [{\"name\": \"hv_table\"}]}," +
+			"    {\"name\": \"ext\", \"classes\": [{\"name\": \"report\"}]}" +
+			"  ]," +
+			"  \"namespaces\": [" +
+			"    {\"name\": \"finance\", \"properties\": [" +
+			"      {\"name\": \"costCenter\", \"type\": \"ENUM\", \"enumValues\": [\"sales\", \"supply chain\"]}," +
+			"      {\"name\": \"owner\", \"description\": \"Owner of the data\"}," +
+			"      {\"name\": \"region\", \"type\": \"ENUM\", \"enumValues\": [\"emea\"]}," +
+			"      {\"name\": \"tags\", \"multiValued\": true}" +
+			"    ]}," +
+			"    {\"name\": \"hr\", \"properties\": [{\"name\": \"employee\", \"maxLength\": 100}]}" +
+			"  ]," +
+			"  \"mappings\": {" +
+			"    \"ext.report\": [\"hr.employee\"]," +
+			"    \"nav.hv_table\": [\"finance.owner\", \"finance.costCenter\"]" +
+			"  }" +
+			"}";
+
+	public static void main(String[] args) throws Exception {
+		testPlan();
+		testPlanAgainAfterApply();
+		testOtherElementsLeft();
+		System.out.println("ModelReconcilerTest passed");
+	}
+
+	private static ModelDefinition desired() throws IOException {
+		return ModelDefinition.read(new ByteArrayInputStream(DESIRED.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * @return a mutable model, like the ones parsed from the register responses
+	 */
+	private static Map<String, Object> model(Object... keyValues) {
+		Map<String, Object> model = Maps.newLinkedHashMap();
+		for (int i = 0; i < keyValues.length; i += 2) {
+			model.put((String) keyValues[i], keyValues[i + 1]);
+		}
+		return model;
+	}
+
+	private static Map<String, Object> property(String namespace, String name, String type, boolean multiValued,
+												String description, List<String> enumValues) {
+		Map<String, Object> model = model("namespace", namespace, "name", name, "type", type, "multiValued", multiValued);
+		if (description != null) {
+			model.put("description", description);
+		}
+		if (enumValues != null) {
+			model.put("enumValues", enumValues);
+		}
+		return model;
+	}
+
+	/**
+	 * @return the models the register returns before reconciling
+	 */
+	private static CurrentModel current() {
+		CurrentModel current = new CurrentModel();
+		current.addPackage(model("name", "nav"));
+		current.addClass(model("packageName", "nav", "name", "hv_table"));
+		current.addNamespace(model("name", "finance"));
+		current.addProperty(property("finance", "costCenter", "ENUM", false, null, ImmutableList.of("sales")));
+		current.addProperty(property("finance", "owner", "TEXT", false, "Owner", null));
+		current.addProperty(property("finance", "region", "TEXT", false, null, null));
+		current.addProperty(property("finance", "tags", "TEXT", false, null, null));
+		current.addMapping(model("packageName", "nav", "className", "hv_table",
+				"properties", ImmutableList.of("finance.owner")));
+		return current;
+	}
+
+	/**
+	 * Adds to the current models the changes of the plan, as the register returns them once applied.
+	 */
+	private static void applied(CurrentModel current) {
+		current.addPackage(model("name", "ext"));
+		current.addClass(model("packageName", "ext", "name", "report"));
+		current.addNamespace(model("name", "hr"));
+		current.addProperty(property("finance", "costCenter", "ENUM", false, null, ImmutableList.of("sales", "supply chain")));
+		current.addProperty(property("finance", "owner", "TEXT", false, "Owner of the data", null));
+		Map<String, Object> employee = property("hr", "employee", "TEXT", false, null, null);
+		employee.put("maxLength", 100);
+		current.addProperty(employee);
+		current.addMapping(model("packageName", "ext", "className", "report",
+				"properties", ImmutableList.of(ImmutableMap.of("namespace", "hr", "name", "employee"))));
+		current.addMapping(model("packageName", "nav", "className", "hv_table",
+				"properties", ImmutableList.of("finance.costCenter")));
+	}
+
+	private static List<String> actions(ModelPlan plan) {
+		List<String> actions = Lists.newArrayList();
+		for (Action action : plan.getActions()) {
+			actions.add(action.toString());
+		}
+		return actions;
+	}
+
+	private static void testPlan() throws IOException {
+		ModelPlan plan = ModelReconciler.plan(desired(), current());
+		checkEquals(ImmutableList.of(
+				ActionType.CREATE_PACKAGE + " ext",
+				ActionType.CREATE_CLASS + " ext.report",
+				ActionType.CREATE_NAMESPACE + " hr",
+				ActionType.ADD_ENUM_VALUES + " finance.costCenter",
+				ActionType.UPDATE_PROPERTY + " finance.owner",
+				ActionType.CREATE_PROPERTY + " hr.employee",
+				ActionType.CREATE_MAPPINGS + " ext.report [hr.employee]",
+				ActionType.CREATE_MAPPINGS + " nav.hv_table [finance.costCenter]"), actions(plan));
+		checkEquals(ImmutableList.of(
+				"finance.region is TEXT in Navigator, the model wants ENUM",
+				"finance.tags is TEXT in Navigator, the model wants TEXT multi-valued"), plan.getConflicts());
+		check(!plan.isEmpty(), "The plan has changes");
+	}
+
+	/**
+	 * Planning again once the changes are applied plans nothing; the conflicts are still reported.
+	 */
+	private static void testPlanAgainAfterApply() throws IOException {
+		ModelDefinition desired = desired();
+		CurrentModel current = current();
+		checkEquals(8, ModelReconciler.plan(desired, current).getActions().size());
+		applied(current);
+		ModelPlan plan = ModelReconciler.plan(desired, current);
+		check(plan.isEmpty(), "Nothing is left to apply: %s", actions(plan));
+		checkEquals(2, plan.getConflicts().size());
+	}
+
+	/**
+	 * Elements of Navigator which are not in the desired model are left as they are.
+	 */
+	private static void testOtherElementsLeft() throws IOException {
+		CurrentModel current = current();
+		current.addPackage(model("name", "other"));
+		current.addProperty(property("finance", "other", "TEXT", false, null, null));
+		ModelDefinition desired = ModelDefinition.read(new ByteArrayInputStream(
+				"{\"packages\": [{\"name\": \"nav\", \"classes\": [{\"name\": \"hv_table\"}]}]}".getBytes(StandardCharsets.UTF_8)));
+		ModelPlan plan = ModelReconciler.plan(desired, current);
+		check(plan.isEmpty(), "Nothing to apply: %s", actions(plan));
+		check(plan.getConflicts().isEmpty(), "No conflicts: %s", plan.getConflicts());
+	}
+
+}
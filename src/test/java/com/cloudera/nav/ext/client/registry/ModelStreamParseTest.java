@@ -0,0 +1,125 @@
+package com.cloudera.nav.ext.client.registry;
+
+import static com.cloudera.nav.ext.client.Checks.check;
+import static com.cloudera.nav.ext.client.Checks.checkEquals;
+import static com.cloudera.nav.ext.client.Checks.checkThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import com.cloudera.nav.ext.client.Checks.Block;
+import com.cloudera.nav.ext.client.registry.MetaModelRegister2.ModelHandler;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+public class ModelStreamParseTest {
+
+	public static void main(String[] args) throws Exception {
+		testObject();
+		testArray();
+		testEmptyBody();
+		testEmptyArray();
+		testNotObjectOrArray();
+		testNotObjectInArray();
+		testHandledWhileParsing();
+		System.out.println("ModelStreamParseTest passed");
+	}
+
+	/**
+	 * Collects the parsed models.
+	 */
+	private static class Collector implements ModelHandler {
+		private final List<Map<String, Object>> models = Lists.newArrayList();
+
+		@Override
+		public void handle(Map<String, Object> model) {
+			models.add(model);
+		}
+	}
+
+	private static InputStream body(String json) {
+		return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void testObject() throws IOException {
+		Collector collector = new Collector();
+		int count = MetaModelRegister2.parse(body("{\"name\": \"namespace1\", \"enumValues\": [\"a\", \"b\"]}"), collector);
+		checkEquals(1, count);
+		checkEquals(ImmutableList.of(ImmutableMap.of("name", "namespace1", "enumValues", ImmutableList.of("a", "b"))),
+					collector.models);
+	}
+
+	private static void testArray() throws IOException {
+		Collector collector = new Collector();
+		int count = MetaModelRegister2.parse(body("[{\"name\": \"package1\"}, {\"name\": \"package2\", \"classes\": {}}]"), collector);
+		checkEquals(2, count);
+		checkEquals(2, collector.models.size());
+		checkEquals("package1", collector.models.get(0).get("name"));
+		checkEquals("package2", collector.models.get(1).get("name"));
+		checkEquals(ImmutableMap.of(), collector.models.get(1).get("classes"));
+	}
+
+	private static void testEmptyBody() throws IOException {
+		Collector collector = new Collector();
+		checkEquals(0, MetaModelRegister2.parse(body(""), collector));
+		check(collector.models.isEmpty(), "An empty body has no models");
+	}
+
+	private static void testEmptyArray() throws IOException {
+		Collector collector = new Collector();
+		checkEquals(0, MetaModelRegister2.parse(body(" [ ] "), collector));
+		check(collector.models.isEmpty(), "An empty array has no models");
+	}
+
+	private static void testNotObjectOrArray() {
+		checkThrows(JsonParseException.class, new Block() {
+			@Override
+			public void run() throws Exception {
+				MetaModelRegister2.parse(body("42"), new Collector());
+			}
+		});
+		checkThrows(JsonParseException.class, new Block() {
+			@Override
+			public void run() throws Exception {
+				MetaModelRegister2.parse(body("\"namespace1\""), new Collector());
+			}
+		});
+	}
+
+	private static void testNotObjectInArray() {
+		checkThrows(JsonParseException.class, new Block() {
+			@Override
+			public void run() throws Exception {
+				MetaModelRegister2.parse(body("[{\"name\": \"package1\"}, \"package2\"]"), new Collector());
+			}
+		});
+		checkThrows(JsonParseException.class, new Block() {
+			@Override
+			public void run() throws Exception {
+				MetaModelRegister2.parse(body("[[{\"name\": \"package1\"}]]"), new Collector());
+			}
+		});
+	}
+
+	/**
+	 * Models of an array are handed over as they are parsed, before the rest of the body is read.
+	 */
+	private static void testHandledWhileParsing() {
+		final Collector collector = new Collector();
+		checkThrows(IOException.class, new Block() {
+			@Override
+			public void run() throws Exception {
+				MetaModelRegister2.parse(body("[{\"name\": \"package1\"}, {\"name\": \"package2\"}, {\"name\": "), collector);
+			}
+		});
+		checkEquals(2, collector.models.size());
+		checkEquals("package2", collector.models.get(1).get("name"));
+	}
+
+}
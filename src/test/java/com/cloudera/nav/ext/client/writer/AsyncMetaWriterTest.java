@@ -0,0 +1,237 @@
+package com.cloudera.nav.ext.client.writer;
+
+import static com.cloudera.nav.ext.client.Checks.check;
+import static com.cloudera.nav.ext.client.Checks.checkEquals;
+import static com.cloudera.nav.ext.client.Checks.checkThrows;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.cloudera.nav.ext.client.Checks.Block;
+import com.cloudera.nav.ext.client.NavigatorContext;
+import com.cloudera.nav.ext.client.writer.AsyncMetaWriter.Backpressure;
+import com.cloudera.nav.ext.model.EntityKey;
+import com.cloudera.nav.ext.model.entities.CustomHdfsEntity;
+import com.cloudera.nav.sdk.model.entities.Entity;
+import com.cloudera.nav.sdk.model.entities.EntityType;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+
+/**
+ * Runs the asynchronous writer on a writer which records its writes instead of sending them.
+ */
+public class AsyncMetaWriterTest {
+
+	/**
+	 * Records the written entities; waits for {@link #release} and throws {@link #error} if set.
+	 */
+	private static class RecordingWriter extends MetaWriter {
+		final List<EntityKey> sent = Lists.newCopyOnWriteArrayList();
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile Error error;
+
+		RecordingWriter() {
+			super(new NavigatorContext("unused.conf"), new IdentityCache());
+		}
+
+		@Override
+		Entity newHdfsEntity(EntityType type, String path, String alias, String description,
+							 Collection<String> tags, Map<String, String> properties,
+							 Map<String, Map<String, Object>> customProperties, boolean override) {
+			return new CustomHdfsEntity(path, type, "hdfs1");
+		}
+
+		@Override
+		WriteReport write(ListMultimap<EntityKey, Entity> batch, Map<EntityKey, MetadataUpdate> updates) {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (error != null) {
+				throw error;
+			}
+			WriteReport report = new WriteReport();
+			for (EntityKey key : batch.keySet()) {
+				sent.add(key);
+				report.addSucceeded(key, false);
+			}
+			return report;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		testWrite();
+		testSenderError();
+		testCloseRace();
+		testBlockedProducer();
+		System.out.println("AsyncMetaWriterTest passed");
+	}
+
+	private static void testWrite() throws Exception {
+		RecordingWriter writer = new RecordingWriter();
+		writer.release.countDown();
+		AsyncMetaWriter async = new AsyncMetaWriter(writer, 10);
+		CompletableFuture<Void> file1 = async.updateHdfsFile("/data/file1", null, "one", null, null, null, false);
+		CompletableFuture<Void> file2 = async.updateHdfsFile("/data/file2", null, "two", null, null, null, false);
+		async.flush().get(5, TimeUnit.SECONDS);
+		check(file1.isDone() && !file1.isCompletedExceptionally(), "file1 is written");
+		check(file2.isDone() && !file2.isCompletedExceptionally(), "file2 is written");
+		checkEquals(2, writer.sent.size());
+		async.close();
+	}
+
+	/**
+	 * An error of the sender fails the batch in flight and the queued updates, and closes the writer.
+	 */
+	private static void testSenderError() throws Exception {
+		RecordingWriter writer = new RecordingWriter();
+		writer.error = new Error("Sender failed");
+		final AsyncMetaWriter async = new AsyncMetaWriter(writer, 10);
+		async.setBatchSize(1);
+		List<CompletableFuture<Void>> futures = Lists.newArrayList();
+		for (int i = 0; i < 5; i++) {
+			futures.add(async.updateHdfsFile("/data/file" + i, null, null, null, null, null, false));
+		}
+		writer.release.countDown();
+		for (final CompletableFuture<Void> future : futures) {
+			checkThrows(ExecutionException.class, new Block() {
+				@Override
+				public void run() throws Exception {
+					future.get(5, TimeUnit.SECONDS);
+				}
+			});
+		}
+		checkThrows(IllegalStateException.class, new Block() {
+			@Override
+			public void run() {
+				async.updateHdfsFile("/data/late", null, null, null, null, null, false);
+			}
+		});
+		async.close();
+	}
+
+	/**
+	 * Every update accepted while the writer closes completes: it is written, or failed if it
+	 * landed behind the end of the queue.
+	 */
+	private static void testCloseRace() throws Exception {
+		RecordingWriter writer = new RecordingWriter();
+		writer.release.countDown();
+		final AsyncMetaWriter async = new AsyncMetaWriter(writer, 1000);
+		final List<CompletableFuture<Void>> futures = Lists.newCopyOnWriteArrayList();
+		final CountDownLatch started = new CountDownLatch(4);
+		List<Thread> producers = Lists.newArrayList();
+		for (int t = 0; t < 4; t++) {
+			final int producer = t;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					started.countDown();
+					try {
+						for (int i = 0; ; i++) {
+							futures.add(async.updateHdfsFile("/data/" + producer + "/" + i, null, null, null, null, null, false));
+						}
+					} catch (IllegalStateException e) {
+						//Closed
+					}
+				}
+			});
+			thread.start();
+			producers.add(thread);
+		}
+		started.await();
+		Thread.sleep(20);
+		async.close();
+		for (Thread thread : producers) {
+			thread.join(5000);
+		}
+		int written = 0;
+		for (CompletableFuture<Void> future : futures) {
+			try {
+				future.get(5, TimeUnit.SECONDS);
+				written++;
+			} catch (ExecutionException e) {
+				check(e.getCause() instanceof IllegalStateException, "Only late updates fail: %s", e.getCause());
+			}
+		}
+		checkEquals(written, writer.sent.size());
+	}
+
+	/**
+	 * A producer waiting for free space holds up neither the other producers nor closing.
+	 */
+	private static void testBlockedProducer() throws Exception {
+		RecordingWriter writer = new RecordingWriter();
+		final AsyncMetaWriter async = new AsyncMetaWriter(writer, 1);
+		async.setBatchSize(1);
+		async.setLinger(0, TimeUnit.MILLISECONDS);
+		async.setBackpressure(Backpressure.BLOCK, 30, TimeUnit.SECONDS);
+		CompletableFuture<Void> inFlight = async.updateHdfsFile("/data/file0", null, null, null, null, null, false);
+		while (async.getQueueSize() > 0) {
+			Thread.sleep(1);
+		}
+		CompletableFuture<Void> queued = async.updateHdfsFile("/data/file1", null, null, null, null, null, false);
+
+		final List<Object> results = Lists.newCopyOnWriteArrayList();
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					results.add(async.updateHdfsFile("/data/file2", null, null, null, null, null, false));
+				} catch (RuntimeException e) {
+					results.add(e);
+				}
+			}
+		});
+		producer.start();
+		Thread.sleep(100);
+		Thread closer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				async.close();
+			}
+		});
+		closer.start();
+
+		//Other producers fail fast instead of waiting behind the blocked one, and see the writer closed
+		async.setBackpressure(Backpressure.FAIL, 0, TimeUnit.MILLISECONDS);
+		long start = System.currentTimeMillis();
+		boolean closed = false;
+		while (!closed && System.currentTimeMillis() - start < 5000) {
+			try {
+				async.updateHdfsFile("/data/other", null, null, null, null, null, false);
+			} catch (IllegalStateException e) {
+				closed = true;
+			} catch (RejectedExecutionException e) {
+				Thread.sleep(1);
+			}
+		}
+		check(closed, "The writer is closed while a producer waits for free space");
+
+		writer.release.countDown();
+		closer.join(5000);
+		producer.join(5000);
+		check(!closer.isAlive() && !producer.isAlive(), "Closing and the blocked producer complete");
+		inFlight.get(5, TimeUnit.SECONDS);
+		queued.get(5, TimeUnit.SECONDS);
+		checkEquals(1, results.size());
+		if (results.get(0) instanceof CompletableFuture) {
+			CompletableFuture<?> late = (CompletableFuture<?>) results.get(0);
+			try {
+				late.get(5, TimeUnit.SECONDS);
+			} catch (ExecutionException e) {
+				check(e.getCause() instanceof IllegalStateException, "A late update fails as closed: %s", e.getCause());
+			}
+		} else {
+			check(results.get(0) instanceof IllegalStateException, "A late update fails as closed: %s", results.get(0));
+		}
+	}
+
+}
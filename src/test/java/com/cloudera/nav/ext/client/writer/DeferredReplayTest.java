@@ -0,0 +1,104 @@
+package com.cloudera.nav.ext.client.writer;
+
+import static com.cloudera.nav.ext.client.Checks.checkEquals;
+
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cloudera.nav.ext.client.NavigatorContext;
+import com.cloudera.nav.ext.model.EntityKey;
+import com.cloudera.nav.ext.model.entities.CustomHdfsEntity;
+import com.cloudera.nav.sdk.model.entities.Entity;
+import com.cloudera.nav.sdk.model.entities.EntityType;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Checks that a deferred update is sent once, whether it is retried or replayed from the journal.
+ * The writer builds entities without sources and records its writes instead of sending them.
+ */
+public class DeferredReplayTest {
+
+	/**
+	 * Reports the entities in {@link #missing} as not found, and records the others as written.
+	 */
+	private static class RecordingWriter extends MetaWriter {
+		final Set<EntityKey> missing = Sets.newHashSet();
+		final List<EntityKey> sent = Lists.newArrayList();
+
+		RecordingWriter() {
+			super(new NavigatorContext("unused.conf"), new IdentityCache());
+		}
+
+		@Override
+		Entity newHdfsEntity(EntityType type, String path, String alias, String description,
+							 Collection<String> tags, Map<String, String> properties,
+							 Map<String, Map<String, Object>> customProperties, boolean override) {
+			CustomHdfsEntity entity = new CustomHdfsEntity(path, type, "hdfs1");
+			entity.setDescription(description);
+			return entity;
+		}
+
+		@Override
+		EntityKey keyOf(MetadataUpdate update) {
+			return EntityKey.ofHdfs("hdfs1", EntityType.valueOf(update.getType()), update.getPath());
+		}
+
+		@Override
+		WriteReport write(ListMultimap<EntityKey, Entity> batch, Map<EntityKey, MetadataUpdate> updates) {
+			WriteReport report = new WriteReport();
+			for (EntityKey key : batch.keySet()) {
+				if (missing.contains(key)) {
+					report.addMissing(Sets.newHashSet(key));
+				} else {
+					sent.add(key);
+					report.addSucceeded(key, false);
+				}
+			}
+			return report;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		testReplayThenRetry();
+		testRetryThenReplay();
+		System.out.println("DeferredReplayTest passed");
+	}
+
+	private static RecordingWriter newWriter(EntityKey missingKey) throws Exception {
+		RecordingWriter writer = new RecordingWriter();
+		writer.setJournal(new WriteJournal(Files.createTempDirectory("journal").toFile()));
+		writer.setDeferMissing(true);
+		writer.missing.add(missingKey);
+		writer.updateHdfsFile("/data/file1", null, "deferred", null, null, null, false);
+		writer.flush();
+		checkEquals(Sets.newHashSet(missingKey), writer.getDeferred());
+		checkEquals(0, writer.sent.size());
+		//The entity is registered in Navigator now
+		writer.missing.clear();
+		return writer;
+	}
+
+	private static void testReplayThenRetry() throws Exception {
+		EntityKey key = EntityKey.ofHdfs("hdfs1", EntityType.FILE, "/data/file1");
+		RecordingWriter writer = newWriter(key);
+		writer.replayJournal();
+		writer.retryDeferred();
+		checkEquals(Lists.newArrayList(key), writer.sent);
+		checkEquals(0, writer.getJournal().getPendingCount());
+	}
+
+	private static void testRetryThenReplay() throws Exception {
+		EntityKey key = EntityKey.ofHdfs("hdfs1", EntityType.FILE, "/data/file1");
+		RecordingWriter writer = newWriter(key);
+		writer.retryDeferred();
+		writer.replayJournal();
+		checkEquals(Lists.newArrayList(key), writer.sent);
+		checkEquals(0, writer.getJournal().getPendingCount());
+	}
+
+}
@@ -0,0 +1,113 @@
+package com.cloudera.nav.ext.client.writer;
+
+import static com.cloudera.nav.ext.client.Checks.check;
+import static com.cloudera.nav.ext.client.Checks.checkEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import com.cloudera.nav.ext.model.EntityKey;
+import com.cloudera.nav.sdk.model.entities.EntityType;
+
+public class IdentityCacheTest {
+
+	private static final EntityKey FILE1 = EntityKey.ofHdfs("hdfs1", EntityType.FILE, "/data/file1");
+	private static final EntityKey TABLE1 = EntityKey.ofHiveTable("hive1", "db1", "table1");
+
+	public static void main(String[] args) throws Exception {
+		testPutGet();
+		testExpireAfterWrite();
+		testExpireAfterAccess();
+		testNotFound();
+		testDisabled();
+		testIndex();
+		System.out.println("IdentityCacheTest passed");
+	}
+
+	private static void testPutGet() {
+		IdentityCache cache = new IdentityCache();
+		checkEquals(null, cache.get(FILE1));
+		cache.put(FILE1, "identity1");
+		cache.put(TABLE1, "identity2");
+		checkEquals("identity1", cache.get(FILE1));
+		checkEquals("identity2", cache.get(TABLE1));
+		checkEquals(2L, cache.size());
+		cache.invalidate(FILE1);
+		checkEquals(null, cache.get(FILE1));
+		cache.invalidateAll();
+		checkEquals(null, cache.get(TABLE1));
+	}
+
+	private static void testExpireAfterWrite() throws Exception {
+		IdentityCache cache = new IdentityCache(10, 100, TimeUnit.MILLISECONDS, IdentityCache.Expiration.AFTER_WRITE);
+		cache.put(FILE1, "identity1");
+		Thread.sleep(60);
+		checkEquals("identity1", cache.get(FILE1));
+		Thread.sleep(60);
+		checkEquals(null, cache.get(FILE1));
+	}
+
+	private static void testExpireAfterAccess() throws Exception {
+		IdentityCache cache = new IdentityCache(10, 100, TimeUnit.MILLISECONDS, IdentityCache.Expiration.AFTER_ACCESS);
+		cache.put(FILE1, "identity1");
+		for (int i = 0; i < 4; i++) {
+			Thread.sleep(50);
+			checkEquals("identity1", cache.get(FILE1));
+		}
+		Thread.sleep(150);
+		checkEquals(null, cache.get(FILE1));
+	}
+
+	private static void testNotFound() throws Exception {
+		IdentityCache cache = new IdentityCache(10, 1, TimeUnit.HOURS, IdentityCache.Expiration.AFTER_WRITE,
+												100, TimeUnit.MILLISECONDS);
+		check(!cache.isNotFound(FILE1), "Nothing is known yet");
+		cache.putNotFound(FILE1);
+		check(cache.isNotFound(FILE1), "FILE1 was not found");
+		Thread.sleep(150);
+		check(!cache.isNotFound(FILE1), "The not-found entry expired");
+
+		//Resolving or invalidating an entity forgets it was not found
+		cache.putNotFound(FILE1);
+		cache.put(FILE1, "identity1");
+		check(!cache.isNotFound(FILE1), "FILE1 is resolved");
+		cache.putNotFound(TABLE1);
+		cache.invalidate(TABLE1);
+		check(!cache.isNotFound(TABLE1), "TABLE1 is invalidated");
+
+		IdentityCache remembersNothing = new IdentityCache(10, 1, TimeUnit.HOURS, IdentityCache.Expiration.AFTER_WRITE,
+														   0, TimeUnit.SECONDS);
+		remembersNothing.putNotFound(FILE1);
+		check(!remembersNothing.isNotFound(FILE1), "Not-found entries are disabled");
+	}
+
+	private static void testDisabled() {
+		IdentityCache cache = new IdentityCache(0, 1, TimeUnit.HOURS, IdentityCache.Expiration.AFTER_WRITE);
+		cache.put(FILE1, "identity1");
+		checkEquals(null, cache.get(FILE1));
+	}
+
+	/**
+	 * Identities missing from memory are read from the index, which outlives the cache.
+	 */
+	private static void testIndex() throws Exception {
+		File file = new File(Files.createTempDirectory("index").toFile(), "identities.idx");
+		IdentityIndex index = IdentityIndex.open(file, 64);
+		try {
+			IdentityCache cache = new IdentityCache();
+			cache.setIndex(index);
+			cache.put(FILE1, "identity1");
+
+			IdentityCache restarted = new IdentityCache();
+			restarted.setIndex(index);
+			checkEquals("identity1", restarted.get(FILE1));
+			checkEquals(1L, restarted.size());
+			restarted.invalidate(FILE1);
+			checkEquals(null, index.get(FILE1, 0));
+		} finally {
+			index.close();
+		}
+	}
+
+}
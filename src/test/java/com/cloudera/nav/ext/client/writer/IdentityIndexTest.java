@@ -0,0 +1,138 @@
+package com.cloudera.nav.ext.client.writer;
+
+import static com.cloudera.nav.ext.client.Checks.check;
+import static com.cloudera.nav.ext.client.Checks.checkEquals;
+import static com.cloudera.nav.ext.client.Checks.checkThrows;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.cloudera.nav.ext.client.Checks.Block;
+import com.cloudera.nav.ext.model.EntityKey;
+import com.cloudera.nav.sdk.model.entities.EntityType;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+public class IdentityIndexTest {
+
+	public static void main(String[] args) throws Exception {
+		testPutGet();
+		testEviction();
+		testSharedInstance();
+		testConcurrentReads();
+		System.out.println("IdentityIndexTest passed");
+	}
+
+	private static File newFile() throws Exception {
+		return new File(Files.createTempDirectory("index").toFile(), "identities.idx");
+	}
+
+	private static EntityKey key(String path) {
+		return EntityKey.ofHdfs("hdfs1", EntityType.FILE, path);
+	}
+
+	private static void testPutGet() throws Exception {
+		IdentityIndex index = IdentityIndex.open(newFile(), 64);
+		try {
+			checkEquals(null, index.get(key("/a"), 0));
+			index.put(key("/a"), "identity-a");
+			index.put(key("/b"), "identity-b");
+			checkEquals("identity-a", index.get(key("/a"), 0));
+			checkEquals("identity-b", index.get(key("/b"), 60000));
+			index.put(key("/a"), "identity-a2");
+			checkEquals("identity-a2", index.get(key("/a"), 0));
+			index.invalidate(key("/a"));
+			checkEquals(null, index.get(key("/a"), 0));
+			checkEquals("identity-b", index.get(key("/b"), 0));
+			Thread.sleep(20);
+			checkEquals(null, index.get(key("/b"), 10));
+		} finally {
+			index.close();
+		}
+	}
+
+	private static void testEviction() throws Exception {
+		IdentityIndex index = IdentityIndex.open(newFile(), IdentityIndex.MAX_PROBES);
+		try {
+			for (int i = 0; i < 3 * IdentityIndex.MAX_PROBES; i++) {
+				index.put(key("/f" + i), "identity-" + i);
+			}
+			checkEquals((long) IdentityIndex.MAX_PROBES, index.getUsedSlots());
+			String last = "identity-" + (3 * IdentityIndex.MAX_PROBES - 1);
+			checkEquals(last, index.get(key("/f" + (3 * IdentityIndex.MAX_PROBES - 1)), 0));
+		} finally {
+			index.close();
+		}
+	}
+
+	/**
+	 * One instance is shared per file in a JVM, and the file is unmapped by the last holder.
+	 */
+	private static void testSharedInstance() throws Exception {
+		File file = newFile();
+		final IdentityIndex first = IdentityIndex.open(file);
+		IdentityIndex second = IdentityIndex.open(new File(file.getParentFile(), "./" + file.getName()));
+		check(first == second, "The index of a file is shared");
+		first.put(key("/a"), "identity-a");
+		first.close();
+		checkEquals("identity-a", second.get(key("/a"), 0));
+		second.close();
+		checkThrows(IllegalStateException.class, new Block() {
+			@Override
+			public void run() {
+				first.get(key("/a"), 0);
+			}
+		});
+		//Closing again is harmless
+		second.close();
+
+		IdentityIndex reopened = IdentityIndex.open(file);
+		check(reopened != first, "A closed index is opened again");
+		checkEquals("identity-a", reopened.get(key("/a"), 0));
+		reopened.close();
+	}
+
+	/**
+	 * Readers never see a torn identity while a writer keeps changing it.
+	 */
+	private static void testConcurrentReads() throws Exception {
+		final IdentityIndex index = IdentityIndex.open(newFile(), 64);
+		final EntityKey key = key("/contended");
+		final Set<String> identities = ImmutableSet.of("a", "bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb",
+				"cccccccccccccccccccccccccccccccc", "dddddddddddddddddddddddddddddddddddddddddddddddddddddddddddddddddddddddddddddddddddddddddd");
+		index.put(key, "a");
+		final AtomicBoolean stop = new AtomicBoolean();
+		final AtomicReference<String> torn = new AtomicReference<String>();
+		List<Thread> readers = Lists.newArrayList();
+		for (int t = 0; t < 4; t++) {
+			Thread reader = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (!stop.get()) {
+						String identity = index.get(key, 0);
+						if (identity != null && !identities.contains(identity)) {
+							torn.compareAndSet(null, identity);
+						}
+					}
+				}
+			});
+			reader.start();
+			readers.add(reader);
+		}
+		List<String> values = Lists.newArrayList(identities);
+		for (int i = 0; i < 100000; i++) {
+			index.put(key, values.get(i % values.size()));
+		}
+		stop.set(true);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		checkEquals(null, torn.get());
+		index.close();
+	}
+
+}
@@ -0,0 +1,116 @@
+package com.cloudera.nav.ext.client.writer;
+
+import static com.cloudera.nav.ext.client.Checks.check;
+import static com.cloudera.nav.ext.client.Checks.checkEquals;
+import static com.cloudera.nav.ext.client.Checks.checkThrows;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cloudera.nav.ext.client.Checks.Block;
+import com.cloudera.nav.ext.client.NavigatorContext;
+import com.cloudera.nav.ext.model.EntityKey;
+import com.cloudera.nav.ext.model.entities.CustomHdfsEntity;
+import com.cloudera.nav.sdk.model.entities.Entity;
+import com.cloudera.nav.sdk.model.entities.EntityType;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Batches updates on a writer which records its writes instead of sending them.
+ */
+public class MetaWriterBatchTest {
+
+	/**
+	 * Reports the entities in {@link #failing} as failed, and records the others as written.
+	 */
+	private static class RecordingWriter extends MetaWriter {
+		final Set<EntityKey> failing = Sets.newHashSet();
+		final List<Entity> sent = Lists.newArrayList();
+		int built; //Entities built
+
+		RecordingWriter() {
+			super(new NavigatorContext("unused.conf"), new IdentityCache());
+		}
+
+		@Override
+		EntityKey keyOf(MetadataUpdate update) {
+			return EntityKey.ofHdfs("hdfs1", EntityType.valueOf(update.getType()), update.getPath());
+		}
+
+		@Override
+		Entity newHdfsEntity(EntityType type, String path, String alias, String description,
+							 Collection<String> tags, Map<String, String> properties,
+							 Map<String, Map<String, Object>> customProperties, boolean override) {
+			built++;
+			CustomHdfsEntity entity = new CustomHdfsEntity(path, type, "hdfs1");
+			entity.setAlias(alias);
+			entity.setDescription(description);
+			return entity;
+		}
+
+		@Override
+		WriteReport write(ListMultimap<EntityKey, Entity> batch, Map<EntityKey, MetadataUpdate> updates) {
+			WriteReport report = new WriteReport();
+			for (Map.Entry<EntityKey, Entity> entry : batch.entries()) {
+				if (failing.contains(entry.getKey())) {
+					report.addFailed(entry.getKey(), "Rejected");
+				} else {
+					sent.add(entry.getValue());
+					report.addSucceeded(entry.getKey(), false);
+				}
+			}
+			return report;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		testMergeBuildsOnce();
+		testAutoFlushFailure();
+		System.out.println("MetaWriterBatchTest passed");
+	}
+
+	/**
+	 * Updates of the same entity are merged into one entity, built once per update.
+	 */
+	private static void testMergeBuildsOnce() {
+		RecordingWriter writer = new RecordingWriter();
+		writer.updateHdfsFile("/data/file1", "alias1", null, null, null, null, false);
+		writer.updateHdfsFile("/data/file1", null, "description1", null, null, null, false);
+		checkEquals(2, writer.built);
+		WriteReport report = writer.flush();
+		checkEquals(1, report.getSucceeded().size());
+		checkEquals(1, writer.sent.size());
+		checkEquals("alias1", writer.sent.get(0).getAlias());
+		checkEquals("description1", writer.sent.get(0).getDescription());
+	}
+
+	/**
+	 * An auto flush failure does not escape the update method; the next flush reports it.
+	 */
+	private static void testAutoFlushFailure() {
+		final RecordingWriter writer = new RecordingWriter();
+		writer.setAutoFlush(1, 0);
+		EntityKey failing = EntityKey.ofHdfs("hdfs1", EntityType.FILE, "/data/failing");
+		writer.failing.add(failing);
+		writer.updateHdfsFile("/data/failing", null, "lost", null, null, null, false);
+		writer.updateHdfsFile("/data/file1", null, "written", null, null, null, false);
+		checkEquals(1, writer.sent.size());
+
+		WriteException e = checkThrows(WriteException.class, new Block() {
+			@Override
+			public void run() {
+				writer.flush();
+			}
+		});
+		checkEquals(Sets.newHashSet(failing), e.getReport().getFailed().keySet());
+		check(e.getReport().getSucceeded().contains(EntityKey.ofHdfs("hdfs1", EntityType.FILE, "/data/file1")),
+			  "The report holds the written entities of the auto flushes");
+		//The failure is reported once
+		checkEquals(0, writer.flush().getFailed().size());
+	}
+
+}
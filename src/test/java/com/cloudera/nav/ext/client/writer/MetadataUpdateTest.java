@@ -0,0 +1,173 @@
+package com.cloudera.nav.ext.client.writer;
+
+import static com.cloudera.nav.ext.client.Checks.check;
+import static com.cloudera.nav.ext.client.Checks.checkEquals;
+import static com.cloudera.nav.ext.client.Checks.checkThrows;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.cloudera.nav.ext.client.Checks.Block;
+import com.cloudera.nav.sdk.model.entities.EntityType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+public class MetadataUpdateTest {
+
+	public static void main(String[] args) throws Exception {
+		testMergeAdds();
+		testMergeOverrides();
+		testMergeCustomProperties();
+		testMergeOtherEntity();
+		testSupersedes();
+		testDiffUnchanged();
+		testDiffChanged();
+		testDiffOverride();
+		testDiffCustomProperties();
+		System.out.println("MetadataUpdateTest passed");
+	}
+
+	private static MetadataUpdate file(String alias, String description, Collection<String> tags,
+									   Map<String, String> properties, boolean override) {
+		return MetadataUpdate.ofHdfs(EntityType.FILE, "/data/file1", alias, description, tags, properties, null, override);
+	}
+
+	private static void testMergeAdds() {
+		MetadataUpdate earlier = file("alias1", "description1", ImmutableList.of("a", "b"),
+									  ImmutableMap.of("k1", "v1", "k2", "v2"), false);
+		earlier.setSeq(1);
+		MetadataUpdate later = file(null, "description2", ImmutableList.of("b", "c"),
+									ImmutableMap.of("k2", "v2b"), false);
+		later.setSeq(2);
+		MetadataUpdate merged = earlier.merge(later);
+		checkEquals(2L, merged.getSeq());
+		checkEquals("alias1", merged.getAlias());
+		checkEquals("description2", merged.getDescription());
+		checkEquals(ImmutableSet.of("a", "b", "c"), Sets.newHashSet(merged.getTags()));
+		checkEquals(ImmutableMap.of("k1", "v1", "k2", "v2b"), merged.getProperties());
+		check(!merged.isOverride(), "Additions do not override");
+		checkEquals(earlier.getTarget(), merged.getTarget());
+	}
+
+	private static void testMergeOverrides() {
+		MetadataUpdate earlier = file(null, null, ImmutableList.of("a"), ImmutableMap.of("k1", "v1"), false);
+		MetadataUpdate later = file(null, null, ImmutableList.of("c"), ImmutableMap.of("k3", "v3"), true);
+		MetadataUpdate merged = earlier.merge(later);
+		check(merged.isOverride(), "An overriding later update overrides");
+		checkEquals(ImmutableSet.of("c"), Sets.newHashSet(merged.getTags()));
+		checkEquals(ImmutableMap.of("k3", "v3"), merged.getProperties());
+
+		//Additions after an override keep overriding the earlier metadata
+		MetadataUpdate added = merged.merge(file(null, null, ImmutableList.of("d"), null, false));
+		check(added.isOverride(), "The override is kept");
+		checkEquals(ImmutableSet.of("c", "d"), Sets.newHashSet(added.getTags()));
+	}
+
+	private static void testMergeCustomProperties() {
+		Map<String, Map<String, Object>> first = ImmutableMap.<String, Map<String, Object>>of(
+				"ns1", ImmutableMap.<String, Object>of("p1", "v1"));
+		Map<String, Map<String, Object>> second = ImmutableMap.<String, Map<String, Object>>of(
+				"ns1", ImmutableMap.<String, Object>of("p2", "v2"),
+				"ns2", ImmutableMap.<String, Object>of("p3", "v3"));
+		MetadataUpdate earlier = MetadataUpdate.ofHdfs(EntityType.FILE, "/data/file1", null, null, null, null, first, false);
+		MetadataUpdate later = MetadataUpdate.ofHdfs(EntityType.FILE, "/data/file1", null, null, null, null, second, false);
+		Map<String, Map<String, Object>> merged = earlier.merge(later).getCustomProperties();
+		checkEquals(ImmutableMap.of("p1", "v1", "p2", "v2"), merged.get("ns1"));
+		checkEquals(ImmutableMap.of("p3", "v3"), merged.get("ns2"));
+		checkEquals(null, file(null, "d", null, null, false).merge(file(null, "e", null, null, false)).getCustomProperties());
+	}
+
+	private static void testMergeOtherEntity() {
+		final MetadataUpdate file1 = file(null, "d", null, null, false);
+		final MetadataUpdate file2 = MetadataUpdate.ofHdfs(EntityType.FILE, "/data/file2", null, "d", null, null, null, false);
+		checkThrows(IllegalArgumentException.class, new Block() {
+			@Override
+			public void run() {
+				file1.merge(file2);
+			}
+		});
+		MetadataUpdate directory = MetadataUpdate.ofHdfs(EntityType.DIRECTORY, "/data/file1", null, "d", null, null, null, false);
+		check(!directory.getTarget().equals(file1.getTarget()), "The type is part of the target");
+	}
+
+	private static void testSupersedes() {
+		MetadataUpdate earlier = file("alias1", "description1", ImmutableList.of("a"), null, false);
+		check(file("alias1", "description1", ImmutableList.of("a"), null, false).supersedes(earlier),
+			  "The same metadata supersedes");
+		check(file("alias2", "description2", ImmutableList.of("b"), null, true).supersedes(earlier),
+			  "An override of everything supersedes");
+		check(!file(null, "description2", ImmutableList.of("b"), null, true).supersedes(earlier),
+			  "An override without alias keeps the earlier alias");
+		check(!file("alias2", "description2", ImmutableList.of("b"), null, false).supersedes(earlier),
+			  "Additions do not supersede");
+		MetadataUpdate other = MetadataUpdate.ofHdfs(EntityType.FILE, "/data/file2", "alias1", "description1",
+													 ImmutableList.of("a"), null, null, false);
+		check(!other.supersedes(earlier), "Another entity does not supersede");
+	}
+
+	private static Map<String, Object> current() {
+		return ImmutableMap.<String, Object>of(
+				"name", "alias1",
+				"description", "description1",
+				"tags", ImmutableList.of("a", "b"),
+				"properties", ImmutableMap.of("k1", "v1"),
+				"customProperties", ImmutableMap.of("ns1", ImmutableMap.of("p1", "v1", "p2", ImmutableList.of("x", "y"))));
+	}
+
+	private static void testDiffUnchanged() {
+		checkEquals(null, file("alias1", "description1", ImmutableList.of("a"), ImmutableMap.of("k1", "v1"), false)
+				.diff(current()));
+		checkEquals(null, file(null, null, null, null, false).diff(current()));
+		//An override of the same tags and properties does not change anything
+		checkEquals(null, file("alias1", null, ImmutableList.of("b", "a"), ImmutableMap.of("k1", "v1"), true)
+				.diff(current()));
+	}
+
+	private static void testDiffChanged() {
+		MetadataUpdate update = file("alias1", "description2", ImmutableList.of("a", "c"),
+									 ImmutableMap.of("k1", "v1", "k2", "v2"), false);
+		update.setSeq(7);
+		MetadataUpdate delta = update.diff(current());
+		checkEquals(7L, delta.getSeq());
+		checkEquals(update.getTarget(), delta.getTarget());
+		checkEquals(null, delta.getAlias());
+		checkEquals("description2", delta.getDescription());
+		checkEquals(ImmutableSet.of("c"), Sets.newHashSet(delta.getTags()));
+		checkEquals(ImmutableMap.of("k2", "v2"), delta.getProperties());
+		check(!delta.isOverride(), "Additions do not override");
+	}
+
+	private static void testDiffOverride() {
+		//Adds to the current tags and properties: written as additions
+		MetadataUpdate additions = file(null, null, ImmutableList.of("a", "b", "c"), ImmutableMap.of("k1", "v1"), true)
+				.diff(current());
+		check(!additions.isOverride(), "An override which only adds is reduced to additions");
+		checkEquals(ImmutableSet.of("c"), Sets.newHashSet(additions.getTags()));
+		checkEquals(null, additions.getProperties());
+
+		//Removes a tag: the override is kept whole
+		MetadataUpdate removal = file(null, null, ImmutableList.of("a"), ImmutableMap.of("k1", "v1"), true)
+				.diff(current());
+		check(removal.isOverride(), "An override which removes is kept");
+		checkEquals(ImmutableSet.of("a"), Sets.newHashSet(removal.getTags()));
+		checkEquals(ImmutableMap.of("k1", "v1"), removal.getProperties());
+	}
+
+	private static void testDiffCustomProperties() {
+		Map<String, Map<String, Object>> same = ImmutableMap.<String, Map<String, Object>>of(
+				"ns1", ImmutableMap.<String, Object>of("p1", "v1", "p2", new String[] {"y", "x"}));
+		checkEquals(null, MetadataUpdate.ofHdfs(EntityType.FILE, "/data/file1", null, null, null, null, same, false)
+				.diff(current()));
+
+		Map<String, Map<String, Object>> changed = ImmutableMap.<String, Map<String, Object>>of(
+				"ns1", ImmutableMap.<String, Object>of("p1", "v1", "p2", ImmutableList.of("x")),
+				"ns2", ImmutableMap.<String, Object>of("p3", "v3"));
+		MetadataUpdate delta = MetadataUpdate.ofHdfs(EntityType.FILE, "/data/file1", null, null, null, null, changed, false)
+				.diff(current());
+		checkEquals(ImmutableMap.of("ns1", ImmutableMap.of("p2", ImmutableList.of("x")), "ns2", ImmutableMap.of("p3", "v3")),
+					delta.getCustomProperties());
+	}
+
+}
@@ -0,0 +1,31 @@
+package com.cloudera.nav.ext.client.writer;
+
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+public class SetHiveTableSchema {
+
+	public static void main(String[] args) {
+		MetaWriter writer = new MetaWriter();
+
+		Map<String, ColumnMetadata> columns = Maps.newLinkedHashMap();
+		columns.put("host", new ColumnMetadata("host", "host column"));
+		columns.put("metric", new ColumnMetadata("metric", "metric column"));
+
+		Map<String, Map<String, Object>> customProperties = Maps.newHashMap();
+		Map<String, Object> basicProperties = Maps.newHashMap();
+		basicProperties.put("English_Name", "value column");
+		basicProperties.put("Column_Type", "度量字段");
+		customProperties.put("Basic_Property", basicProperties);
+		columns.put("value", new ColumnMetadata("value", "value column", Sets.newHashSet("tag1"), null, customProperties, false));
+
+		writer.updateHiveTable("default", "metrics", "metric table", "metric table", null, null, null, false);
+		writer.updateHiveTableSchema("default", "metrics", columns);
+
+		WriteReport report = writer.flush();
+		System.out.println(report);
+	}
+
+}
@@ -0,0 +1,127 @@
+package com.cloudera.nav.ext.client.writer;
+
+import static com.cloudera.nav.ext.client.Checks.checkEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import com.cloudera.nav.sdk.model.entities.EntityType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class WriteJournalTest {
+
+	public static void main(String[] args) throws Exception {
+		testRecover();
+		testTornLine();
+		testCoalesce();
+		testSegmentsDeleted();
+		testIntervalSync();
+		System.out.println("WriteJournalTest passed");
+	}
+
+	private static MetadataUpdate update(String path, String description, boolean override) {
+		return MetadataUpdate.ofHdfs(EntityType.FILE, path, null, description, null, null, null, override);
+	}
+
+	private static List<Long> seqs(List<MetadataUpdate> updates) {
+		List<Long> seqs = Lists.newArrayList();
+		for (MetadataUpdate update : updates) {
+			seqs.add(update.getSeq());
+		}
+		return seqs;
+	}
+
+	private static List<Path> segments(File directory) throws Exception {
+		List<Path> segments = Lists.newArrayList();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory.toPath(), "segment-*.log")) {
+			for (Path file : files) {
+				segments.add(file);
+			}
+		}
+		return segments;
+	}
+
+	private static void testRecover() throws Exception {
+		File directory = Files.createTempDirectory("journal").toFile();
+		WriteJournal journal = new WriteJournal(directory);
+		checkEquals(1L, journal.append(update("/a", "a", false)));
+		checkEquals(2L, journal.append(update("/b", "b", false)));
+		checkEquals(3L, journal.append(update("/c", "c", false)));
+		journal.markDone(ImmutableList.of(1L));
+		journal.close();
+
+		journal = new WriteJournal(directory);
+		checkEquals(2, journal.getPendingCount());
+		checkEquals(1L, journal.getWatermark());
+		checkEquals(3L, journal.getLastSeq());
+		List<MetadataUpdate> pending = journal.readPending();
+		checkEquals(ImmutableList.of(2L, 3L), seqs(pending));
+		checkEquals("b", pending.get(0).getDescription());
+		checkEquals(4L, journal.append(update("/d", "d", false)));
+		journal.close();
+	}
+
+	/**
+	 * A line torn by a crash while appending is skipped, the updates before it are recovered.
+	 */
+	private static void testTornLine() throws Exception {
+		File directory = Files.createTempDirectory("journal").toFile();
+		WriteJournal journal = new WriteJournal(directory);
+		journal.append(update("/a", "a", false));
+		journal.append(update("/b", "b", false));
+		journal.close();
+		Path segment = segments(directory).get(0);
+		Files.write(segment, "{\"seq\":3,\"type\":\"FI".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		journal = new WriteJournal(directory);
+		checkEquals(ImmutableList.of(1L, 2L), seqs(journal.readPending()));
+		journal.close();
+	}
+
+	private static void testCoalesce() throws Exception {
+		File directory = Files.createTempDirectory("journal").toFile();
+		WriteJournal journal = new WriteJournal(directory);
+		journal.append(update("/a", "first", true));
+		journal.append(update("/b", "other", false));
+		journal.append(update("/a", "second", true));
+		List<MetadataUpdate> pending = journal.readPending();
+		checkEquals(ImmutableList.of(2L, 3L), seqs(pending));
+		//The superseded update is done
+		checkEquals(2, journal.getPendingCount());
+		journal.close();
+	}
+
+	private static void testSegmentsDeleted() throws Exception {
+		File directory = Files.createTempDirectory("journal").toFile();
+		WriteJournal journal = new WriteJournal(directory, 1, WriteJournal.FsyncPolicy.NEVER, 0);
+		for (int i = 0; i < 5; i++) {
+			journal.append(update("/f" + i, "f", false));
+		}
+		checkEquals(5, segments(directory).size());
+		journal.markDone(ImmutableList.of(1L, 2L, 3L));
+		checkEquals(3L, journal.getWatermark());
+		checkEquals(2, segments(directory).size());
+		journal.markDone(ImmutableList.of(4L, 5L));
+		//The active segment is kept
+		checkEquals(1, segments(directory).size());
+		journal.close();
+	}
+
+	private static void testIntervalSync() throws Exception {
+		File directory = Files.createTempDirectory("journal").toFile();
+		WriteJournal journal = new WriteJournal(directory, WriteJournal.DEFAULT_MAX_SEGMENT_BYTES,
+												WriteJournal.FsyncPolicy.INTERVAL, 10);
+		journal.append(update("/a", "a", false));
+		Thread.sleep(50);
+		journal.sync();
+		journal.close();
+		checkEquals(1, new WriteJournal(directory).getPendingCount());
+	}
+
+}